@@ -0,0 +1,164 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import com.day.cq.dam.api.DamConstants;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.sling.jcr.resource.api.JcrResourceConstants;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Synthetic DAM tree built in an in-memory Oak node store:
+ * <pre>
+ * /content/dam/bench/level-1/.../level-{depth}
+ * </pre>
+ * Every folder holds {@code fanOut} assets with a rendition. The cq:tags of an asset are {@code tagsPerAsset} tags
+ * drawn from {@code tagCardinality} distinct tags; the tag {@link #MISSING_TAG} is never set so that an allow rule
+ * on it has to scan the whole folder. The trees handed to the benchmarks are read-only trees, like the ones used by
+ * the permission evaluation.
+ */
+@State(Scope.Benchmark)
+public class DamFixture {
+
+    static final String BENCH_ROOT = "/content/dam/bench";
+    static final String MISSING_TAG = "bench:missing";
+    static final String RATING = "bench:rating";
+    static final String TAGS = "cq:tags";
+    static final String EMBARGO = "bench:embargo";
+    static final String RENDITION_SIZES = "bench:renditionSizes";
+
+    private static final long SEED = 42;
+
+    @Param({"10", "1000"})
+    public int fanOut;
+
+    @Param({"2", "6"})
+    public int depth;
+
+    @Param({"10", "1000"})
+    public int tagCardinality;
+
+    @Param({"1", "20"})
+    public int tagsPerAsset;
+
+    /** The deepest folder. */
+    Tree folder;
+    /** The first asset of the deepest folder. */
+    Tree asset;
+    /** The original rendition of {@link #asset}. */
+    Tree rendition;
+    /** A tag set on {@link #asset}. */
+    String assetTag;
+    /** The path of the deepest folder. */
+    String folderPath;
+    /** The root node state of the revision holding the trees. */
+    NodeState rootState;
+    /** The properties of the metadata node of {@link #asset}, as read one by one by a client. */
+    List<PropertyState> assetProperties;
+
+    @Setup
+    public void setUp() throws CommitFailedException {
+        NodeStore store = new MemoryNodeStore();
+        NodeBuilder root = store.getRoot().builder();
+        Random random = new Random(SEED);
+
+        NodeBuilder current = folder(folder(root.child("content"), "dam"), "bench");
+        StringBuilder path = new StringBuilder(BENCH_ROOT);
+        for (int level = 1; level <= depth; level++) {
+            current = folder(current, "level-" + level);
+            path.append("/level-").append(level);
+            for (int i = 0; i < fanOut; i++) {
+                asset(current, "asset-" + i + ".jpg", random);
+            }
+        }
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+        folderPath = path.toString();
+        rootState = store.getRoot();
+        Tree rootTree = new TreeProviderService().createReadOnlyTree(rootState);
+        folder = resolve(rootTree, folderPath);
+        asset = folder.getChild("asset-0.jpg");
+        rendition = asset.getChild(JcrConstants.JCR_CONTENT).getChild(DamConstants.RENDITIONS_FOLDER)
+                .getChild(DamConstants.ORIGINAL_FILE);
+        Tree metadata = asset.getChild(JcrConstants.JCR_CONTENT).getChild(DamConstants.ACTIVITY_TYPE_METADATA);
+        assetTag = metadata.getProperty(TAGS).getValue(Type.STRING, 0);
+        assetProperties = new ArrayList<>();
+        metadata.getProperties().forEach(assetProperties::add);
+    }
+
+    private static NodeBuilder folder(NodeBuilder parent, String name) {
+        NodeBuilder folder = parent.child(name);
+        folder.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrResourceConstants.NT_SLING_FOLDER, Type.NAME);
+        return folder;
+    }
+
+    private void asset(NodeBuilder folder, String name, Random random) {
+        NodeBuilder asset = folder.child(name);
+        asset.setProperty(JcrConstants.JCR_PRIMARYTYPE, DamConstants.NT_DAM_ASSET, Type.NAME);
+        NodeBuilder content = asset.child(JcrConstants.JCR_CONTENT);
+        content.setProperty(JcrConstants.JCR_PRIMARYTYPE, "dam:AssetContent", Type.NAME);
+
+        NodeBuilder metadata = content.child(DamConstants.ACTIVITY_TYPE_METADATA);
+        metadata.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_UNSTRUCTURED, Type.NAME);
+        Set<String> tags = new LinkedHashSet<>();
+        while (tags.size() < Math.min(tagsPerAsset, tagCardinality)) {
+            tags.add("bench:tag-" + random.nextInt(tagCardinality));
+        }
+        metadata.setProperty(TAGS, tags, Type.STRINGS);
+        metadata.setProperty(RATING, String.valueOf(random.nextInt(100)), Type.STRING);
+        metadata.setProperty(EMBARGO, List.of(String.format("20%02d-%02d-01T00:00:00.000+02:00",
+                random.nextInt(40), 1 + random.nextInt(12))), Type.STRINGS);
+        // not drawn from the random, which would change the tags of the next assets
+        metadata.setProperty(RENDITION_SIZES, List.of(48_000L, 1_200_000L, 5_000_000_000L + (name.hashCode() & 0xFFFF)),
+                Type.LONGS);
+        metadata.setProperty(DamConstants.DC_TITLE, name, Type.STRING);
+        metadata.setProperty(DamConstants.DC_FORMAT, "image/jpeg", Type.STRING);
+
+        NodeBuilder original = content.child(DamConstants.RENDITIONS_FOLDER).child(DamConstants.ORIGINAL_FILE);
+        original.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_FILE, Type.NAME);
+    }
+
+    static Tree resolve(Tree root, String path) {
+        Tree tree = root;
+        for (String name : path.substring(1).split("/")) {
+            tree = tree.getChild(name);
+        }
+        return tree;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HasPropertyValuesPattern#matches(org.apache.jackrabbit.oak.api.Tree, PropertyState)} on the trees of the
+ * {@link DamFixture}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HasPropertyValuesPatternBenchmark {
+
+    private static final int LARGE_VALUE_LIST_SIZE = 500;
+    private static final int DECISION_CACHE_SIZE = 10000;
+
+    private HasPropertyValuesPattern allowOnMatchingTag;
+    private HasPropertyValuesPattern allowOnMissingTag;
+    private HasPropertyValuesPattern denyOnMatchingTag;
+    private HasPropertyValuesPattern denyOnRating;
+    private HasPropertyValuesPattern denyOnRenditionSizes;
+    private HasPropertyValuesPattern denyOnEmbargo;
+    private HasPropertyValuesPattern denyOnEmbargoToday;
+    private HasPropertyValuesPattern denyOnLargeValueList;
+    private HasPropertyValuesPattern denyUnderLargeTagRootList;
+    private RestrictionPattern denyOnMatchingTagWithDecisionCache;
+    private RestrictionPattern denyOnMatchingTagBelowFirstLevel;
+    private List<Tree> folderChildren;
+    private HasPropertyValuesPattern allowOnMissingTagFromNodeStates;
+    private String renditionPath;
+
+    @Setup
+    public void setUp(DamFixture fixture) {
+        allowOnMatchingTag = new HasPropertyValuesPattern("allow_string_" + DamFixture.TAGS + "_EQUALS_" + fixture.assetTag,
+                DamFixture.BENCH_ROOT);
+        allowOnMissingTag = new HasPropertyValuesPattern("allow_string_" + DamFixture.TAGS + "_EQUALS_" + DamFixture.MISSING_TAG,
+                DamFixture.BENCH_ROOT);
+        denyOnMatchingTag = new HasPropertyValuesPattern("deny_string_" + DamFixture.TAGS + "_EQUALS_" + fixture.assetTag,
+                DamFixture.BENCH_ROOT);
+        denyOnRating = new HasPropertyValuesPattern("deny_int_" + DamFixture.RATING + "_GREATER_THEN_50",
+                DamFixture.BENCH_ROOT);
+        denyOnRenditionSizes = new HasPropertyValuesPattern("deny_long_" + DamFixture.RENDITION_SIZES
+                + "_LESS_THEN_4000000000", DamFixture.BENCH_ROOT);
+        denyOnEmbargo = new HasPropertyValuesPattern("deny_date_" + DamFixture.EMBARGO
+                + "_LESS_THEN_2030-01-01T00:00:00.000+01:00", DamFixture.BENCH_ROOT);
+        denyOnEmbargoToday = new HasPropertyValuesPattern("deny_date_" + DamFixture.EMBARGO + "_LESS_THEN_today",
+                DamFixture.BENCH_ROOT);
+        StringBuilder largeValueList = new StringBuilder(DamFixture.MISSING_TAG);
+        for (int i = 0; i < LARGE_VALUE_LIST_SIZE; i++) {
+            largeValueList.append(',').append(DamFixture.MISSING_TAG).append('-').append(i);
+        }
+        PatternSettings decisionCacheSettings = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT,
+                RestrictionMetrics.INSTANCE, new DecisionCache(DECISION_CACHE_SIZE, new TreeProviderService()),
+                new TreeProviderService());
+        denyOnMatchingTagWithDecisionCache = HasPropertyValuesPattern.create(
+                "deny_string_" + DamFixture.TAGS + "_EQUALS_" + fixture.assetTag, DamFixture.BENCH_ROOT,
+                decisionCacheSettings);
+        denyOnLargeValueList = new HasPropertyValuesPattern("deny_string_" + DamFixture.TAGS + "_EQUALS_" + largeValueList,
+                DamFixture.BENCH_ROOT);
+        denyUnderLargeTagRootList = new HasPropertyValuesPattern("deny_string_" + DamFixture.TAGS + "_UNDER_"
+                + largeValueList, DamFixture.BENCH_ROOT);
+        folderChildren = new ArrayList<>();
+        fixture.folder.getChildren().forEach(folderChildren::add);
+        PatternSettings nodeStateSettings = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT,
+                RestrictionMetrics.INSTANCE, DecisionCache.DISABLED, new TreeProviderService());
+        allowOnMissingTagFromNodeStates = (HasPropertyValuesPattern) HasPropertyValuesPattern.create(
+                "allow_string_" + DamFixture.TAGS + "_EQUALS_" + DamFixture.MISSING_TAG, DamFixture.BENCH_ROOT,
+                nodeStateSettings);
+        renditionPath = fixture.rendition.getPath();
+        denyOnMatchingTagBelowFirstLevel = new GuardedPattern(
+                new SubFolderPattern("allow_EQUALS_1", DamFixture.BENCH_ROOT), denyOnMatchingTag);
+    }
+
+    @Benchmark
+    public boolean allowOnAsset(DamFixture fixture) {
+        return allowOnMatchingTag.matches(fixture.asset, null);
+    }
+
+    @Benchmark
+    public boolean allowOnRendition(DamFixture fixture) {
+        return allowOnMatchingTag.matches(fixture.rendition, null);
+    }
+
+    /**
+     * No child of the folder has the tag: every child is visited.
+     */
+    @Benchmark
+    public boolean allowOnFolderWithoutMatch(DamFixture fixture) {
+        return allowOnMissingTag.matches(fixture.folder, null);
+    }
+
+    /**
+     * The listing of the deepest folder, one child at a time.
+     */
+    @Benchmark
+    public void allowOnFolderChildren(Blackhole blackhole) {
+        for (Tree child : folderChildren) {
+            blackhole.consume(allowOnMatchingTag.matches(child, null));
+        }
+    }
+
+    /**
+     * Same scan as {@link #allowOnFolderWithoutMatch(DamFixture)}, reading the node states of the trees.
+     */
+    @Benchmark
+    public boolean allowOnFolderWithoutMatchFromNodeStates(DamFixture fixture) {
+        return allowOnMissingTagFromNodeStates.matches(fixture.folder, null);
+    }
+
+    /**
+     * Same evaluation as {@link #allowOnRendition(DamFixture)}, on the node states of the revision.
+     */
+    @Benchmark
+    public boolean allowOnRenditionNodeState(DamFixture fixture) {
+        return allowOnMatchingTag.matches(fixture.rootState, renditionPath);
+    }
+
+    @Benchmark
+    public boolean denyOnAsset(DamFixture fixture) {
+        return denyOnMatchingTag.matches(fixture.asset, null);
+    }
+
+    /**
+     * None of the asset tags is listed in the restriction: every tag is looked up in the value list.
+     */
+    @Benchmark
+    public boolean denyLargeValueListOnAsset(DamFixture fixture) {
+        return denyOnLargeValueList.matches(fixture.asset, null);
+    }
+
+    /**
+     * The decision on the metadata is taken once and then reused from the shared decision cache.
+     */
+    @Benchmark
+    public boolean denyOnAssetWithDecisionCache(DamFixture fixture) {
+        return denyOnMatchingTagWithDecisionCache.matches(fixture.asset, null);
+    }
+
+    @Benchmark
+    public boolean denyIntOnAsset(DamFixture fixture) {
+        return denyOnRating.matches(fixture.asset, null);
+    }
+
+    /**
+     * A multi-valued LONG property, read without converting the values to strings.
+     */
+    @Benchmark
+    public boolean denyLongOnAsset(DamFixture fixture) {
+        return denyOnRenditionSizes.matches(fixture.asset, null);
+    }
+
+    @Benchmark
+    public boolean denyDateOnAsset(DamFixture fixture) {
+        return denyOnEmbargo.matches(fixture.asset, null);
+    }
+
+    @Benchmark
+    public boolean denyTodayOnAsset(DamFixture fixture) {
+        return denyOnEmbargoToday.matches(fixture.asset, null);
+    }
+
+    /**
+     * A node read followed by the read of all the metadata properties, as done when a client reads an asset.
+     */
+    @Benchmark
+    public void denyOnAssetProperties(DamFixture fixture, Blackhole blackhole) {
+        blackhole.consume(denyOnMatchingTag.matches(fixture.asset, null));
+        for (PropertyState property : fixture.assetProperties) {
+            blackhole.consume(denyOnMatchingTag.matches(fixture.asset, property));
+        }
+    }
+
+    /**
+     * An entry restricted by rep:subFolder and rep:hasPropertyValues, on an asset deeper than the level of the entry:
+     * the metadata is not read.
+     */
+    @Benchmark
+    public boolean denyGuardedBySubFolderOnAsset(DamFixture fixture) {
+        return denyOnMatchingTagBelowFirstLevel.matches(fixture.asset, null);
+    }
+
+    /**
+     * A hierarchical tag restriction with many tag roots: each tag of the asset is matched with one descent of the
+     * compiled tag trie.
+     */
+    @Benchmark
+    public boolean denyUnderLargeTagRootListOnAsset(DamFixture fixture) {
+        return denyUnderLargeTagRootList.matches(fixture.asset, null);
+    }
+}
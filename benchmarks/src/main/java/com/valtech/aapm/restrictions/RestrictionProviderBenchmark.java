@@ -0,0 +1,201 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code getPattern} of the restriction providers, as called when the permission entries are loaded, with and
+ * without the pattern cache, from restriction strings and from pre-tokenised restrictions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestrictionProviderBenchmark {
+
+    private static final String ENTRIES_ROOT = "/jcr:system/rep:permissionStore/bench";
+
+    /** Number of distinct permission entries the calls cycle through. */
+    @Param({"1", "1000"})
+    public int entries;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private PropertyValueRestrictionProvider propertyValueProvider;
+    private SubFolderRestrictionProvider subFolderProvider;
+    private Tree[] propertyValueEntries;
+    private Tree[] propertyValueTokenEntries;
+    private Tree[] subFolderEntries;
+    private String[] oakPaths;
+    private int next;
+
+    @Setup
+    public void setUp() throws CommitFailedException {
+        int cacheSize = cached ? PropertyValueRestrictionProvider.DEFAULT_PATTERN_CACHE_SIZE : 0;
+        propertyValueProvider = new PropertyValueRestrictionProvider();
+        propertyValueProvider.activate(new PropertyValueRestrictionProvider.Config() {
+            @Override
+            public int patternCacheSize() {
+                return cacheSize;
+            }
+
+            @Override
+            public String damRootPath() {
+                return AncestorResolver.DEFAULT_DAM_ROOT_PATH;
+            }
+
+            @Override
+            public long todayClockTickMillis() {
+                return CoarseClock.DEFAULT_TICK_MILLIS;
+            }
+
+            @Override
+            public int decisionCacheSize() {
+                return 0;
+            }
+
+            @Override
+            public int decisionCacheInvalidationQueueSize() {
+                return PropertyValueRestrictionProvider.DEFAULT_INVALIDATION_QUEUE_SIZE;
+            }
+
+            @Override
+            public int budgetMaxChildren() {
+                return 0;
+            }
+
+            @Override
+            public long budgetMaxMillis() {
+                return 0;
+            }
+
+            @Override
+            public boolean budgetExceededAllows() {
+                return false;
+            }
+
+            @Override
+            public boolean patternCacheWarmUp() {
+                return false;
+            }
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return PropertyValueRestrictionProvider.Config.class;
+            }
+        });
+        subFolderProvider = new SubFolderRestrictionProvider();
+        subFolderProvider.activate(new SubFolderRestrictionProvider.Config() {
+            @Override
+            public int patternCacheSize() {
+                return cacheSize;
+            }
+
+            @Override
+            public boolean patternCacheWarmUp() {
+                return false;
+            }
+
+            @Override
+            public Class<? extends Annotation> annotationType() {
+                return SubFolderRestrictionProvider.Config.class;
+            }
+        });
+
+        NodeStore store = new MemoryNodeStore();
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder entriesBuilder = root;
+        for (String name : ENTRIES_ROOT.substring(1).split("/")) {
+            entriesBuilder = entriesBuilder.child(name);
+        }
+        for (int i = 0; i < entries; i++) {
+            entriesBuilder.child("pv-" + i).setProperty("rep:hasPropertyValues",
+                    "deny_string_cq:tags_EQUALS_bench:tag-" + i, Type.STRING);
+            entriesBuilder.child("pvt-" + i).setProperty("rep:hasPropertyValuesTokens",
+                    List.of("1", "deny", "", "string", "cq:tags", "EQUALS", "bench:tag-" + i), Type.STRINGS);
+            entriesBuilder.child("sf-" + i).setProperty("rep:subFolder",
+                    "allow_GREATER_THAN_EQUALS_" + (i % 10), Type.STRING);
+        }
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+        Tree entriesTree = DamFixture.resolve(new TreeProviderService().createReadOnlyTree(store.getRoot()), ENTRIES_ROOT);
+        propertyValueEntries = new Tree[entries];
+        propertyValueTokenEntries = new Tree[entries];
+        subFolderEntries = new Tree[entries];
+        oakPaths = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            propertyValueEntries[i] = entriesTree.getChild("pv-" + i);
+            propertyValueTokenEntries[i] = entriesTree.getChild("pvt-" + i);
+            subFolderEntries[i] = entriesTree.getChild("sf-" + i);
+            oakPaths[i] = DamFixture.BENCH_ROOT + "/folder-" + i;
+        }
+    }
+
+    @Benchmark
+    public RestrictionPattern propertyValueGetPattern() {
+        int i = nextEntry();
+        return propertyValueProvider.getPattern(oakPaths[i], propertyValueEntries[i]);
+    }
+
+    @Benchmark
+    public RestrictionPattern propertyValueGetPatternFromTokens() {
+        int i = nextEntry();
+        return propertyValueProvider.getPattern(oakPaths[i], propertyValueTokenEntries[i]);
+    }
+
+    @Benchmark
+    public RestrictionPattern subFolderGetPattern() {
+        int i = nextEntry();
+        return subFolderProvider.getPattern(oakPaths[i], subFolderEntries[i]);
+    }
+
+    private int nextEntry() {
+        int i = next;
+        next = i + 1 == entries ? 0 : i + 1;
+        return i;
+    }
+}
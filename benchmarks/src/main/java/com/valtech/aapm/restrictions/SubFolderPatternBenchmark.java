@@ -0,0 +1,74 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Level computations of {@link SubFolderPattern} for the deepest folder and asset of the {@link DamFixture}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubFolderPatternBenchmark {
+
+    private SubFolderPattern allowGreaterThanEquals;
+    private String assetPath;
+
+    @Setup
+    public void setUp(DamFixture fixture) {
+        allowGreaterThanEquals = new SubFolderPattern("allow_GREATER_THAN_EQUALS_2", DamFixture.BENCH_ROOT);
+        assetPath = fixture.asset.getPath();
+    }
+
+    @Benchmark
+    public boolean matchesAsset(DamFixture fixture) {
+        return allowGreaterThanEquals.matches(fixture.asset, null);
+    }
+
+    @Benchmark
+    public boolean matchesAssetPath() {
+        return allowGreaterThanEquals.matches(assetPath);
+    }
+
+    @Benchmark
+    public boolean isRequiredLevel(DamFixture fixture) {
+        return allowGreaterThanEquals.isRequiredLevel(DamFixture.BENCH_ROOT, 2, fixture.asset,
+                Operators.GREATER_THAN_EQUALS.getValue());
+    }
+
+    @Benchmark
+    public long countDescentLevel() {
+        return allowGreaterThanEquals.countDescentLevel(DamFixture.BENCH_ROOT, assetPath);
+    }
+}
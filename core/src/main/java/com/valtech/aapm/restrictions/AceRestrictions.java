@@ -0,0 +1,145 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.Restriction;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionImpl;
+
+import javax.jcr.security.AccessControlException;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Validation and normalisation of the restrictions of an access control entry when it is written, shared by the
+ * providers: the invalid values are rejected before they reach the permission store, and the valid ones are stored
+ * in their canonical form.
+ */
+final class AceRestrictions {
+
+    private static final String REP_RESTRICTIONS = "rep:restrictions";
+
+    private AceRestrictions() {
+    }
+
+    /**
+     * Return a restriction of an access control entry, or null if the entry does not have it. The restrictions are
+     * read from the rep:restrictions child, or from the entry itself for the entries written before it existed.
+     */
+    static PropertyState getProperty(Tree aceTree, String name) {
+        Tree restrictions = aceTree.getChild(REP_RESTRICTIONS);
+        return (restrictions.exists() ? restrictions : aceTree).getProperty(name);
+    }
+
+    /**
+     * Return the single value of a restriction of an access control entry, or null if the entry does not have it.
+     *
+     * @throws AccessControlException if the restriction is not a single string
+     */
+    static String getValue(Tree aceTree, String name) throws AccessControlException {
+        PropertyState property = getProperty(aceTree, name);
+        if (property == null) {
+            return null;
+        }
+        if (property.isArray() || property.getType() != Type.STRING) {
+            throw new AccessControlException("Restriction " + name + " must be a single string");
+        }
+        return property.getValue(Type.STRING);
+    }
+
+    /**
+     * Return a pre-tokenised restriction of an access control entry, or null if the entry does not have it.
+     *
+     * @throws AccessControlException if the restriction is not a multi-valued string
+     */
+    static PropertyState getTokens(Tree aceTree, String name) throws AccessControlException {
+        PropertyState property = getProperty(aceTree, name);
+        if (property != null && property.getType() != Type.STRINGS) {
+            throw new AccessControlException("Restriction " + name + " must be a multi-valued string");
+        }
+        return property;
+    }
+
+    /**
+     * Return the restriction with its value in canonical form, or the restriction itself if it already is.
+     *
+     * @param canonicalizer returns the canonical form of a value, or throws an {@link IllegalArgumentException} if
+     *                      it is invalid
+     * @throws AccessControlException if the value is invalid
+     */
+    static Restriction canonical(Restriction restriction, UnaryOperator<String> canonicalizer)
+            throws AccessControlException {
+        PropertyState property = restriction.getProperty();
+        String value = property.getValue(Type.STRING);
+        String canonicalValue = validate(value, canonicalizer);
+        if (canonicalValue.equals(value)) {
+            return restriction;
+        }
+        return new RestrictionImpl(PropertyStates.createProperty(property.getName(), canonicalValue, Type.STRING),
+                restriction.getDefinition());
+    }
+
+    /**
+     * Return the pre-tokenised restriction with its values in canonical form, or the restriction itself if they
+     * already are, see {@link RestrictionTokens}.
+     *
+     * @param canonicalizer returns the canonical values of a property, or throws an {@link IllegalArgumentException}
+     *                      if it is invalid
+     * @throws AccessControlException if the property is invalid
+     */
+    static Restriction canonicalTokens(Restriction restriction,
+                                       Function<PropertyState, List<String>> canonicalizer)
+            throws AccessControlException {
+        PropertyState property = restriction.getProperty();
+        List<String> canonicalValues = validate(property, canonicalizer);
+        if (hasValues(property, canonicalValues)) {
+            return restriction;
+        }
+        return new RestrictionImpl(PropertyStates.createProperty(property.getName(), canonicalValues, Type.STRINGS),
+                restriction.getDefinition());
+    }
+
+    /**
+     * @return the canonical form of the value
+     * @throws AccessControlException if the value is invalid
+     */
+    static <T, R> R validate(T value, Function<T, R> canonicalizer) throws AccessControlException {
+        try {
+            return canonicalizer.apply(value);
+        } catch (IllegalArgumentException e) {
+            throw new AccessControlException(e.getMessage());
+        }
+    }
+
+    private static boolean hasValues(PropertyState property, List<String> values) {
+        if (property.count() != values.size()) {
+            return false;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            if (!values.get(i).equals(property.getValue(Type.STRING, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
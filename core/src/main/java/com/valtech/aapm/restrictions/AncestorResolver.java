@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+/**
+ * Resolves the asset or folder a tree belongs to, stopping at the DAM root.
+ * <p>
+ * The ancestors are visited once, from the tree up to the DAM root: the first asset found wins, otherwise the
+ * nearest folder, otherwise the DAM root itself. The DAM root is recognised by comparing the names of the
+ * ancestors with its pre-split path, so no path is built during the walk. Node states have no parent: they are
+ * resolved from the node states read along their path.
+ */
+final class AncestorResolver {
+
+    static final String DEFAULT_DAM_ROOT_PATH = "/content/dam";
+
+    static final AncestorResolver DEFAULT = new AncestorResolver(DEFAULT_DAM_ROOT_PATH);
+
+    private final String damRootPath;
+    private final String[] damRootSegments;
+
+    AncestorResolver(String damRootPath) {
+        if (damRootPath == null || !damRootPath.startsWith("/") || damRootPath.length() < 2) {
+            throw new IllegalArgumentException("Invalid DAM root path '" + damRootPath + "'");
+        }
+        String normalized = damRootPath.endsWith("/") ? damRootPath.substring(0, damRootPath.length() - 1) : damRootPath;
+        this.damRootPath = normalized;
+        this.damRootSegments = normalized.substring(1).split("/");
+    }
+
+    /**
+     * Return the first node of type Asset, or else of type Folder, among the tree and its ancestors below the DAM
+     * root.
+     * Ex, with the default DAM root:
+     * - /content/dam/test-folder/my-asset.jpg/renditions/thumbnail.jpg will return /content/dam/test-folder/my-asset.jpg
+     * - /content/dam/test-folder/my-asset.jpg will return /content/dam/test-folder/my-asset.jpg
+     * - /content/dam/test-folder will return /content/dam/test-folder
+     * - /content/dam/my-file (neither asset nor folder) will return /content/dam
+     *
+     * @param tree the tree to resolve
+     * @return the asset, the folder, or the tree itself if none has been found
+     */
+    Tree resolve(Tree tree) {
+        Tree resolved = resolveOrNull(tree);
+        return resolved != null ? resolved : tree;
+    }
+
+    private Tree resolveOrNull(Tree tree) {
+        Tree folder = null;
+        Tree current = tree;
+        while (true) {
+            String primaryType = primaryType(current);
+            if (DamNodeTypes.isAssetType(primaryType)) {
+                return current;
+            }
+            if (folder == null && DamNodeTypes.isFolderType(primaryType)) {
+                folder = current;
+            }
+            if (current.isRoot()) {
+                break;
+            }
+            Tree parent = current.getParent();
+            if (isDamRoot(parent)) {
+                if (folder == null) {
+                    folder = parent;
+                }
+                break;
+            }
+            current = parent;
+        }
+        return folder;
+    }
+
+    /**
+     * Resolve a node read from the node states of a revision, like {@link #resolve(Tree)}.
+     *
+     * @param names  the names of the path of the node
+     * @param states the node states along the path: the root, then the node state of each name
+     * @return the depth in the path of the asset or folder, or the depth of the node itself if none has been found
+     */
+    int resolve(String[] names, NodeState[] states) {
+        int folder = -1;
+        int current = names.length;
+        while (true) {
+            String primaryType = primaryType(states[current]);
+            if (DamNodeTypes.isAssetType(primaryType)) {
+                return current;
+            }
+            if (folder < 0 && DamNodeTypes.isFolderType(primaryType)) {
+                folder = current;
+            }
+            if (current == 0) {
+                break;
+            }
+            int parent = current - 1;
+            if (isDamRoot(names, parent)) {
+                if (folder < 0) {
+                    folder = parent;
+                }
+                break;
+            }
+            current = parent;
+        }
+        return folder >= 0 ? folder : names.length;
+    }
+
+    private boolean isDamRoot(String[] names, int depth) {
+        if (depth != damRootSegments.length) {
+            return false;
+        }
+        for (int i = 0; i < depth; i++) {
+            if (!damRootSegments[i].equals(names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the tree is the DAM root, comparing the names of the tree and its ancestors with the
+     * segments of the DAM root path.
+     */
+    boolean isDamRoot(Tree tree) {
+        Tree current = tree;
+        for (int i = damRootSegments.length - 1; i >= 0; i--) {
+            if (current.isRoot() || !damRootSegments[i].equals(current.getName())) {
+                return false;
+            }
+            current = current.getParent();
+        }
+        return current.isRoot();
+    }
+
+    String getDamRootPath() {
+        return damRootPath;
+    }
+
+    private static String primaryType(Tree tree) {
+        return primaryType(tree.getProperty(JcrConstants.JCR_PRIMARYTYPE));
+    }
+
+    private static String primaryType(NodeState state) {
+        return primaryType(state.getProperty(JcrConstants.JCR_PRIMARYTYPE));
+    }
+
+    private static String primaryType(PropertyState ps) {
+        return ps != null ? ps.getValue(Type.STRING) : null;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A size-bounded concurrent cache.
+ * <p>
+ * Lookups never block: the value is created outside of any lock and the first value stored for a key wins.
+ * When the cache grows over its capacity, arbitrary entries (in hash order) are evicted until 90% of the
+ * capacity is left, which keeps eviction cheap and lock-free. Hit, miss and eviction counts are recorded
+ * with striped counters.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+final class BoundedCache<K, V> {
+
+    private final ConcurrentHashMap<K, V> entries = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final ToLongFunction<K> weigher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param capacity the maximum number of entries, 0 disables the cache
+     * @param weigher  estimate of the number of bytes retained by a key, used to report the footprint
+     */
+    BoundedCache(int capacity, ToLongFunction<K> weigher) {
+        this.capacity = Math.max(0, capacity);
+        this.weigher = weigher;
+    }
+
+    /**
+     * Return the cached value for the key, creating and caching it if needed.
+     *
+     * @param key    the key
+     * @param loader creates the value when the key is not cached, must not return null
+     * @return the cached or created value
+     */
+    V get(K key, Function<K, V> loader) {
+        if (capacity == 0) {
+            misses.increment();
+            return loader.apply(key);
+        }
+        V value = entries.get(key);
+        if (value != null) {
+            hits.increment();
+            return value;
+        }
+        misses.increment();
+        V created = loader.apply(key);
+        V previous = entries.putIfAbsent(key, created);
+        if (previous != null) {
+            return previous;
+        }
+        if (entries.size() > capacity) {
+            evict();
+        }
+        return created;
+    }
+
+    /**
+     * Return the cached value for the key if it is still valid, otherwise create, cache and return a new value.
+     * Unlike {@link #get(Object, Function)}, the caller always gets either a value it validated or the value it
+     * created, never a value created concurrently by another caller.
+     *
+     * @param key    the key
+     * @param valid  tells whether a cached value can still be used; invalid values are removed
+     * @param loader creates the value when the key is not cached or not valid, must not return null
+     * @return the valid cached value or the created value
+     */
+    V get(K key, Predicate<V> valid, Function<K, V> loader) {
+        if (capacity == 0) {
+            misses.increment();
+            return loader.apply(key);
+        }
+        V value = entries.get(key);
+        if (value != null) {
+            if (valid.test(value)) {
+                hits.increment();
+                return value;
+            }
+            invalidations.increment();
+            entries.remove(key, value);
+        }
+        misses.increment();
+        V created = loader.apply(key);
+        if (entries.putIfAbsent(key, created) == null && entries.size() > capacity) {
+            evict();
+        }
+        return created;
+    }
+
+    private void evict() {
+        int target = capacity - capacity / 10;
+        Iterator<K> keys = entries.keySet().iterator();
+        while (entries.size() > target && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * @return a live view of the cached keys, whose iterator supports removal
+     */
+    Set<K> keys() {
+        return entries.keySet();
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return the ratio of lookups served from the cache, between 0 and 1
+     */
+    double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Estimate the memory retained by the keys. It iterates over all entries: do not call it on a hot path.
+     *
+     * @return the estimated footprint in bytes
+     */
+    long getEstimatedFootprint() {
+        long footprint = 0;
+        for (K key : entries.keySet()) {
+            footprint += weigher.applyAsLong(key);
+        }
+        return footprint;
+    }
+
+    @Override
+    public String toString() {
+        return "size=" + size() + "/" + capacity
+                + ", hitRatio=" + String.format("%.3f", getHitRatio())
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount()
+                + ", invalidations=" + getInvalidationCount();
+    }
+}
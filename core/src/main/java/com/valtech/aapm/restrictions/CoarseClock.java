@@ -0,0 +1,106 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import java.time.Clock;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock used to resolve the "today" date restrictions, truncated to a configurable tick.
+ * <p>
+ * Within a tick, all the evaluations see the same instant, which keeps their decisions stable; with a tick of one
+ * day, "today" is the start of the current day (UTC).
+ * <p>
+ * Once started on a scheduler, the source clock is read once per tick, at the start of each tick, and the evaluations
+ * only read the cached tick. A clock which is not started reads the source clock on each call.
+ */
+final class CoarseClock {
+
+    static final long DEFAULT_TICK_MILLIS = 1000L;
+
+    static final CoarseClock DEFAULT = new CoarseClock(Clock.systemUTC(), DEFAULT_TICK_MILLIS);
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private final Clock source;
+    private final long tickMillis;
+    private volatile long tick = NOT_STARTED;
+
+    CoarseClock(Clock source, long tickMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("Tick must be at least 1 ms, was " + tickMillis);
+        }
+        this.source = source;
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * @return the current time in milliseconds since the epoch, truncated to the tick
+     */
+    long millis() {
+        long current = tick;
+        return current != NOT_STARTED ? current : truncate(source.millis());
+    }
+
+    /**
+     * Cache the current tick, and refresh it on the scheduler at the start of each tick until the scheduler is shut
+     * down and {@link #stop()} is called.
+     */
+    void start(ScheduledExecutorService scheduler) {
+        schedule(scheduler, refresh());
+    }
+
+    private void schedule(ScheduledExecutorService scheduler, long delayMillis) {
+        try {
+            scheduler.schedule(() -> schedule(scheduler, refresh()), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the scheduler is shut down => no longer refreshed
+            tick = NOT_STARTED;
+        }
+    }
+
+    /**
+     * Read the source clock and cache its tick.
+     *
+     * @return the number of milliseconds until the next tick
+     */
+    long refresh() {
+        long now = source.millis();
+        long start = truncate(now);
+        tick = start;
+        return start + tickMillis - now;
+    }
+
+    /**
+     * Read the source clock on each call again.
+     */
+    void stop() {
+        tick = NOT_STARTED;
+    }
+
+    private long truncate(long millis) {
+        return millis - Math.floorMod(millis, tickMillis);
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+}
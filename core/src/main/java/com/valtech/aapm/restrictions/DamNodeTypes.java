@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import com.day.cq.dam.api.DamConstants;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.sling.jcr.resource.api.JcrResourceConstants;
+
+/**
+ * Node type checks shared by the {@link org.apache.jackrabbit.oak.api.Tree} and
+ * {@link org.apache.jackrabbit.oak.spi.state.NodeState} based evaluations.
+ */
+final class DamNodeTypes {
+
+    private DamNodeTypes() {
+    }
+
+    /**
+     * Return true if the primary type is an asset (jcr:primaryType = dam:Asset).
+     *
+     * @param primaryType the jcr:primaryType property, may be null
+     * @return true if it's an asset, false otherwise.
+     */
+    static boolean isAsset(PropertyState primaryType) {
+        return primaryType != null && isAssetType(primaryType.getValue(Type.STRING));
+    }
+
+    static boolean isAssetType(String type) {
+        return DamConstants.NT_DAM_ASSET.equalsIgnoreCase(type);
+    }
+
+    /**
+     * Return true if the primary type is a folder.
+     * The folder types can be:
+     * - nt:Folder
+     * - sling:Folder
+     * - sling:OrderedFolder
+     *
+     * @param primaryType the jcr:primaryType property, may be null
+     * @return true if it's a folder, false otherwise.
+     */
+    static boolean isFolder(PropertyState primaryType) {
+        return primaryType != null && isFolderType(primaryType.getValue(Type.STRING));
+    }
+
+    static boolean isFolderType(String type) {
+        return JcrResourceConstants.NT_SLING_ORDERED_FOLDER.equalsIgnoreCase(type)
+                || JcrConstants.NT_FOLDER.equalsIgnoreCase(type)
+                || JcrResourceConstants.NT_SLING_FOLDER.equalsIgnoreCase(type);
+    }
+}
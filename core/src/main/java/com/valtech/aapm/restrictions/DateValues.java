@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+/**
+ * Allocation free parsing of the dates used by the rep:hasPropertyValues restrictions.
+ * <p>
+ * The supported format is the one of the restrictions and of the JCR date values:
+ * {@code yyyy-MM-dd'T'HH:mm:ss.SSS} followed by {@code Z} or an offset {@code +HH:mm}, {@code +HHmm} or {@code +HH},
+ * e.g. 2021-10-01T00:00:00.000+02:00. The fraction of second may have 1 to 9 digits, as in ISO 8601: it is truncated
+ * to milliseconds.
+ */
+final class DateValues {
+
+    /**
+     * Returned when the value is not a date.
+     */
+    static final long INVALID = Long.MIN_VALUE;
+
+    private static final int FRACTION_START = 20;
+    private static final int MAX_FRACTION_DIGITS = 9;
+    private static final long MILLIS_PER_MINUTE = 60_000L;
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private DateValues() {
+    }
+
+    /**
+     * Parse a date into milliseconds since the epoch.
+     *
+     * @param value the date
+     * @return the epoch milliseconds, or {@link #INVALID} if the value is not a valid date
+     */
+    static long parseEpochMillis(String value) {
+        if (value == null || value.length() < FRACTION_START + 2) {
+            return INVALID;
+        }
+        if (value.charAt(4) != '-' || value.charAt(7) != '-' || value.charAt(10) != 'T'
+                || value.charAt(13) != ':' || value.charAt(16) != ':' || value.charAt(19) != '.') {
+            return INVALID;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 2);
+        int day = digits(value, 8, 2);
+        int hour = digits(value, 11, 2);
+        int minute = digits(value, 14, 2);
+        int second = digits(value, 17, 2);
+        int fractionEnd = FRACTION_START;
+        while (fractionEnd < value.length() && fractionEnd - FRACTION_START < MAX_FRACTION_DIGITS
+                && value.charAt(fractionEnd) >= '0' && value.charAt(fractionEnd) <= '9') {
+            fractionEnd++;
+        }
+        int millis = fraction(value, fractionEnd);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+            return INVALID;
+        }
+        int offsetMinutes = fractionEnd < value.length() ? offsetMinutes(value, fractionEnd) : Integer.MIN_VALUE;
+        if (offsetMinutes == Integer.MIN_VALUE) {
+            return INVALID;
+        }
+        return daysFromCivil(year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute - offsetMinutes) * 60L + second) * 1000L + millis;
+    }
+
+    /**
+     * @return the milliseconds of the fraction of second, or -1 if it has no digit
+     */
+    private static int fraction(String value, int fractionEnd) {
+        if (fractionEnd == FRACTION_START) {
+            return -1;
+        }
+        int millis = 0;
+        for (int i = FRACTION_START; i < FRACTION_START + 3; i++) {
+            millis = millis * 10 + (i < fractionEnd ? value.charAt(i) - '0' : 0);
+        }
+        return millis;
+    }
+
+    private static int offsetMinutes(String value, int start) {
+        int length = value.length() - start;
+        char sign = value.charAt(start);
+        if (sign == 'Z') {
+            return length == 1 ? 0 : Integer.MIN_VALUE;
+        }
+        if (sign != '+' && sign != '-') {
+            return Integer.MIN_VALUE;
+        }
+        int hours;
+        int minutes;
+        if (length == 3) {
+            hours = digits(value, start + 1, 2);
+            minutes = 0;
+        } else if (length == 5) {
+            hours = digits(value, start + 1, 2);
+            minutes = digits(value, start + 3, 2);
+        } else if (length == 6 && value.charAt(start + 3) == ':') {
+            hours = digits(value, start + 1, 2);
+            minutes = digits(value, start + 4, 2);
+        } else {
+            return Integer.MIN_VALUE;
+        }
+        if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59) {
+            return Integer.MIN_VALUE;
+        }
+        int offset = hours * 60 + minutes;
+        return sign == '-' ? -offset : offset;
+    }
+
+    /**
+     * @return the decimal value of the digits, or -1 if a character is not a digit
+     */
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    /**
+     * Number of days between 1970-01-01 and the date of the proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+}
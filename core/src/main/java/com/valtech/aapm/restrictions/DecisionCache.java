@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Results of the rep:hasPropertyValues conditions on the jcr:content/metadata nodes, shared by all the sessions.
+ * <p>
+ * An entry is keyed by condition and metadata path and keeps the metadata node state it was computed on. It is only
+ * reused by a session reading an equal node state. The node stores read a node as a new instance on each read, but
+ * compare their node states cheaply: by record id for the segment store, by path and revision for the document store.
+ * A session reading another revision of the metadata evaluates the condition again and replaces the entry, so a
+ * decision never outlives the content it was taken on, and at most one node state is kept per condition and metadata
+ * node. Conditions on "today" depend on the time and are never cached. The condition key is computed once by the
+ * expression.
+ * <p>
+ * The cache is disabled when its size is 0 or when the trees cannot be read as node states. The entries of changed
+ * metadata are evicted by the {@link DecisionCacheInvalidator}.
+ */
+final class DecisionCache {
+
+    static final DecisionCache DISABLED = new DecisionCache(0, null);
+
+    private final BoundedCache<Key, Decision> cache;
+    private final TreeProvider treeProvider;
+    private final Set<String> conditionProperties = ConcurrentHashMap.newKeySet();
+
+    DecisionCache(int capacity, TreeProvider treeProvider) {
+        this.cache = new BoundedCache<>(treeProvider == null ? 0 : capacity, Key::estimateFootprint);
+        this.treeProvider = treeProvider;
+    }
+
+    boolean isEnabled() {
+        return cache.getCapacity() > 0;
+    }
+
+    /**
+     * Return whether the metadata node matches the condition of the expression.
+     *
+     * @param expression the compiled restriction
+     * @param metadata   the existing jcr:content/metadata tree
+     * @return the cached or computed result, null if the tree cannot be read as a node state
+     */
+    Boolean matches(HasPropertyValuesExpression expression, Tree metadata) {
+        NodeState state;
+        try {
+            state = treeProvider.asNodeState(metadata);
+        } catch (IllegalArgumentException e) {
+            // Not a tree backed by a node state => not possible to check the cached decisions
+            return null;
+        }
+        return matches(expression, metadata.getPath(), state);
+    }
+
+    boolean matches(HasPropertyValuesExpression expression, String metadataPath, NodeState metadata) {
+        if (!isEnabled() || expression.isTimeDependent()) {
+            return evaluate(expression, metadata);
+        }
+        return cache.get(new Key(expression.getConditionKey(), metadataPath),
+                decision -> decision.isValidFor(metadata),
+                key -> {
+                    conditionProperties.addAll(expression.getPropertyNames());
+                    return new Decision(metadata, evaluate(expression, metadata));
+                }).matches;
+    }
+
+    /**
+     * @return true if a cached decision may depend on the property
+     */
+    boolean isConditionProperty(String propertyName) {
+        return conditionProperties.contains(propertyName);
+    }
+
+    /**
+     * Evict the decisions taken on the given metadata nodes and on the nodes below the removed paths.
+     *
+     * @param metadataPaths the paths of changed metadata nodes
+     * @param removedPaths  the paths of removed nodes
+     * @return the number of evicted decisions
+     */
+    int invalidate(Set<String> metadataPaths, Set<String> removedPaths) {
+        int evicted = 0;
+        for (Iterator<Key> keys = cache.keys().iterator(); keys.hasNext(); ) {
+            String path = keys.next().metadataPath;
+            if (metadataPaths.contains(path) || isBelowAny(path, removedPaths)) {
+                keys.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private static boolean isBelowAny(String path, Set<String> ancestorPaths) {
+        for (String ancestorPath : ancestorPaths) {
+            if (path.startsWith(ancestorPath)
+                    && (path.length() == ancestorPath.length() || path.charAt(ancestorPath.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean evaluate(HasPropertyValuesExpression expression, NodeState metadata) {
+        return expression.matches(metadata::getProperty);
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    BoundedCache<Key, Decision> getCache() {
+        return cache;
+    }
+
+    @Override
+    public String toString() {
+        return cache.toString();
+    }
+
+    static final class Key {
+
+        // object headers, references and the cached decision
+        private static final long ENTRY_OVERHEAD = 120;
+
+        private final String condition;
+        private final String metadataPath;
+        private final int hash;
+
+        Key(String condition, String metadataPath) {
+            this.condition = condition;
+            this.metadataPath = metadataPath;
+            this.hash = Objects.hash(condition, metadataPath);
+        }
+
+        /**
+         * Rough estimate of the memory retained by a cache entry for this key, not counting the node state which is
+         * shared with the node store caches.
+         *
+         * @return the estimated footprint in bytes
+         */
+        long estimateFootprint() {
+            return ENTRY_OVERHEAD + 4L * (condition.length() + metadataPath.length());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key c = (Key) o;
+            return hash == c.hash && condition.equals(c.condition) && metadataPath.equals(c.metadataPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    static final class Decision {
+
+        private final NodeState metadata;
+        private final boolean matches;
+
+        private Decision(NodeState metadata, boolean matches) {
+            this.metadata = metadata;
+            this.matches = matches;
+        }
+
+        private boolean isValidFor(NodeState current) {
+            if (metadata == current) {
+                return true;
+            }
+            try {
+                return metadata.equals(current);
+            } catch (RuntimeException e) {
+                // The cached state can no longer be read, e.g. after a revision garbage collection => not valid
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import com.day.cq.dam.api.DamConstants;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.DefaultNodeStateDiff;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Evicts the entries of a {@link DecisionCache} once the metadata they were computed on has changed.
+ * <p>
+ * The cache checks the node state of every entry before reusing it, so this is not needed for the decisions to be
+ * correct: it frees the entries which can no longer be reused and saves the comparison of the changed node states.
+ * Each observed change is compared with the previous one under the DAM root, and the entries of the metadata nodes
+ * whose condition properties changed, or of the removed or moved nodes, are evicted in a single pass over the cache.
+ * It is meant to run in a {@code BackgroundObserver}, off the commit thread.
+ */
+final class DecisionCacheInvalidator implements Observer {
+
+    private final DecisionCache decisionCache;
+    private final String damRootPath;
+    private final String[] damRootSegments;
+    private final RestrictionMetrics metrics;
+
+    // only accessed by the observation thread
+    private NodeState previousRoot;
+
+    DecisionCacheInvalidator(DecisionCache decisionCache, String damRootPath, RestrictionMetrics metrics) {
+        this.decisionCache = decisionCache;
+        this.damRootPath = damRootPath;
+        this.damRootSegments = damRootPath.substring(1).split("/");
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        NodeState before = previousRoot;
+        previousRoot = root;
+        if (before == null || decisionCache.getCache().size() == 0) {
+            return;
+        }
+        NodeState damBefore = damRoot(before);
+        NodeState damAfter = damRoot(root);
+        Set<String> metadataPaths = new HashSet<>();
+        Set<String> removedPaths = new HashSet<>();
+        if (damBefore.exists() && !damAfter.exists()) {
+            removedPaths.add(damRootPath);
+        } else if (damAfter.exists()) {
+            damAfter.compareAgainstBaseState(damBefore, new ChangeCollector(damRootPath, metadataPaths, removedPaths));
+        }
+        int evicted = metadataPaths.isEmpty() && removedPaths.isEmpty()
+                ? 0 : decisionCache.invalidate(metadataPaths, removedPaths);
+        // the date of the external and of the collapsed changes is not the date of the commit
+        long lagMillis = info.isExternal() || info == CommitInfo.EMPTY ? -1 : System.currentTimeMillis() - info.getDate();
+        metrics.recordInvalidation(evicted, lagMillis);
+    }
+
+    private NodeState damRoot(NodeState root) {
+        NodeState state = root;
+        for (String segment : damRootSegments) {
+            state = state.getChildNode(segment);
+        }
+        return state;
+    }
+
+    private final class ChangeCollector extends DefaultNodeStateDiff {
+
+        private final String path;
+        private final Set<String> metadataPaths;
+        private final Set<String> removedPaths;
+
+        private ChangeCollector(String path, Set<String> metadataPaths, Set<String> removedPaths) {
+            this.path = path;
+            this.metadataPaths = metadataPaths;
+            this.removedPaths = removedPaths;
+        }
+
+        @Override
+        public boolean childNodeChanged(String name, NodeState before, NodeState after) {
+            String childPath = path + "/" + name;
+            if (DamConstants.ACTIVITY_TYPE_METADATA.equals(name) && path.endsWith("/" + JcrConstants.JCR_CONTENT)) {
+                if (hasChangedConditionProperty(before, after)) {
+                    metadataPaths.add(childPath);
+                }
+                return true;
+            }
+            return after.compareAgainstBaseState(before, new ChangeCollector(childPath, metadataPaths, removedPaths));
+        }
+
+        @Override
+        public boolean childNodeDeleted(String name, NodeState before) {
+            // also reported for the source of a move
+            removedPaths.add(path + "/" + name);
+            return true;
+        }
+    }
+
+    private boolean hasChangedConditionProperty(NodeState before, NodeState after) {
+        // the comparison is aborted, i.e. returns false, on the first changed condition property
+        return !after.compareAgainstBaseState(before, new DefaultNodeStateDiff() {
+            @Override
+            public boolean propertyAdded(PropertyState property) {
+                return !decisionCache.isConditionProperty(property.getName());
+            }
+
+            @Override
+            public boolean propertyChanged(PropertyState before, PropertyState after) {
+                return !decisionCache.isConditionProperty(after.getName());
+            }
+
+            @Override
+            public boolean propertyDeleted(PropertyState property) {
+                return !decisionCache.isConditionProperty(property.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the work of an allow rule scanning the children of a folder: number of children visited and elapsed time.
+ * <p>
+ * When the budget is exhausted, the scan stops and the configured decision applies: by default the allow rule does
+ * not apply, so the folder is not made visible (fail closed). The warnings are rate-limited, so a folder read by
+ * every request does not flood the log.
+ */
+final class EvaluationBudget {
+
+    static final EvaluationBudget UNLIMITED = new EvaluationBudget(0, 0, false);
+
+    static final long WARNING_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // children visited between two reads of the clock
+    private static final int CLOCK_CHECK_INTERVAL = 16;
+
+    private final int maxChildren;
+    private final long maxNanos;
+    private final boolean exceededDecision;
+    private final AtomicLong nextWarningMillis = new AtomicLong();
+
+    /**
+     * @param maxChildren      maximum number of children visited by a scan, 0 for no limit
+     * @param maxMillis        maximum duration of a scan in milliseconds, 0 for no limit
+     * @param exceededDecision decision of an allow rule whose scan exhausts the budget
+     */
+    EvaluationBudget(int maxChildren, long maxMillis, boolean exceededDecision) {
+        this.maxChildren = Math.max(0, maxChildren);
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxMillis));
+        this.exceededDecision = exceededDecision;
+    }
+
+    /**
+     * @return the start time to pass to {@link #isExhausted(int, long)}, 0 if the time is not limited
+     */
+    long start() {
+        return maxNanos > 0 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Return true if the scan must stop before visiting one more child.
+     *
+     * @param scanned the number of children already visited
+     * @param start   the value returned by {@link #start()} when the scan started
+     * @return true if the budget is exhausted
+     */
+    boolean isExhausted(int scanned, long start) {
+        if (maxChildren > 0 && scanned >= maxChildren) {
+            return true;
+        }
+        return maxNanos > 0 && scanned > 0 && scanned % CLOCK_CHECK_INTERVAL == 0
+                && System.nanoTime() - start > maxNanos;
+    }
+
+    boolean getExceededDecision() {
+        return exceededDecision;
+    }
+
+    /**
+     * Log that the scan of a folder exhausted the budget, at most once per {@link #WARNING_INTERVAL_MILLIS}.
+     */
+    void warn(Logger log, String pattern, String folderPath) {
+        long now = System.currentTimeMillis();
+        long next = nextWarningMillis.get();
+        if (now >= next && nextWarningMillis.compareAndSet(next, now + WARNING_INTERVAL_MILLIS)) {
+            log.warn("Evaluation budget ({}) exhausted by {} on the children of {}: the rule {}", this, pattern,
+                    folderPath, exceededDecision ? "applies" : "does not apply");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "maxChildren=" + maxChildren + ", maxMillis=" + TimeUnit.NANOSECONDS.toMillis(maxNanos)
+                + ", exceededDecision=" + exceededDecision;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+
+import java.lang.ref.WeakReference;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Decisions already taken by the patterns for the tree currently evaluated on this thread.
+ * <p>
+ * Oak evaluates the restrictions once for a node and then once per property read on that node, always on read-only
+ * trees of the revision being read: another revision means other tree instances. The decisions are therefore only
+ * kept for the last tree instance seen by the thread, and the node level check always evaluates again.
+ * <p>
+ * The metadata read for that tree instance is kept as well, so that the patterns of several entries evaluated on the
+ * same node look it up once.
+ * <p>
+ * The thread only holds the context through a weak reference: the context is kept by the patterns evaluating a tree,
+ * and may be collected as soon as no evaluation is running on the thread. Neither the last evaluated tree nor this
+ * class, i.e. the class loader of the bundle, are then kept by the pooled request threads. A collected context only
+ * costs a new evaluation of the next property check.
+ */
+final class EvaluationContext {
+
+    private static final ThreadLocal<WeakReference<EvaluationContext>> CURRENT = new ThreadLocal<>();
+
+    private Tree tree;
+    private final Map<RestrictionPattern, Boolean> decisions = new IdentityHashMap<>();
+    private final Map<Tree, MetadataView> metadata = new IdentityHashMap<>();
+
+    private EvaluationContext() {
+    }
+
+    /**
+     * @return the context of the thread, to be kept by the caller for the duration of its evaluation
+     */
+    static EvaluationContext current() {
+        WeakReference<EvaluationContext> reference = CURRENT.get();
+        EvaluationContext context = reference != null ? reference.get() : null;
+        if (context == null) {
+            context = new EvaluationContext();
+            CURRENT.set(new WeakReference<>(context));
+        }
+        return context;
+    }
+
+    /**
+     * Return the decision taken by the pattern for this tree instance.
+     *
+     * @return the decision, or null if the pattern has not been evaluated on this tree instance
+     */
+    Boolean getDecision(Tree tree, RestrictionPattern pattern) {
+        if (this.tree != tree) {
+            return null;
+        }
+        return decisions.get(pattern);
+    }
+
+    void putDecision(Tree tree, RestrictionPattern pattern, boolean decision) {
+        setTree(tree);
+        decisions.put(pattern, decision);
+    }
+
+    /**
+     * Start the node check of the pattern on this tree instance. Checking the node again with the same pattern starts
+     * a new evaluation of the tree, which reads the metadata again.
+     */
+    void startNodeCheck(Tree tree, RestrictionPattern pattern) {
+        if (this.tree == tree && decisions.containsKey(pattern)) {
+            metadata.clear();
+        }
+    }
+
+    /**
+     * Return the metadata of a node read while evaluating this tree instance, reading it the first time.
+     *
+     * @param tree   the evaluated tree
+     * @param node   the node whose metadata is read: the tree itself, or the asset resolved for it
+     * @param reader reads the metadata of the node
+     * @return the metadata of the node
+     */
+    MetadataView getMetadata(Tree tree, Tree node, Function<Tree, MetadataView> reader) {
+        setTree(tree);
+        return metadata.computeIfAbsent(node, reader);
+    }
+
+    private void setTree(Tree tree) {
+        if (this.tree != tree) {
+            this.tree = tree;
+            decisions.clear();
+            metadata.clear();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+
+/**
+ * Pattern used in place of a restriction that cannot be compiled. It fails closed: the entry of a "deny" restriction
+ * applies to every item, the entry of an "allow" restriction to none. The permission type is read from the
+ * restriction itself, which has to be the same as the one of the entry, and an unknown permission type never matches.
+ * Contrary to {@link RestrictionPattern#EMPTY}, a broken restriction neither turns into an unrestricted allow entry
+ * nor stops a deny entry from applying.
+ */
+final class FailClosedPattern implements RestrictionPattern {
+
+    static final FailClosedPattern DENY = new FailClosedPattern(true);
+    static final FailClosedPattern ALLOW = new FailClosedPattern(false);
+
+    private static final String DENY_TOKEN = "deny";
+    private static final char SEPARATOR = '_';
+    private static final int PERMISSION_TOKEN = 1;
+
+    private final boolean deny;
+
+    private FailClosedPattern(boolean deny) {
+        this.deny = deny;
+    }
+
+    /**
+     * @param restriction the restriction string, e.g. deny_string_cq:tags_EQUALS_a
+     * @return the pattern for the permission type the restriction starts with
+     */
+    static FailClosedPattern of(String restriction) {
+        int permissionEnd = restriction == null ? -1 : restriction.indexOf(SEPARATOR);
+        return permissionEnd >= 0 && DENY_TOKEN.equalsIgnoreCase(restriction.substring(0, permissionEnd))
+                ? DENY : ALLOW;
+    }
+
+    /**
+     * @param property a single-valued restriction, or a pre-tokenised one, see {@link RestrictionTokens}
+     * @return the pattern for the permission type of the restriction
+     */
+    static FailClosedPattern of(PropertyState property) {
+        if (!property.isArray()) {
+            return of(property.getValue(Type.STRING));
+        }
+        return property.count() > PERMISSION_TOKEN
+                && DENY_TOKEN.equals(property.getValue(Type.STRING, PERMISSION_TOKEN)) ? DENY : ALLOW;
+    }
+
+    @Override
+    public boolean matches(Tree tree, PropertyState property) {
+        return deny;
+    }
+
+    @Override
+    public boolean matches(String path) {
+        return deny;
+    }
+
+    @Override
+    public boolean matches() {
+        return deny;
+    }
+
+    @Override
+    public String toString() {
+        return deny ? "invalid deny restriction, matching all" : "invalid allow restriction, matching nothing";
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.commit.DefaultEditor;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Commit editor maintaining the {@link FolderVisibilityIndex} counts.
+ * <p>
+ * The editor only walks down to the DAM root and then follows the folders. For every changed folder, the counts
+ * are updated with the difference between the matching children before and after the commit, so that a commit
+ * only evaluates the children it touches. A folder created by the commit (including a moved folder) is counted
+ * from its added children, and an existing folder without count yet is fully recounted the first time one of
+ * its children changes.
+ */
+final class FolderVisibilityEditor extends DefaultEditor {
+
+    private final Definition definition;
+    private final NodeBuilder builder;
+    private final int depth;
+    private final long[] deltas;
+    private boolean childrenChanged;
+
+    FolderVisibilityEditor(Definition definition, NodeBuilder rootBuilder) {
+        this(definition, rootBuilder, 0);
+    }
+
+    private FolderVisibilityEditor(Definition definition, NodeBuilder builder, int depth) {
+        this.definition = definition;
+        this.builder = builder;
+        this.depth = depth;
+        this.deltas = isUnderDamRoot() ? new long[definition.conditions.size()] : null;
+    }
+
+    private boolean isUnderDamRoot() {
+        return depth >= definition.damRootSegments.length;
+    }
+
+    @Override
+    public Editor childNodeAdded(String name, NodeState after) {
+        if (!isUnderDamRoot()) {
+            return childOnTheWayToDamRoot(name);
+        }
+        if (isHidden(name)) {
+            return null;
+        }
+        childrenChanged = true;
+        for (int i = 0; i < deltas.length; i++) {
+            if (FolderVisibilityIndex.isMatchingChild(definition.conditions.get(i), after)) {
+                deltas[i]++;
+            }
+        }
+        return folderEditor(name, after);
+    }
+
+    @Override
+    public Editor childNodeChanged(String name, NodeState before, NodeState after) {
+        if (!isUnderDamRoot()) {
+            return childOnTheWayToDamRoot(name);
+        }
+        if (isHidden(name)) {
+            return null;
+        }
+        childrenChanged = true;
+        for (int i = 0; i < deltas.length; i++) {
+            HasPropertyValuesExpression condition = definition.conditions.get(i);
+            boolean matchedBefore = FolderVisibilityIndex.isMatchingChild(condition, before);
+            boolean matchesAfter = FolderVisibilityIndex.isMatchingChild(condition, after);
+            if (matchedBefore != matchesAfter) {
+                deltas[i] += matchesAfter ? 1 : -1;
+            }
+        }
+        return folderEditor(name, after);
+    }
+
+    @Override
+    public Editor childNodeDeleted(String name, NodeState before) {
+        if (!isUnderDamRoot() || isHidden(name)) {
+            return null;
+        }
+        childrenChanged = true;
+        for (int i = 0; i < deltas.length; i++) {
+            if (FolderVisibilityIndex.isMatchingChild(definition.conditions.get(i), before)) {
+                deltas[i]--;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void leave(NodeState before, NodeState after) {
+        if (!isUnderDamRoot() || !FolderVisibilityIndex.isFolder(after)) {
+            return;
+        }
+        boolean created = !before.exists();
+        for (int i = 0; i < deltas.length; i++) {
+            String propertyName = definition.propertyNames.get(i);
+            PropertyState count = builder.getProperty(propertyName);
+            if (created) {
+                // every child of a created folder has been reported as added
+                builder.setProperty(propertyName, deltas[i], Type.LONG);
+            } else if (count != null) {
+                if (deltas[i] != 0) {
+                    builder.setProperty(propertyName, Math.max(0, count.getValue(Type.LONG) + deltas[i]), Type.LONG);
+                }
+            } else if (childrenChanged) {
+                builder.setProperty(propertyName,
+                        FolderVisibilityIndex.countMatchingChildren(definition.conditions.get(i), after), Type.LONG);
+            }
+        }
+    }
+
+    private Editor childOnTheWayToDamRoot(String name) {
+        if (name.equals(definition.damRootSegments[depth])) {
+            return new FolderVisibilityEditor(definition, builder.getChildNode(name), depth + 1);
+        }
+        return null;
+    }
+
+    private Editor folderEditor(String name, NodeState child) {
+        if (FolderVisibilityIndex.isFolder(child)) {
+            return new FolderVisibilityEditor(definition, builder.getChildNode(name), depth + 1);
+        }
+        // assets and other nodes only matter through their own jcr:content/metadata
+        return null;
+    }
+
+    private static boolean isHidden(String name) {
+        return name.charAt(0) == ':';
+    }
+
+    /**
+     * The conditions to index and where.
+     */
+    static final class Definition {
+
+        private static final Logger LOG = LoggerFactory.getLogger(Definition.class);
+
+        final List<HasPropertyValuesExpression> conditions;
+        final List<String> propertyNames;
+        final String damRootPath;
+        final String[] damRootSegments;
+
+        private Definition(List<HasPropertyValuesExpression> conditions, List<String> propertyNames, String damRootPath) {
+            this.conditions = conditions;
+            this.propertyNames = propertyNames;
+            this.damRootPath = damRootPath;
+            this.damRootSegments = damRootPath.substring(1).split("/");
+        }
+
+        /**
+         * Compile the restrictions to index. Invalid restrictions, and the restrictions comparing a date with "today",
+         * whose counts would go stale without any commit, are logged and ignored. Restrictions sharing the same
+         * condition are indexed once, boolean restrictions included.
+         *
+         * @param restrictions rep:hasPropertyValues restrictions, e.g. allow_string_cq:tags_EQUALS_properties:orientation/portrait
+         * @param damRootPath  the absolute path of the DAM root
+         * @return the definition
+         */
+        static Definition of(String[] restrictions, String damRootPath) {
+            if (damRootPath == null || !damRootPath.startsWith("/") || damRootPath.length() < 2) {
+                throw new IllegalArgumentException("Invalid DAM root path '" + damRootPath + "'");
+            }
+            Map<String, HasPropertyValuesExpression> conditions = new LinkedHashMap<>();
+            for (String restriction : restrictions) {
+                try {
+                    HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(restriction);
+                    if (expression.isTimeDependent()) {
+                        // the count would only be right until the clock changes the decision of an unchanged asset
+                        LOG.error("Ignoring folder visibility index restriction '{}': it depends on the time",
+                                restriction);
+                        continue;
+                    }
+                    conditions.putIfAbsent(FolderVisibilityIndex.propertyName(expression), expression);
+                } catch (IllegalArgumentException e) {
+                    LOG.error("Ignoring folder visibility index restriction: {}", e.getMessage());
+                }
+            }
+            return new Definition(List.copyOf(conditions.values()), List.copyOf(conditions.keySet()),
+                    damRootPath.endsWith("/") ? damRootPath.substring(0, damRootPath.length() - 1) : damRootPath);
+        }
+
+        boolean isEmpty() {
+            return conditions.isEmpty();
+        }
+    }
+}
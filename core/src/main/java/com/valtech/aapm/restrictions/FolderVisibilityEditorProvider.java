@@ -0,0 +1,326 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Editor;
+import org.apache.jackrabbit.oak.spi.commit.EditorProvider;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.apache.sling.commons.scheduler.Scheduler;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registers the {@link FolderVisibilityEditor} for the configured restrictions and provides the
+ * {@link FolderVisibilityIndex} once the counts have been rebuilt.
+ * <p>
+ * Content may have changed while the editor was not active, so the counts of all the DAM folders are rebuilt on
+ * activation by a Sling scheduler job, cancelled on deactivation. The job commits batches of folders to recount
+ * with the session of the {@value #REINDEX_SUBSERVICE} service user, i.e. through all the commit hooks and validators
+ * of the repository, and the editor recounts them within the same commit: the counts are hidden properties, which
+ * only a commit hook can write. The index is only returned by {@link #getIndex()} once this is done; in the meantime
+ * folders are evaluated by scanning their children. In a cluster, the component must be active with the same
+ * configuration on every instance writing to the DAM.
+ */
+@Component(service = {EditorProvider.class, FolderVisibilityEditorProvider.class}, immediate = true)
+@Designate(ocd = FolderVisibilityEditorProvider.Config.class)
+public class FolderVisibilityEditorProvider implements EditorProvider {
+
+    @ObjectClassDefinition(name = "AAPM folder visibility index",
+            description = "Maintains on every DAM folder the number of children matching rep:hasPropertyValues "
+                    + "conditions, so that allow rules evaluate folders without scanning their children.")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Indexed restrictions",
+                description = "rep:hasPropertyValues restrictions whose condition is indexed, "
+                        + "e.g. allow_string_cq:tags_EQUALS_properties:orientation/portrait.")
+        String[] restrictions() default {};
+
+        @AttributeDefinition(name = "DAM root")
+        String damRootPath() default DEFAULT_DAM_ROOT_PATH;
+
+        @AttributeDefinition(name = "Reindex batch size",
+                description = "Number of folders recounted per commit when the index is rebuilt on activation.")
+        int reindexBatchSize() default DEFAULT_REINDEX_BATCH_SIZE;
+    }
+
+    static final String DEFAULT_DAM_ROOT_PATH = "/content/dam";
+    static final int DEFAULT_REINDEX_BATCH_SIZE = 100;
+
+    /**
+     * The node through which the reindex job asks for the recount of folders, and its property listing their paths.
+     * The property is removed by the editor in the commit setting it.
+     */
+    static final String REINDEX_REQUEST_PATH = "/var/aapm/folderVisibilityReindex";
+    static final String REINDEX_FOLDERS = "folders";
+    static final String REINDEX_SUBSERVICE = "folder-visibility-reindex";
+
+    private static final Logger LOG = LoggerFactory.getLogger(FolderVisibilityEditorProvider.class);
+
+    private static final String REINDEX_JOB = "aapm-folder-visibility-reindex";
+    private static final int RECOUNT_ATTEMPTS = 3;
+
+    @Reference
+    private NodeStore nodeStore;
+
+    @Reference
+    private TreeProvider treeProvider;
+
+    @Reference
+    private Scheduler scheduler;
+
+    @Reference
+    private SlingRepository repository;
+
+    private volatile FolderVisibilityEditor.Definition definition;
+    private volatile FolderVisibilityIndex index;
+    private AtomicBoolean cancelled;
+
+    public FolderVisibilityEditorProvider() {
+    }
+
+    FolderVisibilityEditorProvider(NodeStore nodeStore, FolderVisibilityEditor.Definition definition) {
+        this.nodeStore = nodeStore;
+        this.definition = definition;
+    }
+
+    @Activate
+    protected void activate(Config config) {
+        FolderVisibilityEditor.Definition newDefinition =
+                FolderVisibilityEditor.Definition.of(config.restrictions(), config.damRootPath());
+        definition = newDefinition;
+        index = null;
+        if (newDefinition.isEmpty()) {
+            return;
+        }
+        FolderVisibilityIndex rebuilt = new FolderVisibilityIndex(treeProvider, new HashSet<>(newDefinition.propertyNames));
+        AtomicBoolean reindexCancelled = new AtomicBoolean();
+        cancelled = reindexCancelled;
+        int batchSize = Math.max(1, config.reindexBatchSize());
+        Runnable job = () -> {
+            if (reindex(newDefinition, batchSize, reindexCancelled)) {
+                publish(rebuilt, reindexCancelled);
+            }
+        };
+        if (!scheduler.schedule(job, scheduler.NOW().name(REINDEX_JOB).canRunConcurrently(false))) {
+            LOG.error("Folder visibility index not rebuilt: the reindex job could not be scheduled");
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        synchronized (this) {
+            if (cancelled != null) {
+                cancelled.set(true);
+            }
+            index = null;
+        }
+        // a running job stops at its next batch
+        scheduler.unschedule(REINDEX_JOB);
+        definition = null;
+    }
+
+    private synchronized void publish(FolderVisibilityIndex rebuilt, AtomicBoolean reindexCancelled) {
+        if (!reindexCancelled.get()) {
+            index = rebuilt;
+        }
+    }
+
+    /**
+     * @return the index, null until the counts have been rebuilt or if no restriction is indexed
+     */
+    FolderVisibilityIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public Editor getRootEditor(NodeState before, NodeState after, NodeBuilder builder, CommitInfo info) {
+        FolderVisibilityEditor.Definition current = definition;
+        if (current == null || current.isEmpty()) {
+            return null;
+        }
+        recountRequestedFolders(current, after, builder);
+        return new FolderVisibilityEditor(current, builder);
+    }
+
+    /**
+     * Recount the folders listed by the reindex job in the commit, i.e. on the head state, so that commits done
+     * meanwhile (and maintained by the editor) are never overwritten.
+     */
+    private static void recountRequestedFolders(FolderVisibilityEditor.Definition definition, NodeState root,
+                                                NodeBuilder rootBuilder) {
+        NodeState request = root;
+        for (String segment : REINDEX_REQUEST_PATH.substring(1).split("/")) {
+            request = request.getChildNode(segment);
+        }
+        PropertyState folders = request.getProperty(REINDEX_FOLDERS);
+        if (folders == null) {
+            return;
+        }
+        getBuilder(rootBuilder, REINDEX_REQUEST_PATH).removeProperty(REINDEX_FOLDERS);
+        for (String path : folders.getValue(Type.STRINGS)) {
+            if (!path.equals(definition.damRootPath) && !path.startsWith(definition.damRootPath + "/")) {
+                continue;
+            }
+            NodeBuilder folder = getBuilder(rootBuilder, path);
+            if (folder.exists() && FolderVisibilityIndex.isFolder(folder.getNodeState())) {
+                NodeState state = folder.getNodeState();
+                for (int i = 0; i < definition.conditions.size(); i++) {
+                    folder.setProperty(definition.propertyNames.get(i),
+                            FolderVisibilityIndex.countMatchingChildren(definition.conditions.get(i), state), Type.LONG);
+                }
+            }
+        }
+    }
+
+    private boolean reindex(FolderVisibilityEditor.Definition definition, int batchSize, AtomicBoolean cancelled) {
+        Session session = null;
+        try {
+            session = repository.loginService(REINDEX_SUBSERVICE, null);
+            Session reindexSession = session;
+            return reindex(definition, batchSize, cancelled, folders -> requestRecount(reindexSession, folders));
+        } catch (RepositoryException e) {
+            LOG.error("Folder visibility index not rebuilt, the index is not used", e);
+            return false;
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    /**
+     * Recount all the folders below the DAM root, by batches.
+     *
+     * @param recount commits the recount of a batch of folders
+     * @return true if all the folders have been recounted
+     */
+    boolean reindex(FolderVisibilityEditor.Definition definition, int batchSize, AtomicBoolean cancelled,
+                    Recount recount) {
+        long start = System.nanoTime();
+        NodeState damRoot = nodeStore.getRoot();
+        for (String segment : definition.damRootSegments) {
+            damRoot = damRoot.getChildNode(segment);
+        }
+        if (!damRoot.exists()) {
+            LOG.info("Folder visibility index not rebuilt: {} does not exist", definition.damRootPath);
+            return true;
+        }
+        long folders = 0;
+        List<String> batch = new ArrayList<>(batchSize);
+        Deque<String> pendingPaths = new ArrayDeque<>();
+        Deque<NodeState> pendingStates = new ArrayDeque<>();
+        pendingPaths.push(definition.damRootPath);
+        pendingStates.push(damRoot);
+        while (!pendingPaths.isEmpty()) {
+            if (cancelled.get()) {
+                return false;
+            }
+            String path = pendingPaths.pop();
+            NodeState folder = pendingStates.pop();
+            batch.add(path);
+            for (ChildNodeEntry child : folder.getChildNodeEntries()) {
+                if (FolderVisibilityIndex.isFolder(child.getNodeState())) {
+                    pendingPaths.push(path + "/" + child.getName());
+                    pendingStates.push(child.getNodeState());
+                }
+            }
+            if (batch.size() >= batchSize || pendingPaths.isEmpty()) {
+                if (!recount.recount(List.copyOf(batch))) {
+                    return false;
+                }
+                folders += batch.size();
+                batch.clear();
+            }
+        }
+        LOG.info("Folder visibility index rebuilt for {} condition(s) on {} folder(s) in {} ms",
+                definition.conditions.size(), folders, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return true;
+    }
+
+    private static boolean requestRecount(Session session, List<String> folders) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                JcrUtils.getOrCreateByPath(REINDEX_REQUEST_PATH, JcrConstants.NT_UNSTRUCTURED, session)
+                        .setProperty(REINDEX_FOLDERS, folders.toArray(new String[0]));
+                session.save();
+                return true;
+            } catch (RepositoryException e) {
+                if (attempt == RECOUNT_ATTEMPTS) {
+                    LOG.error("Folder visibility index not rebuilt, the index is not used", e);
+                    return false;
+                }
+                LOG.debug("Retrying folder visibility recount after {}", e.getMessage());
+                try {
+                    session.refresh(false);
+                } catch (RepositoryException refreshFailure) {
+                    LOG.error("Folder visibility index not rebuilt, the index is not used", refreshFailure);
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static NodeBuilder getBuilder(NodeBuilder root, String path) {
+        NodeBuilder builder = root;
+        for (String segment : path.substring(1).split("/")) {
+            builder = builder.getChildNode(segment);
+        }
+        return builder;
+    }
+
+    /**
+     * Commits the recount of a batch of folders.
+     */
+    @FunctionalInterface
+    interface Recount {
+
+        /**
+         * @param folders the paths of the folders
+         * @return true if the commit succeeded
+         */
+        boolean recount(List<String> folders);
+    }
+}
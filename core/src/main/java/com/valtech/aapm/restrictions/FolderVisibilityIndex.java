@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import com.day.cq.dam.api.DamConstants;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+
+/**
+ * Per-folder summary of the children matching a rep:hasPropertyValues condition.
+ * <p>
+ * For every indexed condition, {@link FolderVisibilityEditor} keeps on each DAM folder a hidden property holding
+ * the number of direct children whose jcr:content/metadata matches the condition. An allow rule evaluated on a
+ * folder then reads a single property instead of visiting every child.
+ * <p>
+ * An instance is only handed out by {@link FolderVisibilityEditorProvider#getIndex()} once the counts have been
+ * rebuilt for the configured conditions. Until then, and for conditions that are not indexed, there is no index or
+ * {@link #isVisible(Tree, String)} returns null, and the caller falls back to scanning the children.
+ */
+final class FolderVisibilityIndex {
+
+    static final String PROPERTY_PREFIX = ":aapm-visible-";
+
+    private static final int HASH_LENGTH = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final TreeProvider treeProvider;
+    private final Set<String> indexedProperties;
+
+    FolderVisibilityIndex(TreeProvider treeProvider, Set<String> indexedProperties) {
+        this.treeProvider = treeProvider;
+        this.indexedProperties = Set.copyOf(indexedProperties);
+    }
+
+    /**
+     * Return the name of the hidden folder property counting the children matching the condition of the expression.
+     * Allow and deny rules, negated or not, on the same condition share the same property.
+     *
+     * @param expression the compiled restriction
+     * @return the hidden property name
+     */
+    static String propertyName(HasPropertyValuesExpression expression) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(expression.getConditionKey().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(PROPERTY_PREFIX.length() + HASH_LENGTH).append(PROPERTY_PREFIX);
+            for (int i = 0; i < HASH_LENGTH / 2; i++) {
+                name.append(HEX[(digest[i] >> 4) & 0xF]).append(HEX[digest[i] & 0xF]);
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Read the indexed visibility of a folder.
+     *
+     * @param folder       the folder tree
+     * @param propertyName the hidden property of the condition, see {@link #propertyName(HasPropertyValuesExpression)}
+     * @return true if at least one child matches, false if none does, null if the folder is not indexed
+     */
+    Boolean isVisible(Tree folder, String propertyName) {
+        if (!indexedProperties.contains(propertyName)) {
+            return null;
+        }
+        NodeState state;
+        try {
+            state = treeProvider.asNodeState(folder);
+        } catch (IllegalArgumentException e) {
+            // Not a tree backed by a node state => not possible to read the index
+            return null;
+        }
+        return readVisibility(state, propertyName);
+    }
+
+    /**
+     * Read the indexed visibility of a folder node state.
+     *
+     * @param folder       the folder node state
+     * @param propertyName the hidden property of the condition, see {@link #propertyName(HasPropertyValuesExpression)}
+     * @return true if at least one child matches, false if none does, null if the folder is not indexed
+     */
+    Boolean isVisible(NodeState folder, String propertyName) {
+        if (!indexedProperties.contains(propertyName)) {
+            return null;
+        }
+        return readVisibility(folder, propertyName);
+    }
+
+    private static Boolean readVisibility(NodeState state, String propertyName) {
+        PropertyState count = state.getProperty(propertyName);
+        if (count == null) {
+            return null;
+        }
+        return count.getValue(Type.LONG) > 0;
+    }
+
+    /**
+     * Return true if the jcr:content/metadata node of the child matches the condition of the expression.
+     */
+    static boolean isMatchingChild(HasPropertyValuesExpression expression, NodeState child) {
+        NodeState metadata = child.getChildNode(JcrConstants.JCR_CONTENT).getChildNode(DamConstants.ACTIVITY_TYPE_METADATA);
+        if (!metadata.exists()) {
+            return false;
+        }
+        return expression.matches(metadata::getProperty);
+    }
+
+    /**
+     * Count the direct children of the folder matching the condition of the expression.
+     */
+    static long countMatchingChildren(HasPropertyValuesExpression expression, NodeState folder) {
+        long count = 0;
+        for (ChildNodeEntry child : folder.getChildNodeEntries()) {
+            if (child.getName().charAt(0) != ':' && isMatchingChild(expression, child.getNodeState())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static boolean isFolder(NodeState state) {
+        return DamNodeTypes.isFolder(state.getProperty(JcrConstants.JCR_PRIMARYTYPE));
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+
+import java.util.Objects;
+
+/**
+ * Pattern of an entry restricted by a cheap restriction, the guard, and a costly one: the costly pattern is only
+ * evaluated on the items matched by the guard.
+ * <p>
+ * Used for the entries restricted by both rep:subFolder, which only depends on the path, and rep:hasPropertyValues,
+ * which reads the metadata of the assets. Oak requires all the restrictions of an entry to match, but does not
+ * define the order in which the patterns of the providers are evaluated.
+ */
+final class GuardedPattern implements RestrictionPattern {
+
+    private final RestrictionPattern guard;
+    private final RestrictionPattern pattern;
+
+    GuardedPattern(RestrictionPattern guard, RestrictionPattern pattern) {
+        this.guard = guard;
+        this.pattern = pattern;
+    }
+
+    @Override
+    public boolean matches(Tree tree, PropertyState property) {
+        return guard.matches(tree, property) && pattern.matches(tree, property);
+    }
+
+    @Override
+    public boolean matches(String path) {
+        return guard.matches(path) && pattern.matches(path);
+    }
+
+    @Override
+    public boolean matches(String path, boolean isProperty) {
+        return guard.matches(path, isProperty) && pattern.matches(path, isProperty);
+    }
+
+    @Override
+    public boolean matches() {
+        return guard.matches() && pattern.matches();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof GuardedPattern)) {
+            return false;
+        }
+        GuardedPattern c = (GuardedPattern) o;
+        return guard.equals(c.guard) && pattern.equals(c.pattern);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(guard, pattern);
+    }
+
+    @Override
+    public String toString() {
+        return pattern + " if " + guard;
+    }
+}
@@ -0,0 +1,712 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Compiled, immutable form of a rep:hasPropertyValues restriction value.
+ * <p>
+ * The restriction string is parsed once with the following grammar:
+ * <pre>
+ * &lt;allow|deny&gt;_&lt;string|int|long|double|date&gt;_[!]&lt;property_name&gt;&lt;operator&gt;&lt;value&gt;[,&lt;value&gt;...]
+ * </pre>
+ * where &lt;operator&gt; is one of the {@link Operators} tokens ("==" is accepted as an alias of "_EQUALS_").
+ * "_UNDER_" matches the string values which are one of the tags of the value list or one of their descendants, the
+ * other operators than "_EQUALS_" are only supported for numbers and dates, see {@link #validate()}.
+ * The value list and typed thresholds are resolved at compile time so that evaluating a property value
+ * does not need any string dispatching. The values are hashed so that checking a multi-valued property costs one
+ * lookup per property value, whatever the size of the value list. Numbers are compared as primitive longs ("int" and
+ * "long") or doubles, read directly from the LONG and DOUBLE properties, see {@link NumericValues}. Dates are compared
+ * as epoch milliseconds, see {@link DateValues}; the "today" threshold is resolved from a {@link CoarseClock}.
+ * <p>
+ * The repeated values are dropped, so {@link #toString()} returns the same canonical form for all the spellings of a
+ * restriction.
+ * <p>
+ * A restriction marked with "expr" may combine several property clauses with "_AND_" and "_OR_", "_AND_" taking
+ * precedence:
+ * <pre>
+ * &lt;allow|deny&gt;_expr_&lt;clause&gt;[&lt;_AND_|_OR_&gt;&lt;clause&gt;...]
+ * </pre>
+ * where a clause is &lt;string|int|long|double|date&gt;_[!]&lt;property_name&gt;&lt;operator&gt;&lt;value&gt;[,...], its
+ * "!" negating the clause, and a junction is only read as such when it is followed by a property type token. "expr" is
+ * not a property type, so no single clause restriction written before the junctions has the marker: an unmarked
+ * restriction is always a single clause and "_AND_" or "_OR_" in its values keep their meaning. The clauses are
+ * evaluated cheapest first, see {@link #estimatedCost()}, and the evaluation stops as soon as the result is known.
+ */
+final class HasPropertyValuesExpression {
+
+    private static final String ALLOW = "allow";
+    private static final String DENY = "deny";
+    private static final String TODAY = "today";
+    private static final String EQUALS_ALIAS = "==";
+    private static final char SEPARATOR = '_';
+    private static final char NEGATE = '!';
+    private static final String VALUES_SEPARATOR = ",";
+    private static final String AND = "_AND_";
+    private static final String OR = "_OR_";
+    private static final String EXPRESSION = "expr";
+
+    private final boolean deny;
+    private final PropertyValueType propertyType;
+    private final boolean negate;
+    private final String propertyName;
+    private final Operators operator;
+    private final List<String> values;
+    private final Set<String> valueSet;
+    private final CoarseClock clock;
+    private final ValueMatcher matcher;
+    // boolean restriction: the clauses and junctions as written, and the clauses to evaluate, null for a single clause
+    private final List<HasPropertyValuesExpression> clauses;
+    private final List<String> junctions;
+    private final List<List<HasPropertyValuesExpression>> alternatives;
+    private final String conditionKey;
+
+    private HasPropertyValuesExpression(boolean deny, PropertyValueType propertyType, boolean negate,
+                                        String propertyName, Operators operator, List<String> values, CoarseClock clock) {
+        this.deny = deny;
+        this.propertyType = propertyType;
+        this.negate = negate;
+        this.propertyName = propertyName;
+        this.operator = operator;
+        this.values = values;
+        this.valueSet = Set.copyOf(values);
+        this.clock = clock;
+        this.matcher = compileMatcher();
+        this.clauses = null;
+        this.junctions = null;
+        this.alternatives = null;
+        this.conditionKey = conditionKey();
+    }
+
+    private HasPropertyValuesExpression(boolean deny, List<HasPropertyValuesExpression> clauses, List<String> junctions) {
+        this.deny = deny;
+        this.propertyType = null;
+        this.negate = false;
+        this.propertyName = null;
+        this.operator = null;
+        this.values = List.of();
+        this.valueSet = Set.of();
+        this.clock = null;
+        this.matcher = value -> false;
+        this.clauses = clauses;
+        this.junctions = junctions;
+        this.alternatives = alternatives(clauses, junctions);
+        this.conditionKey = conditionKey();
+    }
+
+    /**
+     * Group the clauses into alternatives of conjunctions, "_AND_" taking precedence over "_OR_", and order the
+     * clauses of each conjunction and the alternatives by estimated cost.
+     */
+    private static List<List<HasPropertyValuesExpression>> alternatives(List<HasPropertyValuesExpression> clauses,
+                                                                          List<String> junctions) {
+        List<List<HasPropertyValuesExpression>> alternatives = new ArrayList<>();
+        List<HasPropertyValuesExpression> conjunction = new ArrayList<>();
+        conjunction.add(clauses.get(0));
+        for (int i = 0; i < junctions.size(); i++) {
+            if (OR.equals(junctions.get(i))) {
+                alternatives.add(conjunction);
+                conjunction = new ArrayList<>();
+            }
+            conjunction.add(clauses.get(i + 1));
+        }
+        alternatives.add(conjunction);
+        List<List<HasPropertyValuesExpression>> ordered = new ArrayList<>(alternatives.size());
+        for (List<HasPropertyValuesExpression> alternative : alternatives) {
+            alternative.sort(Comparator.comparingInt(HasPropertyValuesExpression::estimatedCost));
+            ordered.add(List.copyOf(alternative));
+        }
+        ordered.sort(Comparator.comparingInt(HasPropertyValuesExpression::conjunctionCost));
+        return List.copyOf(ordered);
+    }
+
+    private static int conjunctionCost(List<HasPropertyValuesExpression> conjunction) {
+        int cost = 0;
+        for (HasPropertyValuesExpression clause : conjunction) {
+            cost += clause.estimatedCost();
+        }
+        return cost;
+    }
+
+    /**
+     * Estimated cost of evaluating a single clause: a string is looked up in the hashed values, a number is parsed
+     * and a date is parsed with its time zone, "today" reading the clock as well.
+     */
+    private int estimatedCost() {
+        switch (propertyType) {
+            case STRING:
+                return 1;
+            case INT:
+            case LONG:
+            case DOUBLE:
+                return 2;
+            case DATE:
+            default:
+                return isTimeDependent() ? 5 : 4;
+        }
+    }
+
+    /**
+     * Compile a rep:hasPropertyValues restriction value.
+     *
+     * @param restriction the restriction value, e.g. allow_string_cq:tags_EQUALS_properties:orientation/portrait
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the restriction does not follow the grammar
+     */
+    static HasPropertyValuesExpression compile(String restriction) {
+        return compile(restriction, CoarseClock.DEFAULT);
+    }
+
+    /**
+     * Compile a rep:hasPropertyValues restriction value.
+     *
+     * @param restriction the restriction value
+     * @param clock       the clock resolving the "today" dates
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the restriction does not follow the grammar
+     */
+    static HasPropertyValuesExpression compile(String restriction, CoarseClock clock) {
+        if (restriction == null) {
+            throw new IllegalArgumentException("Restriction must not be null");
+        }
+        int permissionEnd = restriction.indexOf(SEPARATOR);
+        if (permissionEnd < 0 || !restriction.startsWith(EXPRESSION + SEPARATOR, permissionEnd + 1)) {
+            return compileClause(restriction, clock);
+        }
+        String permission = restriction.substring(0, permissionEnd + 1);
+        int clauseStart = permissionEnd + EXPRESSION.length() + 2;
+        int junctionStart = nextJunction(restriction, clauseStart);
+        List<HasPropertyValuesExpression> clauses = new ArrayList<>();
+        List<String> junctions = new ArrayList<>();
+        while (junctionStart >= 0) {
+            String junction = restriction.startsWith(AND, junctionStart) ? AND : OR;
+            clauses.add(compileClause(permission + restriction.substring(clauseStart, junctionStart), clock));
+            junctions.add(junction);
+            clauseStart = junctionStart + junction.length();
+            junctionStart = nextJunction(restriction, clauseStart);
+        }
+        clauses.add(compileClause(permission + restriction.substring(clauseStart), clock));
+        if (clauses.size() == 1) {
+            return clauses.get(0);
+        }
+        return new HasPropertyValuesExpression(clauses.get(0).deny, List.copyOf(clauses), List.copyOf(junctions));
+    }
+
+    /**
+     * @return the index of the next "_AND_" or "_OR_" followed by a property type token, -1 if there is none
+     */
+    private static int nextJunction(String restriction, int from) {
+        for (int index = restriction.indexOf(SEPARATOR, from); index >= 0;
+             index = restriction.indexOf(SEPARATOR, index + 1)) {
+            String junction = restriction.startsWith(AND, index) ? AND : restriction.startsWith(OR, index) ? OR : null;
+            if (junction != null && startsWithPropertyType(restriction, index + junction.length())) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWithPropertyType(String restriction, int from) {
+        for (PropertyValueType type : PropertyValueType.values()) {
+            if (restriction.startsWith(type.getToken(), from)
+                    && restriction.startsWith(String.valueOf(SEPARATOR), from + type.getToken().length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static HasPropertyValuesExpression compileClause(String restriction, CoarseClock clock) {
+        int permissionEnd = restriction.indexOf(SEPARATOR);
+        if (permissionEnd < 0) {
+            throw invalid(restriction, "missing permission type");
+        }
+        String permissionType = restriction.substring(0, permissionEnd);
+        boolean deny;
+        if (DENY.equalsIgnoreCase(permissionType)) {
+            deny = true;
+        } else if (ALLOW.equalsIgnoreCase(permissionType)) {
+            deny = false;
+        } else {
+            throw invalid(restriction, "unknown permission type '" + permissionType + "'");
+        }
+
+        int typeEnd = restriction.indexOf(SEPARATOR, permissionEnd + 1);
+        if (typeEnd < 0) {
+            throw invalid(restriction, "missing property type");
+        }
+        PropertyValueType propertyType = PropertyValueType.fromToken(restriction.substring(permissionEnd + 1, typeEnd));
+        if (propertyType == null) {
+            throw invalid(restriction, "unknown property type '" + restriction.substring(permissionEnd + 1, typeEnd) + "'");
+        }
+
+        int nameStart = typeEnd + 1;
+        boolean negate = restriction.startsWith(String.valueOf(NEGATE), nameStart);
+        if (negate) {
+            nameStart++;
+        }
+
+        int operatorStart = -1;
+        int operatorLength = 0;
+        Operators operator = null;
+        for (Operators candidate : Operators.values()) {
+            int index = restriction.indexOf(candidate.getValue(), nameStart);
+            if (index >= 0 && (operatorStart < 0 || index < operatorStart
+                    || (index == operatorStart && candidate.getValue().length() > operatorLength))) {
+                operatorStart = index;
+                operatorLength = candidate.getValue().length();
+                operator = candidate;
+            }
+        }
+        int aliasIndex = restriction.indexOf(EQUALS_ALIAS, nameStart);
+        if (aliasIndex >= 0 && (operatorStart < 0 || aliasIndex < operatorStart)) {
+            operatorStart = aliasIndex;
+            operatorLength = EQUALS_ALIAS.length();
+            operator = Operators.EQUALS;
+        }
+        if (operator == null) {
+            throw invalid(restriction, "missing operator");
+        }
+
+        String propertyName = restriction.substring(nameStart, operatorStart);
+        String rawValues = restriction.substring(operatorStart + operatorLength);
+        List<String> values = rawValues.isEmpty() ? List.of() : Arrays.asList(rawValues.split(VALUES_SEPARATOR));
+        return create(restriction, deny, propertyType, negate, propertyName, operator, values, clock);
+    }
+
+    /**
+     * Build an expression from its parts, already tokenised, with the same checks as {@link #compile(String)}.
+     *
+     * @throws IllegalArgumentException if the parts do not make a valid restriction
+     */
+    static HasPropertyValuesExpression of(boolean deny, PropertyValueType propertyType, boolean negate,
+                                          String propertyName, Operators operator, List<String> values,
+                                          CoarseClock clock) {
+        return create(null, deny, propertyType, negate, propertyName, operator, values, clock);
+    }
+
+    /**
+     * @param restriction the compiled restriction, for the error messages, or null to describe the parts
+     */
+    private static HasPropertyValuesExpression create(String restriction, boolean deny, PropertyValueType propertyType,
+                                                      boolean negate, String propertyName, Operators operator,
+                                                      List<String> values, CoarseClock clock) {
+        String reason = null;
+        if (propertyName.isEmpty()) {
+            reason = "missing property name";
+        } else if (values.isEmpty()) {
+            reason = "missing value";
+        } else if (propertyType != PropertyValueType.STRING && operator == Operators.UNDER) {
+            reason = "operator " + operator.getValue() + " is only supported for type string";
+        }
+        if (reason != null) {
+            String description = restriction != null ? restriction : (deny ? DENY : ALLOW) + SEPARATOR
+                    + propertyType.getToken() + SEPARATOR + (negate ? String.valueOf(NEGATE) : "") + propertyName
+                    + operator.getValue() + String.join(VALUES_SEPARATOR, values);
+            throw invalid(description, reason);
+        }
+        return new HasPropertyValuesExpression(deny, propertyType, negate, propertyName, operator,
+                values.size() == 1 ? List.copyOf(values) : List.copyOf(new LinkedHashSet<>(values)), clock);
+    }
+
+    private static IllegalArgumentException invalid(String restriction, String reason) {
+        return new IllegalArgumentException("Invalid rep:hasPropertyValues restriction '" + restriction + "': " + reason);
+    }
+
+    /**
+     * Reject the restrictions that compile but do not do what they say: an empty value, a threshold that is not a
+     * number or a date, an ordering operator on strings, which is evaluated as "_EQUALS_", or several values for a
+     * number or a date, of which only the first one is the threshold. They are still compiled when the permissions are
+     * read, so the existing entries are evaluated like before, but they cannot be written anymore.
+     *
+     * @throws IllegalArgumentException if a value cannot be compared
+     */
+    void validate() {
+        if (clauses != null) {
+            for (HasPropertyValuesExpression clause : clauses) {
+                clause.validate();
+            }
+            return;
+        }
+        for (String value : values) {
+            if (value.isEmpty()) {
+                throw invalid(toString(), "empty value");
+            }
+        }
+        if (propertyType == PropertyValueType.STRING && operator != Operators.EQUALS && operator != Operators.UNDER) {
+            throw invalid(toString(), "operator " + operator.getValue() + " is not supported for type string");
+        }
+        if (propertyType != PropertyValueType.STRING && values.size() != 1) {
+            throw invalid(toString(), "type " + propertyType.getToken() + " expects a single value");
+        }
+        String threshold = values.get(0);
+        switch (propertyType) {
+            case INT:
+            case LONG:
+                if (NumericValues.parseLong(threshold) == NumericValues.INVALID) {
+                    throw invalid(toString(), "'" + threshold + "' is not an integer");
+                }
+                break;
+            case DOUBLE:
+                if (Double.isNaN(NumericValues.parseDouble(threshold))) {
+                    throw invalid(toString(), "'" + threshold + "' is not a number");
+                }
+                break;
+            case DATE:
+                if (!isTimeDependent() && DateValues.parseEpochMillis(threshold) == DateValues.INVALID) {
+                    throw invalid(toString(), "'" + threshold + "' is not a date");
+                }
+                break;
+            case STRING:
+            default:
+                break;
+        }
+    }
+
+    private ValueMatcher compileMatcher() {
+        switch (propertyType) {
+            case INT:
+            case LONG:
+                return compileLongMatcher(values.get(0));
+            case DOUBLE:
+                return compileDoubleMatcher(values.get(0));
+            case DATE:
+                return compileDateMatcher(values.get(0));
+            case STRING:
+            default:
+                // the ordering operators, rejected when written, are evaluated as "_EQUALS_" like before
+                return operator == Operators.UNDER ? TagTrie.compile(values)::matches : valueSet::contains;
+        }
+    }
+
+    private ValueMatcher compileLongMatcher(String threshold) {
+        long longThreshold = NumericValues.parseLong(threshold);
+        if (longThreshold == NumericValues.INVALID) {
+            // Because it is not an integer => not possible to compare => never matches
+            return value -> false;
+        }
+        return new LongMatcher(longThreshold, operator);
+    }
+
+    private ValueMatcher compileDoubleMatcher(String threshold) {
+        double doubleThreshold = NumericValues.parseDouble(threshold);
+        if (Double.isNaN(doubleThreshold)) {
+            // Because it is not a number => not possible to compare => never matches
+            return value -> false;
+        }
+        return new DoubleMatcher(doubleThreshold, operator);
+    }
+
+    private ValueMatcher compileDateMatcher(String threshold) {
+        if (TODAY.equalsIgnoreCase(threshold)) {
+            return value -> {
+                long dateProperty = DateValues.parseEpochMillis(value);
+                return dateProperty != DateValues.INVALID && operator.test(Long.compare(clock.millis(), dateProperty));
+            };
+        }
+        long dateThreshold = DateValues.parseEpochMillis(threshold);
+        if (dateThreshold == DateValues.INVALID) {
+            // Because it is not a date => not possible to compare => never matches
+            return value -> false;
+        }
+        return value -> {
+            long dateProperty = DateValues.parseEpochMillis(value);
+            return dateProperty != DateValues.INVALID && operator.test(Long.compare(dateThreshold, dateProperty));
+        };
+    }
+
+    /**
+     * Evaluate one value of the restricted property against the compiled type, operator and values.
+     *
+     * @param value the property value
+     * @return true if the value matches
+     */
+    boolean matches(String value) {
+        return matcher.matches(value);
+    }
+
+    /**
+     * Evaluate the restricted property with the compiled type, operator and values: a single-valued property is
+     * evaluated like a multi-valued property with one value, which matches as soon as one of its values matches.
+     *
+     * @param property the restricted property found on the metadata node
+     * @return true if the property matches
+     */
+    boolean matches(PropertyState property) {
+        return matcher.matchesAny(property);
+    }
+
+    /**
+     * Evaluate the condition on the properties of a metadata node: the restricted property of a single clause must
+     * exist and match, the clauses of a boolean restriction are combined, each negated by its "!".
+     *
+     * @param properties returns the property of the metadata node with the given name, null if it does not exist
+     * @return true if the metadata matches
+     */
+    boolean matches(Function<String, PropertyState> properties) {
+        if (alternatives == null) {
+            PropertyState property = properties.apply(propertyName);
+            return property != null && matcher.matchesAny(property);
+        }
+        for (List<HasPropertyValuesExpression> conjunction : alternatives) {
+            if (matchesAll(conjunction, properties)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAll(List<HasPropertyValuesExpression> conjunction,
+                                      Function<String, PropertyState> properties) {
+        for (HasPropertyValuesExpression clause : conjunction) {
+            if (clause.negate == clause.matches(properties)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the result depends on the time, i.e. for a date compared with "today"
+     */
+    boolean isTimeDependent() {
+        if (clauses != null) {
+            return clauses.stream().anyMatch(HasPropertyValuesExpression::isTimeDependent);
+        }
+        return propertyType == PropertyValueType.DATE && TODAY.equalsIgnoreCase(values.get(0));
+    }
+
+    /**
+     * @return true if the restriction combines several clauses
+     */
+    boolean isBoolean() {
+        return clauses != null;
+    }
+
+    /**
+     * @return the names of the properties read by the condition
+     */
+    Set<String> getPropertyNames() {
+        if (clauses == null) {
+            return Set.of(propertyName);
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (HasPropertyValuesExpression clause : clauses) {
+            names.add(clause.propertyName);
+        }
+        return names;
+    }
+
+    boolean isDeny() {
+        return deny;
+    }
+
+    boolean isNegate() {
+        return negate;
+    }
+
+    String getPropertyName() {
+        return propertyName;
+    }
+
+    PropertyValueType getPropertyType() {
+        return propertyType;
+    }
+
+    Operators getOperator() {
+        return operator;
+    }
+
+    List<String> getValues() {
+        return values;
+    }
+
+    /**
+     * @return the condition evaluated on the metadata, i.e. the canonical form without permission type and negation,
+     * the negations of the clauses of a boolean restriction being part of the condition
+     */
+    String getConditionKey() {
+        return conditionKey;
+    }
+
+    private String conditionKey() {
+        if (clauses != null) {
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < clauses.size(); i++) {
+                if (i > 0) {
+                    key.append(junctions.get(i - 1));
+                }
+                key.append(clauses.get(i).negate ? String.valueOf(NEGATE) : "").append(clauses.get(i).conditionKey);
+            }
+            return key.toString();
+        }
+        return propertyType.getToken() + SEPARATOR + propertyName + operator.getValue()
+                + String.join(VALUES_SEPARATOR, values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof HasPropertyValuesExpression)) {
+            return false;
+        }
+        HasPropertyValuesExpression c = (HasPropertyValuesExpression) o;
+        return deny == c.deny
+                && negate == c.negate
+                && propertyType == c.propertyType
+                && operator == c.operator
+                && Objects.equals(propertyName, c.propertyName)
+                && values.equals(c.values)
+                && Objects.equals(clauses, c.clauses)
+                && Objects.equals(junctions, c.junctions);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deny, negate, propertyType, operator, propertyName, values, clauses, junctions);
+    }
+
+    /**
+     * @return the canonical form of the restriction
+     */
+    @Override
+    public String toString() {
+        if (clauses != null) {
+            StringBuilder restriction = new StringBuilder(deny ? DENY : ALLOW).append(SEPARATOR).append(EXPRESSION);
+            int permissionLength = (deny ? DENY : ALLOW).length() + 1;
+            for (int i = 0; i < clauses.size(); i++) {
+                restriction.append(i == 0 ? String.valueOf(SEPARATOR) : junctions.get(i - 1))
+                        .append(clauses.get(i).toString().substring(permissionLength));
+            }
+            return restriction.toString();
+        }
+        return (deny ? DENY : ALLOW) + SEPARATOR + propertyType.getToken() + SEPARATOR
+                + (negate ? String.valueOf(NEGATE) : "") + propertyName + operator.getValue()
+                + String.join(VALUES_SEPARATOR, values);
+    }
+
+    @FunctionalInterface
+    private interface ValueMatcher {
+
+        boolean matches(String value);
+
+        /**
+         * @return true if one of the values of the property matches
+         */
+        default boolean matchesAny(PropertyState property) {
+            for (int i = 0, count = property.count(); i < count; i++) {
+                if (matches(property.getValue(Type.STRING, i))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class LongMatcher implements ValueMatcher {
+
+        private final long threshold;
+        private final Operators operator;
+
+        private LongMatcher(long threshold, Operators operator) {
+            this.threshold = threshold;
+            this.operator = operator;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            long number = NumericValues.parseLong(value);
+            return number != NumericValues.INVALID && operator.test(Long.compare(threshold, number));
+        }
+
+        @Override
+        public boolean matchesAny(PropertyState property) {
+            Type<?> type = property.getType().getBaseType();
+            if (type == Type.LONG) {
+                for (int i = 0, count = property.count(); i < count; i++) {
+                    if (operator.test(Long.compare(threshold, property.getValue(Type.LONG, i)))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (type == Type.DOUBLE) {
+                return DoubleMatcher.matchesAnyDouble(property, threshold, operator);
+            }
+            return ValueMatcher.super.matchesAny(property);
+        }
+    }
+
+    private static final class DoubleMatcher implements ValueMatcher {
+
+        private final double threshold;
+        private final Operators operator;
+
+        private DoubleMatcher(double threshold, Operators operator) {
+            this.threshold = threshold;
+            this.operator = operator;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            double number = NumericValues.parseDouble(value);
+            return !Double.isNaN(number) && operator.test(Double.compare(threshold, number));
+        }
+
+        @Override
+        public boolean matchesAny(PropertyState property) {
+            Type<?> type = property.getType().getBaseType();
+            if (type == Type.DOUBLE) {
+                return matchesAnyDouble(property, threshold, operator);
+            }
+            if (type == Type.LONG) {
+                for (int i = 0, count = property.count(); i < count; i++) {
+                    if (operator.test(Double.compare(threshold, property.getValue(Type.LONG, i)))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return ValueMatcher.super.matchesAny(property);
+        }
+
+        private static boolean matchesAnyDouble(PropertyState property, double threshold, Operators operator) {
+            for (int i = 0, count = property.count(); i < count; i++) {
+                double number = property.getValue(Type.DOUBLE, i);
+                if (!Double.isNaN(number) && operator.test(Double.compare(threshold, number))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -19,147 +19,75 @@
 package com.valtech.aapm.restrictions;
 
 import com.day.cq.dam.api.DamConstants;
-import com.drew.lang.Iterables;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
-import org.apache.sling.jcr.resource.api.JcrResourceConstants;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
-import java.util.Date;
-import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 public class HasPropertyValuesPattern implements RestrictionPattern {
 
     private static final Logger LOG = LoggerFactory.getLogger(HasPropertyValuesPattern.class);
+    private static final String METADATA_RELATIVE_PATH = "/" + JcrConstants.JCR_CONTENT + "/" + DamConstants.ACTIVITY_TYPE_METADATA;
     private final String originalTree;
-    private final String name;
-    private final List<String> statusList;
-    private final String permissionType;
-    private final String propertyType;
-    private static final String DENY = "deny";
-
-    List<String> operators = List.of("_EQUALS_", "_GREATER_THAN_EQUALS_", "_LESS_THAN_EQUALS_", "_GREATER_THEN_", "_LESS_THEN_");
-    private String operator = operators.get(0);
-
+    private final HasPropertyValuesExpression expression;
     private final boolean negate;
+    private final String folderVisibilityProperty;
+    private final AncestorResolver ancestorResolver;
+    private final RestrictionMetrics.PatternStatistics statistics;
+    private final DecisionCache decisionCache;
+    private final TreeProvider treeProvider;
+    private final EvaluationBudget budget;
+    private final Supplier<FolderVisibilityIndex> folderVisibilityIndex;
 
     HasPropertyValuesPattern(String propertyValues, String originalTree) {
-        this.originalTree = originalTree;
-
-        // allow_property=test
-        // allow_date_property=01/10/2021
-
-        permissionType = propertyValues.split("_")[0];
-        String propertyValuesWithoutPermissionType = StringUtils.removeStart(propertyValues, permissionType + "_");
-
-        propertyType = propertyValues.split("_")[1];
-        String propertyValuesWithoutPropertyType = StringUtils.removeStart(propertyValuesWithoutPermissionType, propertyType + "_");
-
-        if (propertyValuesWithoutPropertyType.startsWith("!")) {
-            negate = true;
-        } else {
-            negate = false;
-        }
-        for (int i = 0; i < operators.size(); i++) {
-            if (propertyValuesWithoutPropertyType.contains(operators.get(i))) {
-                operator = operators.get(i);
-                break;
-            }
-        }
+        // allow_string_property_EQUALS_test
+        // allow_date_property_LESS_THEN_2021-10-01T00:00:00.000+02:00
+        this(HasPropertyValuesExpression.compile(propertyValues), originalTree, PatternSettings.DEFAULT);
+    }
 
-        name = propertyValuesWithoutPropertyType.split(operator)[0];
-        String values = propertyValuesWithoutPropertyType.split(operator)[1];
-        String[] status = values.split(",");
-        statusList = Arrays.asList(status);
+    HasPropertyValuesPattern(HasPropertyValuesExpression expression, String originalTree, PatternSettings settings) {
+        this.originalTree = originalTree;
+        this.ancestorResolver = settings.getAncestorResolver();
+        this.expression = expression;
+        this.negate = expression.isNegate();
+        this.folderVisibilityProperty = FolderVisibilityIndex.propertyName(expression);
+        this.decisionCache = settings.getDecisionCache();
+        this.treeProvider = settings.getTreeProvider();
+        this.budget = settings.getBudget();
+        this.folderVisibilityIndex = settings.getFolderVisibilityIndex();
+        this.statistics = settings.getMetrics()
+                .forPattern(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES, expression + " on " + originalTree);
     }
 
     static RestrictionPattern create(PropertyState stringProperty, String originalTree) {
         if (stringProperty.count() == 1) {
-            return new HasPropertyValuesPattern(stringProperty.getValue(Type.STRING), originalTree);
+            return create(stringProperty.getValue(Type.STRING), originalTree);
         } else {
             return RestrictionPattern.EMPTY;
         }
     }
 
-    /**
-     * Return the first node of type Folder or Asset.
-     *
-     * @param tree the tree to test
-     * @return a @{@link Tree} of type Folder or Asset
-     */
-    private Tree getFirstParentOfTypeFolderOrAsset(Tree tree) {
-        Tree assetTree = getDamAssetParent(tree);
-        if (assetTree != null) {
-            return assetTree;
-        }
-        Tree folderTree = getFolderParent(tree);
-        if (folderTree != null) {
-            return folderTree;
-        }
-        return tree;
-    }
-
-    /**
-     * Return the tree corresponding to an asset if it exists.
-     * It stops searching at the DAM root level (/content/dam).
-     * Ex:
-     * - /content/dam/test-folder/my-asset.jpg/renditions/thumbnail.jpg will return /content/dam/test-folder/my-asset.jpg
-     * - /content/dam/test-folder/my-asset.jpg will return /content/dam/test-folder/my-asset.jpg
-     * - /content/dam/test-folder will return null
-     *
-     * @param tree The original tree to parse recursively.
-     * @return the first tree that match an asset of null if nothing has been found.
-     */
-    private Tree getDamAssetParent(Tree tree) {
-        if (tree == null) {
-            return null;
-        }
-
-        if (isAsset(tree)) {
-            return tree;
-        }
-
-        Tree parent = tree.getParent();
-        if (parent.getPath().equals("/content/dam")) {
-            return null;
-        }
-        return getDamAssetParent(parent);
+    static RestrictionPattern create(String propertyValues, String originalTree) {
+        return create(propertyValues, originalTree, PatternSettings.DEFAULT);
     }
 
-    /**
-     * Return the tree corresponding to a folder if it exists.
-     * It stops searching at the DAM root level (/content/dam).
-     * Ex:
-     * - /content/dam/test-folder/my-asset.jpg/renditions/thumbnail.jpg will return /content/dam/test-folder/my-asset.jpg/renditions
-     * - /content/dam/test-folder/my-asset.jpg will return /content/dam/test-folder
-     * - /content/dam/test-folder will return /content/dam/test-folder
-     *
-     * @param tree The original tree to parse recursively.
-     * @return the first tree that match a folder of null if nothing has been found.
-     */
-    private Tree getFolderParent(Tree tree) {
-        if (tree == null) {
-            return null;
-        }
-
-        if (isFolder(tree)) {
-            return tree;
-        }
-
-        Tree parent = tree.getParent();
-        if (parent.getPath().equals("/content/dam")) {
-            return parent;
+    static RestrictionPattern create(String propertyValues, String originalTree, PatternSettings settings) {
+        try {
+            return new HasPropertyValuesPattern(HasPropertyValuesExpression.compile(propertyValues, settings.getClock()),
+                    originalTree, settings);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid restriction defined on {}, failing closed: {}", originalTree, e.getMessage());
+            return FailClosedPattern.of(propertyValues);
         }
-        return getFolderParent(parent);
     }
 
     /**
@@ -169,12 +97,7 @@ public class HasPropertyValuesPattern implements RestrictionPattern {
      * @return true if it's an asset, false otherwise.
      */
     private boolean isAsset(Tree tree) {
-        PropertyState ps = tree.getProperty(JcrConstants.JCR_PRIMARYTYPE);
-        if (ps != null) {
-            String type = ps.getValue(Type.STRING);
-            return DamConstants.NT_DAM_ASSET.equalsIgnoreCase(type);
-        }
-        return false;
+        return DamNodeTypes.isAsset(tree.getProperty(JcrConstants.JCR_PRIMARYTYPE));
     }
 
     /**
@@ -188,60 +111,92 @@ public class HasPropertyValuesPattern implements RestrictionPattern {
      * @return true if it's a folder, false otherwise.
      */
     private boolean isFolder(Tree tree) {
-        PropertyState ps = tree.getProperty(JcrConstants.JCR_PRIMARYTYPE);
-        if (ps != null) {
-            String type = ps.getValue(Type.STRING);
-            return JcrResourceConstants.NT_SLING_ORDERED_FOLDER.equalsIgnoreCase(type)
-                    || JcrConstants.NT_FOLDER.equalsIgnoreCase(type)
-                    || JcrResourceConstants.NT_SLING_FOLDER.equalsIgnoreCase(type);
-        }
-        return false;
+        return DamNodeTypes.isFolder(tree.getProperty(JcrConstants.JCR_PRIMARYTYPE));
     }
 
-    private boolean checkTree(Tree tree) {
-        if (hasMetadataFolder(tree)) {
-            return isMatch(tree);
+    /**
+     * The decision only depends on the node: a property check reuses the decision taken for the node check of the
+     * same tree instance. The metadata read for the tree instance is shared with the other patterns evaluated on it.
+     */
+    @Override
+    public boolean matches(Tree tree, PropertyState propertyState) {
+        EvaluationContext context = EvaluationContext.current();
+        if (propertyState != null) {
+            Boolean decision = context.getDecision(tree, this);
+            if (decision != null) {
+                statistics.recordCacheHit();
+                return decision;
+            }
+        } else {
+            context.startNodeCheck(tree, this);
         }
-        return false;
-    }
-
-    private boolean hasMetadataFolder(Tree tree) {
-        return tree.hasChild(JcrConstants.JCR_CONTENT)
-                && tree.getChild(JcrConstants.JCR_CONTENT)
-                .hasChild(DamConstants.ACTIVITY_TYPE_METADATA);
+        long start = statistics.start();
+        boolean decision = evaluate(tree, context);
+        statistics.recordEvaluation(start);
+        context.putDecision(tree, this, decision);
+        return decision;
     }
 
-    @Override
-    public boolean matches(Tree tree, PropertyState propertyState) {
+    private boolean evaluate(Tree tree, EvaluationContext context) {
         if (isRuleToApplyADeny()) {
-            return denyMatch(tree);
+            return denyMatch(tree, tree, context);
         }
         if (isRuleToApplyAnAllow()) {
-            return allowMatch(tree);
+            return allowMatchResolved(ancestorResolver.resolve(tree), tree, context);
         }
         return false;
     }
 
-    private boolean allowMatch(Tree tree) {
-        Tree firstParentOfTypeFolderOrAsset = getFirstParentOfTypeFolderOrAsset(tree);
+    /*
+     * The evaluated tree and its context are given to share the metadata with the other patterns evaluated on the
+     * tree: they are null when the metadata is not shared, e.g. for the children of a scanned folder.
+     */
+
+    private boolean allowMatchResolved(Tree firstParentOfTypeFolderOrAsset, Tree tree, EvaluationContext context) {
+        NodeState state = asNodeState(firstParentOfTypeFolderOrAsset);
+        if (state != null) {
+            if (!DamNodeTypes.isFolder(state.getProperty(JcrConstants.JCR_PRIMARYTYPE))) {
+                // an asset, or the node itself when it has no asset or folder
+                return negate != checkMetadata(metadataOf(firstParentOfTypeFolderOrAsset, tree, context),
+                        decisionCachePath(firstParentOfTypeFolderOrAsset));
+            }
+            Boolean decision = allowMatchFolder(state, decisionCachePath(firstParentOfTypeFolderOrAsset));
+            return decision != null ? decision : budgetExhausted(firstParentOfTypeFolderOrAsset.getPath());
+        }
         if (isAsset(firstParentOfTypeFolderOrAsset)) // This is an asset
         {
-            boolean ret = negate != checkTree(firstParentOfTypeFolderOrAsset);
+            boolean ret = negate != checkMetadata(metadataOf(firstParentOfTypeFolderOrAsset, tree, context), null);
             LOG.debug("allowMatch for tree of type Asset {} Match:: {}", firstParentOfTypeFolderOrAsset.getName(), ret);
             return ret;
         }
 
         if (isFolder(firstParentOfTypeFolderOrAsset)) {
+            FolderVisibilityIndex index = folderVisibilityIndex.get();
+            Boolean indexed = index != null
+                    ? index.isVisible(firstParentOfTypeFolderOrAsset, folderVisibilityProperty) : null;
+            if (indexed != null) {
+                LOG.debug("allowMatch for tree of type Folder {} from index Match:: {}", firstParentOfTypeFolderOrAsset.getName(), indexed);
+                return indexed;
+            }
+            int scanned = 0;
+            long budgetStart = budget.start();
             for (Tree currentTree : firstParentOfTypeFolderOrAsset.getChildren()) {
-                if (checkTree(currentTree)) {
+                if (budget.isExhausted(scanned, budgetStart)) {
+                    statistics.recordChildrenScanned(scanned);
+                    return budgetExhausted(firstParentOfTypeFolderOrAsset.getPath());
+                }
+                scanned++;
+                if (checkMetadata(metadataOf(currentTree, null, null), null)) {
+                    statistics.recordChildrenScanned(scanned);
                     LOG.debug("allowMatch for tree of type Folder {} Match:: {}", currentTree.getName(), true);
                     return true;
                 }
             }
+            statistics.recordChildrenScanned(scanned);
         }
 
         if (!isFolder(firstParentOfTypeFolderOrAsset)) {
-            boolean ret = negate != checkTree(firstParentOfTypeFolderOrAsset);
+            boolean ret = negate != checkMetadata(metadataOf(firstParentOfTypeFolderOrAsset, tree, context), null);
             LOG.debug("allowMatch for tree of type !Folder && !Asset {} Match:: {}", firstParentOfTypeFolderOrAsset.getName(), true);
             return ret;
         }
@@ -255,7 +210,7 @@ public class HasPropertyValuesPattern implements RestrictionPattern {
     }
 
     private boolean isRuleToApplyADeny() {
-        return DENY.equalsIgnoreCase(permissionType);
+        return expression.isDeny();
     }
 
     @Override
@@ -268,129 +223,184 @@ public class HasPropertyValuesPattern implements RestrictionPattern {
         return false;
     }
 
-    private boolean denyMatch(Tree tree) {
+    private boolean denyMatch(Tree node, Tree tree, EvaluationContext context) {
         // configured property name found on underlying jcr:content node has precedence
-        if (hasMetadataAsChild(tree)) {
-            boolean match = isMatch(tree);
-            return negate != match;
-        }
-        return false;
+        MetadataView metadata = metadataOf(node, tree, context);
+        return metadata.exists() && negate != isMatch(metadata, decisionCachePath(node));
     }
 
-    private boolean hasMetadataAsChild(Tree tree) {
-        return tree.hasChild(JcrConstants.JCR_CONTENT)
-                && tree.getChild(JcrConstants.JCR_CONTENT)
-                .hasChild(DamConstants.ACTIVITY_TYPE_METADATA);
+    /**
+     * Return the metadata of a node, shared with the other patterns evaluated on the tree when a context is given.
+     */
+    private MetadataView metadataOf(Tree node, Tree tree, EvaluationContext context) {
+        if (context == null) {
+            return readMetadata(node);
+        }
+        return context.getMetadata(tree, node, this::readMetadata);
     }
 
-    private boolean compareWithOperator(int compareValue) {
-        return ("_EQUALS_".equals(operator) && compareValue == 0) ||
-                ("_LESS_THAN_EQUALS_".equals(operator) && (compareValue <= 0)) ||
-                ("_GREATER_THAN_EQUALS_".equals(operator) && (compareValue >= 0)) ||
-                ("_GREATER_THEN_".equals(operator) && (compareValue > 0)) ||
-                ("_LESS_THEN_".equals(operator) && (compareValue < 0));
+    private MetadataView readMetadata(Tree node) {
+        statistics.recordMetadataLookup();
+        return MetadataView.of(node, asNodeState(node));
     }
 
-    private boolean isMatch(Tree tree) {
-        Tree metadataNode = tree.getChild(JcrConstants.JCR_CONTENT).getChild(DamConstants.ACTIVITY_TYPE_METADATA);
-        if (!isRestrictionPropertyExisting(metadataNode)) {
-            LOG.debug("isMatch::!isRestrictionPropertyExisting(metadataNode) metadataNode:: {}, Return:: {}", metadataNode.getPath(), false);
-            return false;
-        }
-        if (isMetadataPropertyAMultipleValuesOne(metadataNode)) {
-            boolean ret = doesItMatchForMultipleProperty(metadataNode);
-            LOG.debug("isMatch::isMetadataPropertyAMultipleValuesOne(metadataNode) metadataNode:: {}, Return:: {}", metadataNode.getPath(), ret);
-            return ret;
+    //------------------------------------------------------< NodeState evaluation >---
+
+    /**
+     * Evaluate the pattern on a node of a revision, with the same result as {@link #matches(Tree, PropertyState)} on
+     * the tree of the node. Node states are immutable: they can be read concurrently and without a session, e.g. by a
+     * tool checking the visibility of the assets of a node store offline.
+     *
+     * @param root the root node state of the revision
+     * @param path the absolute path of the node to evaluate
+     * @return true if the pattern matches the node
+     */
+    public boolean matches(NodeState root, String path) {
+        String[] names = "/".equals(path) ? new String[0] : path.substring(1).split("/");
+        NodeState[] states = new NodeState[names.length + 1];
+        states[0] = root;
+        for (int i = 0; i < names.length; i++) {
+            states[i + 1] = states[i].getChildNode(names[i]);
         }
-        if (isMetadataPropertyASingleValueOne(metadataNode)) {
-            boolean ret = doesItMatchForSingleProperty(metadataNode);
-            LOG.debug("isMatch::isMetadataPropertyASingleValueOne(metadataNode) metadataNode:: {}, Return:: {}", metadataNode.getPath(), ret);
-            return ret;
+        long start = statistics.start();
+        boolean decision;
+        if (isRuleToApplyADeny()) {
+            decision = denyMatch(states[names.length], decisionCache.isEnabled() ? path : null);
+        } else {
+            int depth = ancestorResolver.resolve(names, states);
+            String resolvedPath = null;
+            if (decisionCache.isEnabled()) {
+                resolvedPath = depth == names.length ? path : ancestorPath(names, depth);
+            }
+            Boolean resolvedDecision = allowMatchResolved(states[depth], resolvedPath);
+            decision = resolvedDecision != null ? resolvedDecision : budgetExhausted(ancestorPath(names, depth));
         }
-        LOG.debug("isMatch metadataNode:: {}, Return:: {} (default)", metadataNode.getPath(), false);
-        return false;
+        statistics.recordEvaluation(start);
+        return decision;
     }
 
-    private boolean isRestrictionPropertyExisting(Tree metadataNode) {
-        return metadataNode.hasProperty(name);
-    }
+    /*
+     * The paths of the node states below are only the keys of the decision cache: they are null when it is disabled,
+     * so that no path is built.
+     */
 
-    private boolean isMetadataPropertyASingleValueOne(Tree metadataNode) {
-        return !isMetadataPropertyAMultipleValuesOne(metadataNode);
+    private boolean denyMatch(NodeState node, String path) {
+        MetadataView metadata = readMetadata(node);
+        return metadata.exists() && negate != isMatch(metadata, path);
     }
 
-    private boolean doesItMatchForSingleProperty(Tree metadataNode) {
-        return statusList.contains(metadataNode.getProperty(name).getValue(Type.STRING));
+    /**
+     * @return the decision, null if the scan of the folder exhausted the budget
+     */
+    private Boolean allowMatchResolved(NodeState resolved, String path) {
+        PropertyState primaryType = resolved.getProperty(JcrConstants.JCR_PRIMARYTYPE);
+        if (!DamNodeTypes.isFolder(primaryType)) {
+            // an asset, or the node itself when it has no asset or folder
+            return negate != checkMetadata(readMetadata(resolved), path);
+        }
+        return allowMatchFolder(resolved, path);
     }
 
-    private boolean doesItMatchForMultipleProperty(Tree metadataNode) {
-        boolean match = false;
-        List<String> propertyValues = Iterables.toList(metadataNode.getProperty(name).getValue(Type.STRINGS));
-        for (int i = 0; i < propertyValues.size() && !match; i++) {
-            String value = propertyValues.get(i);
-            if (isPropertyTypeAString()) {
-                match = doesItMatchForAStringProperty(value);
-            }
-            if (isPropertyTypeAnInt()) {
-                match = doesItMatchForAnIntProperty(value);
+    /**
+     * @return the decision, null if the scan of the folder exhausted the budget
+     */
+    private Boolean allowMatchFolder(NodeState resolved, String path) {
+        FolderVisibilityIndex index = folderVisibilityIndex.get();
+        Boolean indexed = index != null ? index.isVisible(resolved, folderVisibilityProperty) : null;
+        if (indexed != null) {
+            return indexed;
+        }
+        int scanned = 0;
+        long budgetStart = budget.start();
+        for (ChildNodeEntry child : resolved.getChildNodeEntries()) {
+            if (child.getName().charAt(0) == ':') {
+                // hidden, like for the children of a tree
+                continue;
             }
-            if (isPropertyTypeADate()) {
-                match = doesItMatchForADateProperty(value);
+            if (budget.isExhausted(scanned, budgetStart)) {
+                statistics.recordChildrenScanned(scanned);
+                return null;
             }
-        }
-        return match;
-    }
-
-    private boolean doesItMatchForADateProperty(String value) {
-        try {
-            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-            Date dateProperty = format.parse(value);
-            Date valueProperty = new Date();
-            if (!"today".equalsIgnoreCase(statusList.get(0))) {
-                valueProperty = format.parse(statusList.get(0));
+            scanned++;
+            String childPath = path != null ? childPath(path, child.getName()) : null;
+            if (checkMetadata(readMetadata(child.getNodeState()), childPath)) {
+                statistics.recordChildrenScanned(scanned);
+                return true;
             }
-
-            int compare = valueProperty.compareTo(dateProperty);
-            return compareWithOperator(compare);
-
-        } catch (ParseException e) {
-            // Because it is not a date => not possible to compare => false
         }
+        statistics.recordChildrenScanned(scanned);
         return false;
     }
 
-    private boolean doesItMatchForAnIntProperty(String value) {
-        try {
-            Integer intProperty = Integer.parseInt(value);
-            Integer valueProperty = Integer.parseInt(statusList.get(0));
+    /**
+     * Apply the configured decision to a folder whose scan exhausted the budget.
+     */
+    private boolean budgetExhausted(String folderPath) {
+        statistics.recordBudgetExhausted();
+        budget.warn(LOG, toString(), folderPath);
+        return budget.getExceededDecision();
+    }
 
-            int compare = valueProperty.compareTo(intProperty);
-            return compareWithOperator(compare);
+    private boolean checkMetadata(MetadataView metadata, String path) {
+        return metadata.exists() && isMatch(metadata, path);
+    }
 
-        } catch (Exception e) {
-            // Because it is not an int => not possible to compare => false
+    /**
+     * @param path the path of the node of the metadata, null if the decision cache is disabled
+     */
+    private boolean isMatch(MetadataView metadata, String path) {
+        if (decisionCache.isEnabled()) {
+            // taken by any session on the same metadata node state
+            if (metadata.getNodeState() != null) {
+                return decisionCache.matches(expression, path + METADATA_RELATIVE_PATH, metadata.getNodeState());
+            }
+            Boolean shared = decisionCache.matches(expression, metadata.getTree());
+            if (shared != null) {
+                return shared;
+            }
         }
-        return false;
+        boolean ret = expression.matches(metadata::getProperty);
+        LOG.debug("isMatch {} Return:: {}", expression, ret);
+        return ret;
     }
 
-    private boolean doesItMatchForAStringProperty(String value) {
-        return statusList.contains(value);
+    private MetadataView readMetadata(NodeState node) {
+        statistics.recordMetadataLookup();
+        return MetadataView.of(node);
     }
 
-    private boolean isPropertyTypeADate() {
-        return propertyType.equals("date");
+    /**
+     * @return the node state of the tree, null if the tree is not backed by a node state
+     */
+    private NodeState asNodeState(Tree tree) {
+        if (treeProvider == null) {
+            return null;
+        }
+        try {
+            return treeProvider.asNodeState(tree);
+        } catch (IllegalArgumentException e) {
+            // Not a tree backed by a node state => read the tree
+            return null;
+        }
     }
 
-    private boolean isPropertyTypeAnInt() {
-        return propertyType.equals("int");
+    private String decisionCachePath(Tree tree) {
+        return decisionCache.isEnabled() ? tree.getPath() : null;
     }
 
-    private boolean isPropertyTypeAString() {
-        return propertyType.equals("string");
+    private static String ancestorPath(String[] names, int depth) {
+        if (depth == 0) {
+            return "/";
+        }
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            path.append('/').append(names[i]);
+        }
+        return path.toString();
     }
 
-    private boolean isMetadataPropertyAMultipleValuesOne(Tree metadataNode) {
-        return metadataNode.hasProperty(name) && metadataNode.getProperty(name).isArray();
+    private static String childPath(String path, String name) {
+        return "/".equals(path) ? "/" + name : path + "/" + name;
     }
 
     @Override
@@ -408,58 +418,24 @@ public class HasPropertyValuesPattern implements RestrictionPattern {
         HasPropertyValuesPattern c = (HasPropertyValuesPattern) o;
 
         // Compare the data members and return accordingly
-        return arePermissionTypesEqual(c) &&
-                areNegateOperatorsEqual(c) &&
-                areNamesEqual(c) &&
-                areStatusListsEqual(c) &&
-                areOriginalTreesEqual(c) &&
-                arePropertyTypesEqual(c) &&
-                areOperatorsEqual(c);
-    }
-
-    private boolean areOperatorsEqual(HasPropertyValuesPattern c) {
-        return areTheyBothNull(operator, c.operator) || (operator != null && operator.equals(c.operator));
-    }
-
-    private boolean arePropertyTypesEqual(HasPropertyValuesPattern c) {
-        return areTheyBothNull(propertyType, c.propertyType) || (propertyType != null && propertyType.equals(c.propertyType));
+        return expression.equals(c.expression) && areOriginalTreesEqual(c);
     }
 
     private boolean areOriginalTreesEqual(HasPropertyValuesPattern c) {
         return areTheyBothNull(originalTree, c.originalTree) || (originalTree != null && originalTree.equals(c.originalTree));
     }
 
-    private boolean areStatusListsEqual(HasPropertyValuesPattern c) {
-        return areTheyBothNull(statusList, c.statusList) || (statusList != null && statusList.equals(c.statusList));
-    }
-
-    private boolean areNamesEqual(HasPropertyValuesPattern c) {
-        return areTheyBothNull(name, c.name) || (name != null && name.equals(c.name));
-    }
-
-    private boolean areNegateOperatorsEqual(HasPropertyValuesPattern c) {
-        return areTheyBothNull(negate, c.negate) || negate == c.negate;
-    }
-
-    private boolean arePermissionTypesEqual(HasPropertyValuesPattern c) {
-        return areTheyBothNull(permissionType, c.permissionType) || (permissionType != null && permissionType.equals(c.permissionType));
-    }
-
     @Override
     public int hashCode() {
-        return Objects.hash
-                (
-                        permissionType,
-                        negate,
-                        name,
-                        statusList,
-                        originalTree,
-                        propertyType,
-                        operator
-                );
+        return Objects.hash(expression, originalTree);
     }
 
     private boolean areTheyBothNull(Object o1, Object o2) {
         return o1 == null && o2 == null;
     }
+
+    @Override
+    public String toString() {
+        return expression + " on " + originalTree;
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import com.day.cq.dam.api.DamConstants;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The jcr:content/metadata node of a node, resolved once, and the properties already read on it.
+ * <p>
+ * The metadata is read from the node state when the node is backed by one, and from the tree otherwise. A view is
+ * only read by the thread which created it.
+ */
+final class MetadataView {
+
+    private final Tree tree;
+    private final NodeState nodeState;
+    private final boolean exists;
+    private Map<String, PropertyState> properties;
+
+    private MetadataView(Tree tree, NodeState nodeState, boolean exists) {
+        this.tree = tree;
+        this.nodeState = nodeState;
+        this.exists = exists;
+    }
+
+    /**
+     * @param node      the node
+     * @param nodeState the node state of the node, null if the node is not backed by a node state
+     */
+    static MetadataView of(Tree node, NodeState nodeState) {
+        if (nodeState != null) {
+            return of(nodeState);
+        }
+        Tree metadata = node.getChild(JcrConstants.JCR_CONTENT).getChild(DamConstants.ACTIVITY_TYPE_METADATA);
+        return new MetadataView(metadata, null, metadata.exists());
+    }
+
+    static MetadataView of(NodeState node) {
+        NodeState metadata = node.getChildNode(JcrConstants.JCR_CONTENT)
+                .getChildNode(DamConstants.ACTIVITY_TYPE_METADATA);
+        return new MetadataView(null, metadata, metadata.exists());
+    }
+
+    boolean exists() {
+        return exists;
+    }
+
+    /**
+     * @return the metadata tree, null if the metadata is read from the node state
+     */
+    Tree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return the metadata node state, null if the metadata is read from the tree
+     */
+    NodeState getNodeState() {
+        return nodeState;
+    }
+
+    /**
+     * @return the property of the metadata node, null if it does not exist
+     */
+    PropertyState getProperty(String name) {
+        if (properties == null) {
+            properties = new HashMap<>(4);
+        } else if (properties.containsKey(name)) {
+            return properties.get(name);
+        }
+        PropertyState property = nodeState != null ? nodeState.getProperty(name) : tree.getProperty(name);
+        properties.put(name, property);
+        return property;
+    }
+}
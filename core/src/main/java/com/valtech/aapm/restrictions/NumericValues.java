@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+/**
+ * Parsing of the numbers used by the rep:hasPropertyValues restrictions, without exceptions for the values which are
+ * not numbers.
+ */
+final class NumericValues {
+
+    /**
+     * Returned by {@link #parseLong(String)} when the value is not a long. {@link Long#MIN_VALUE} itself is therefore
+     * not supported.
+     */
+    static final long INVALID = Long.MIN_VALUE;
+
+    private NumericValues() {
+    }
+
+    /**
+     * Parse a decimal integer, with an optional sign.
+     *
+     * @param value the value
+     * @return the number, or {@link #INVALID} if the value is not an integer in the range of a long
+     */
+    static long parseLong(String value) {
+        if (value == null || value.isEmpty()) {
+            return INVALID;
+        }
+        char first = value.charAt(0);
+        boolean negative = first == '-';
+        int start = negative || first == '+' ? 1 : 0;
+        if (start == value.length()) {
+            return INVALID;
+        }
+        long result = 0;
+        for (int i = start; i < value.length(); i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result > (Long.MAX_VALUE - digit) / 10) {
+                return INVALID;
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Parse a decimal number, with an optional sign, fraction and exponent, e.g. -1.5e3.
+     *
+     * @param value the value
+     * @return the number, or {@link Double#NaN} if the value is not a decimal number
+     */
+    static double parseDouble(String value) {
+        return isDecimal(value) ? Double.parseDouble(value) : Double.NaN;
+    }
+
+    private static boolean isDecimal(String value) {
+        if (value == null) {
+            return false;
+        }
+        int length = value.length();
+        int i = 0;
+        if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        while (i < length && isDigit(value.charAt(i))) {
+            i++;
+            digits++;
+        }
+        if (i < length && value.charAt(i) == '.') {
+            i++;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
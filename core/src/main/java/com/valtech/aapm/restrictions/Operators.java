@@ -5,7 +5,12 @@ public enum Operators {
     GREATER_THAN_EQUALS("_GREATER_THAN_EQUALS_"),
     GREATER_THEN("_GREATER_THEN_"),
     LESS_THAN_EQUALS("_LESS_THAN_EQUALS_"),
-    LESS_THEN("_LESS_THEN_");
+    LESS_THEN("_LESS_THEN_"),
+    /**
+     * Hierarchical tag matching, for the string restrictions only: the value is a tag or one of its descendants, see
+     * {@link TagTrie}.
+     */
+    UNDER("_UNDER_");
     private final String value;
     Operators(String value) {
         this.value = value;
@@ -13,4 +18,28 @@ public enum Operators {
     public String getValue() {
         return value;
     }
+
+    /**
+     * Apply the operator to the result of comparing the restriction value with the property value,
+     * i.e. {@code compare(restrictionValue, propertyValue)}.
+     *
+     * @param compareValue the result of the comparison
+     * @return true if the comparison satisfies this operator
+     */
+    public boolean test(int compareValue) {
+        switch (this) {
+            case EQUALS:
+                return compareValue == 0;
+            case GREATER_THAN_EQUALS:
+                return compareValue >= 0;
+            case GREATER_THEN:
+                return compareValue > 0;
+            case LESS_THAN_EQUALS:
+                return compareValue <= 0;
+            case LESS_THEN:
+                return compareValue < 0;
+            default:
+                return false;
+        }
+    }
 }
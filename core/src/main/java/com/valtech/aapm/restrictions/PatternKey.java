@@ -0,0 +1,75 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import java.util.Objects;
+
+/**
+ * Key of the restriction pattern caches: the raw restriction value and the access controlled path it applies to.
+ */
+final class PatternKey {
+
+    // object headers, references and the pattern built for the key
+    private static final long ENTRY_OVERHEAD = 160;
+
+    private final String restriction;
+    private final String oakPath;
+    private final int hash;
+
+    PatternKey(String restriction, String oakPath) {
+        this.restriction = restriction;
+        this.oakPath = oakPath;
+        this.hash = Objects.hash(restriction, oakPath);
+    }
+
+    String getRestriction() {
+        return restriction;
+    }
+
+    String getOakPath() {
+        return oakPath;
+    }
+
+    /**
+     * Rough estimate of the memory retained by a cache entry for this key, including the compiled pattern
+     * which holds a parsed copy of the restriction.
+     *
+     * @return the estimated footprint in bytes
+     */
+    long estimateFootprint() {
+        return ENTRY_OVERHEAD + 4L * (restriction.length() + oakPath.length());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof PatternKey)) {
+            return false;
+        }
+        PatternKey c = (PatternKey) o;
+        return hash == c.hash && restriction.equals(c.restriction) && oakPath.equals(c.oakPath);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+
+import java.util.function.Supplier;
+
+/**
+ * Provider level settings shared by the {@link HasPropertyValuesPattern} instances it creates.
+ */
+final class PatternSettings {
+
+    static final PatternSettings DEFAULT = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT,
+            RestrictionMetrics.INSTANCE, DecisionCache.DISABLED, null);
+
+    private final AncestorResolver ancestorResolver;
+    private final CoarseClock clock;
+    private final RestrictionMetrics metrics;
+    private final DecisionCache decisionCache;
+    private final TreeProvider treeProvider;
+    private final EvaluationBudget budget;
+    private final Supplier<FolderVisibilityIndex> folderVisibilityIndex;
+
+    /**
+     * @param treeProvider the provider reading the evaluated trees as node states, null to read the trees
+     */
+    PatternSettings(AncestorResolver ancestorResolver, CoarseClock clock, RestrictionMetrics metrics,
+                    DecisionCache decisionCache, TreeProvider treeProvider) {
+        this(ancestorResolver, clock, metrics, decisionCache, treeProvider, EvaluationBudget.UNLIMITED);
+    }
+
+    PatternSettings(AncestorResolver ancestorResolver, CoarseClock clock, RestrictionMetrics metrics,
+                    DecisionCache decisionCache, TreeProvider treeProvider, EvaluationBudget budget) {
+        this(ancestorResolver, clock, metrics, decisionCache, treeProvider, budget, () -> null);
+    }
+
+    /**
+     * @param folderVisibilityIndex returns the folder visibility index currently usable, null if there is none
+     */
+    PatternSettings(AncestorResolver ancestorResolver, CoarseClock clock, RestrictionMetrics metrics,
+                    DecisionCache decisionCache, TreeProvider treeProvider, EvaluationBudget budget,
+                    Supplier<FolderVisibilityIndex> folderVisibilityIndex) {
+        this.ancestorResolver = ancestorResolver;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.decisionCache = decisionCache;
+        this.treeProvider = treeProvider;
+        this.budget = budget;
+        this.folderVisibilityIndex = folderVisibilityIndex;
+    }
+
+    AncestorResolver getAncestorResolver() {
+        return ancestorResolver;
+    }
+
+    CoarseClock getClock() {
+        return clock;
+    }
+
+    RestrictionMetrics getMetrics() {
+        return metrics;
+    }
+
+    DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    TreeProvider getTreeProvider() {
+        return treeProvider;
+    }
+
+    EvaluationBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return returns the folder visibility index currently usable, null if there is none
+     */
+    Supplier<FolderVisibilityIndex> getFolderVisibilityIndex() {
+        return folderVisibilityIndex;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.spi.state.ChildNodeEntry;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Compiles in the background the patterns of the restrictions stored in the permission store, so that the first
+ * permission evaluations after an activation find them in the pattern cache.
+ * <p>
+ * The permission store keeps the entries of a principal under a node per access controlled path, holding the path in
+ * rep:accessControlledPath, and the restrictions are properties of the entries. The warm-up stops once it compiled as
+ * many entries as the pattern cache holds, or when it is stopped.
+ */
+final class PatternWarmUp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PatternWarmUp.class);
+
+    private static final String JCR_SYSTEM = "jcr:system";
+    private static final String REP_PERMISSION_STORE = "rep:permissionStore";
+    private static final String REP_ACCESS_CONTROLLED_PATH = "rep:accessControlledPath";
+
+    private final RestrictionMetrics.RestrictionType type;
+    private final List<String> restrictionNames;
+    private final BiConsumer<PropertyState, String> compiler;
+    private final int maxEntries;
+    private final RestrictionMetrics metrics;
+    private ExecutorService executor;
+    private int entries;
+
+    /**
+     * @param type             the restriction type whose patterns are compiled
+     * @param restrictionNames the names of the properties holding the restriction
+     * @param compiler         compiles the restriction of an entry for its access controlled path
+     * @param maxEntries       maximum number of entries to compile
+     * @param metrics          records the count and duration of the warm-up
+     */
+    PatternWarmUp(RestrictionMetrics.RestrictionType type, List<String> restrictionNames,
+                  BiConsumer<PropertyState, String> compiler, int maxEntries, RestrictionMetrics metrics) {
+        this.type = type;
+        this.restrictionNames = restrictionNames;
+        this.compiler = compiler;
+        this.maxEntries = maxEntries;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Run the warm-up on the current root of the node store in a daemon thread.
+     */
+    synchronized void start(NodeStore nodeStore) {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aapm-pattern-warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(() -> run(nodeStore.getRoot()));
+    }
+
+    /**
+     * Interrupt the warm-up if it is still running.
+     */
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Compile the restrictions of the permission store.
+     *
+     * @param root the root of the repository
+     * @return the number of compiled entries
+     */
+    int run(NodeState root) {
+        long start = System.nanoTime();
+        entries = 0;
+        try {
+            NodeState permissionStore = root.getChildNode(JCR_SYSTEM).getChildNode(REP_PERMISSION_STORE);
+            for (ChildNodeEntry workspace : permissionStore.getChildNodeEntries()) {
+                if (!visit(workspace.getNodeState(), null)) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.warn("{} pattern warm-up failed after {} entries", type.getRestrictionName(), entries, e);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        metrics.recordWarmUp(type, entries, millis);
+        LOG.info("{} pattern warm-up compiled {} entries in {} ms", type.getRestrictionName(), entries, millis);
+        return entries;
+    }
+
+    /**
+     * @return false if the warm-up must stop
+     */
+    private boolean visit(NodeState node, String accessControlledPath) {
+        String oakPath = node.hasProperty(REP_ACCESS_CONTROLLED_PATH)
+                ? node.getString(REP_ACCESS_CONTROLLED_PATH) : accessControlledPath;
+        if (oakPath != null) {
+            for (String restrictionName : restrictionNames) {
+                PropertyState restriction = node.getProperty(restrictionName);
+                if (restriction != null) {
+                    compiler.accept(restriction, oakPath);
+                    entries++;
+                    break;
+                }
+            }
+        }
+        if (entries >= maxEntries || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        for (ChildNodeEntry child : node.getChildNodeEntries()) {
+            if (!visit(child.getNodeState(), oakPath)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -21,25 +21,242 @@ package com.valtech.aapm.restrictions;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.spi.commit.BackgroundObserver;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.*;
 import org.osgi.service.component.annotations.*;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.security.AccessControlException;
+import java.time.Clock;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
-@Component(service = RestrictionProvider.class, immediate = true)
-public class PropertyValueRestrictionProvider extends AbstractRestrictionProvider {
+/**
+ * Provides the rep:hasPropertyValues restriction patterns.
+ * <p>
+ * The provider is also registered as an {@link Observer} to evict the entries of the decision cache whose metadata
+ * changed. The changes are queued to a background thread, so the commits are not slowed down.
+ * <p>
+ * When enabled, the patterns of the restrictions stored in the permission store are compiled in the background on
+ * activation, see {@link PatternWarmUp}.
+ * <p>
+ * The pattern of an entry also restricted by rep:subFolder checks the level of the node first, and only reads the
+ * metadata of the nodes at the required level, see {@link GuardedPattern}.
+ */
+@Component(service = {RestrictionProvider.class, Observer.class}, immediate = true)
+@Designate(ocd = PropertyValueRestrictionProvider.Config.class)
+public class PropertyValueRestrictionProvider extends AbstractRestrictionProvider implements Observer {
+
+    @ObjectClassDefinition(name = "AAPM rep:hasPropertyValues restriction provider")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Pattern cache size",
+                description = "Maximum number of compiled patterns shared between permission entries with the same "
+                        + "restriction and path. 0 disables the cache.")
+        int patternCacheSize() default DEFAULT_PATTERN_CACHE_SIZE;
+
+        @AttributeDefinition(name = "DAM root",
+                description = "Path where the search of the asset or folder of an evaluated node stops.")
+        String damRootPath() default AncestorResolver.DEFAULT_DAM_ROOT_PATH;
+
+        @AttributeDefinition(name = "Today clock tick",
+                description = "Resolution in milliseconds of the \"today\" date restrictions: the clock is read "
+                        + "once per tick, and all the evaluations within a tick use the same instant. 86400000 "
+                        + "compares with the start of the day (UTC).")
+        long todayClockTickMillis() default CoarseClock.DEFAULT_TICK_MILLIS;
+
+        @AttributeDefinition(name = "Decision cache size",
+                description = "Maximum number of metadata decisions shared between all the sessions. A decision is "
+                        + "only reused while the metadata node is unchanged. 0 disables the cache.")
+        int decisionCacheSize() default 0;
+
+        @AttributeDefinition(name = "Decision cache invalidation queue",
+                description = "Maximum number of changes waiting for the eviction of the changed decisions. When it "
+                        + "is full, the waiting changes are merged.")
+        int decisionCacheInvalidationQueueSize() default DEFAULT_INVALIDATION_QUEUE_SIZE;
+
+        @AttributeDefinition(name = "Evaluation budget: children",
+                description = "Maximum number of children of a folder visited by an allow rule. 0 for no limit.")
+        int budgetMaxChildren() default 0;
+
+        @AttributeDefinition(name = "Evaluation budget: duration",
+                description = "Maximum duration in milliseconds of the visit of the children of a folder by an allow "
+                        + "rule. 0 for no limit.")
+        long budgetMaxMillis() default 0;
+
+        @AttributeDefinition(name = "Evaluation budget: exceeded decision",
+                description = "Whether an allow rule applies to a folder whose visit exceeds the budget. Disabled, "
+                        + "the folder is not made visible by the rule (fail closed).")
+        boolean budgetExceededAllows() default false;
+
+        @AttributeDefinition(name = "Pattern cache warm-up",
+                description = "Compile in the background the restrictions stored in the permission store when the "
+                        + "provider is activated, so that the first requests find them in the pattern cache.")
+        boolean patternCacheWarmUp() default false;
+    }
+
+    static final int DEFAULT_PATTERN_CACHE_SIZE = 10000;
+    static final int DEFAULT_INVALIDATION_QUEUE_SIZE = 1000;
+
+    static final String PATTERN_CACHE_NAME = "rep:hasPropertyValues patterns";
+    static final String DECISION_CACHE_NAME = "rep:hasPropertyValues decisions";
+
+    private static final Logger LOG = LoggerFactory.getLogger(PropertyValueRestrictionProvider.class);
 
     private static final String HAS_PROPERTY_VALUES = "rep:hasPropertyValues";
+    private static final String HAS_PROPERTY_VALUES_TOKENS = "rep:hasPropertyValuesTokens";
+
+    private volatile BoundedCache<PatternKey, RestrictionPattern> patternCache =
+            new BoundedCache<>(DEFAULT_PATTERN_CACHE_SIZE, PatternKey::estimateFootprint);
+
+    private volatile PatternSettings settings = PatternSettings.DEFAULT;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private TreeProvider treeProvider;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private NodeStore nodeStore;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    private volatile FolderVisibilityEditorProvider folderVisibility;
+
+    private volatile PatternWarmUp warmUp;
+
+    private volatile BackgroundObserver invalidation;
+    private ExecutorService invalidationExecutor;
+    private ScheduledExecutorService clockScheduler;
 
     public PropertyValueRestrictionProvider() {
         super(supportedRestrictions());
     }
 
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        DecisionCache decisionCache = new DecisionCache(config.decisionCacheSize(), treeProvider);
+        stopClock();
+        CoarseClock clock = new CoarseClock(Clock.systemUTC(), config.todayClockTickMillis());
+        startClock(clock);
+        settings = new PatternSettings(new AncestorResolver(config.damRootPath()), clock, RestrictionMetrics.INSTANCE,
+                decisionCache, treeProvider,
+                new EvaluationBudget(config.budgetMaxChildren(), config.budgetMaxMillis(), config.budgetExceededAllows()),
+                this::getFolderVisibilityIndex);
+        patternCache = new BoundedCache<>(config.patternCacheSize(), PatternKey::estimateFootprint);
+        RestrictionMetrics.INSTANCE.registerCache(PATTERN_CACHE_NAME, patternCache);
+        RestrictionMetrics.INSTANCE.registerCache(DECISION_CACHE_NAME, decisionCache.getCache());
+        stopInvalidation();
+        if (decisionCache.isEnabled()) {
+            startInvalidation(decisionCache, config);
+        }
+        stopWarmUp();
+        if (config.patternCacheWarmUp()) {
+            startWarmUp();
+        }
+    }
+
+    private FolderVisibilityIndex getFolderVisibilityIndex() {
+        FolderVisibilityEditorProvider provider = folderVisibility;
+        return provider != null ? provider.getIndex() : null;
+    }
+
+    private void startWarmUp() {
+        NodeStore store = nodeStore;
+        if (store == null || patternCache.getCapacity() == 0) {
+            LOG.info("Pattern cache warm-up skipped: {}", store == null ? "no node store" : "the cache is disabled");
+            return;
+        }
+        PatternWarmUp patternWarmUp = new PatternWarmUp(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES,
+                List.of(HAS_PROPERTY_VALUES, HAS_PROPERTY_VALUES_TOKENS), this::createPattern,
+                patternCache.getCapacity(), RestrictionMetrics.INSTANCE);
+        patternWarmUp.start(store);
+        warmUp = patternWarmUp;
+    }
+
+    private void stopWarmUp() {
+        PatternWarmUp patternWarmUp = warmUp;
+        warmUp = null;
+        if (patternWarmUp != null) {
+            patternWarmUp.stop();
+        }
+    }
+
+    private void startClock(CoarseClock clock) {
+        clockScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aapm-today-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clock.start(clockScheduler);
+    }
+
+    private void stopClock() {
+        if (clockScheduler != null) {
+            clockScheduler.shutdownNow();
+            clockScheduler = null;
+            settings.getClock().stop();
+        }
+    }
+
+    private void startInvalidation(DecisionCache decisionCache, Config config) {
+        invalidationExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aapm-decision-cache-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+        BackgroundObserver observer = new BackgroundObserver(
+                new DecisionCacheInvalidator(decisionCache, settings.getAncestorResolver().getDamRootPath(),
+                        RestrictionMetrics.INSTANCE),
+                invalidationExecutor, Math.max(1, config.decisionCacheInvalidationQueueSize()));
+        RestrictionMetrics.INSTANCE.setInvalidationQueueSize(() -> observer.getMBean().getQueueSize());
+        invalidation = observer;
+    }
+
+    private void stopInvalidation() {
+        BackgroundObserver observer = invalidation;
+        invalidation = null;
+        if (observer != null) {
+            RestrictionMetrics.INSTANCE.setInvalidationQueueSize(() -> 0);
+            observer.close();
+            invalidationExecutor.shutdown();
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        stopWarmUp();
+        stopInvalidation();
+        stopClock();
+        LOG.info("Pattern cache statistics: {}, estimated footprint={} bytes", patternCache, patternCache.getEstimatedFootprint());
+        DecisionCache decisionCache = settings.getDecisionCache();
+        if (decisionCache.isEnabled()) {
+            LOG.info("Decision cache statistics: {}", decisionCache);
+        }
+        RestrictionMetrics.INSTANCE.unregisterCache(PATTERN_CACHE_NAME, patternCache);
+        RestrictionMetrics.INSTANCE.unregisterCache(DECISION_CACHE_NAME, decisionCache.getCache());
+        patternCache.clear();
+        decisionCache.clear();
+    }
+
     private static Map<String, RestrictionDefinition> supportedRestrictions() {
         RestrictionDefinition propertyValue = new RestrictionDefinitionImpl(HAS_PROPERTY_VALUES, Type.STRING, false);
-        return Collections.singletonMap(propertyValue.getName(), propertyValue);
+        RestrictionDefinition tokens = new RestrictionDefinitionImpl(HAS_PROPERTY_VALUES_TOKENS, Type.STRINGS, false);
+        return Map.of(propertyValue.getName(), propertyValue, tokens.getName(), tokens);
     }
 
     //------------------------------------------------< RestrictionProvider >---
@@ -53,8 +270,15 @@ public class PropertyValueRestrictionProvider extends AbstractRestrictionProvide
     public RestrictionPattern getPattern(String oakPath, Tree tree) {
         if (oakPath != null) {
             PropertyState property = tree.getProperty(HAS_PROPERTY_VALUES);
+            if (property == null) {
+                property = tree.getProperty(HAS_PROPERTY_VALUES_TOKENS);
+            }
             if (property != null) {
-                return HasPropertyValuesPattern.create(property, oakPath);
+                PropertyState subFolder = tree.getProperty(SubFolderRestrictionProvider.REP_SUB_FOLDER);
+                if (subFolder == null) {
+                    subFolder = tree.getProperty(SubFolderRestrictionProvider.REP_SUB_FOLDER_TOKENS);
+                }
+                return guard(createPattern(property, oakPath), subFolder, oakPath);
             }
         }
         return RestrictionPattern.EMPTY;
@@ -63,14 +287,163 @@ public class PropertyValueRestrictionProvider extends AbstractRestrictionProvide
     @Override
     public RestrictionPattern getPattern(String oakPath, Set<Restriction> restrictions) {
         if (oakPath != null) {
+            PropertyState property = null;
+            PropertyState subFolder = null;
             for (Restriction r : restrictions) {
                 String name = r.getDefinition().getName();
-                if (HAS_PROPERTY_VALUES.equals(name)) {
-                    return HasPropertyValuesPattern.create(r.getProperty(), oakPath);
+                if (property == null && (HAS_PROPERTY_VALUES.equals(name) || HAS_PROPERTY_VALUES_TOKENS.equals(name))) {
+                    property = r.getProperty();
+                } else if (SubFolderRestrictionProvider.REP_SUB_FOLDER.equals(name)
+                        || SubFolderRestrictionProvider.REP_SUB_FOLDER_TOKENS.equals(name)) {
+                    subFolder = r.getProperty();
                 }
             }
+            if (property != null) {
+                return guard(createPattern(property, oakPath), subFolder, oakPath);
+            }
         }
         return RestrictionPattern.EMPTY;
     }
 
+    /**
+     * Reject an invalid restriction when the entry is created, and store it in canonical form, so that all the
+     * spellings of a restriction share the same compiled pattern.
+     */
+    @Override
+    public Restriction createRestriction(String oakPath, String oakName, Value value)
+            throws AccessControlException, RepositoryException {
+        Restriction restriction = super.createRestriction(oakPath, oakName, value);
+        return HAS_PROPERTY_VALUES.equals(oakName) ? canonical(restriction) : restriction;
+    }
+
+    /**
+     * Reject an invalid pre-tokenised restriction when the entry is created, and store it in canonical form.
+     */
+    @Override
+    public Restriction createRestriction(String oakPath, String oakName, Value... values)
+            throws AccessControlException, RepositoryException {
+        Restriction restriction = super.createRestriction(oakPath, oakName, values);
+        return HAS_PROPERTY_VALUES_TOKENS.equals(oakName) ? canonicalTokens(restriction) : restriction;
+    }
+
+    /**
+     * Reject an invalid restriction when the entry is committed. Only the rep:hasPropertyValues restrictions are checked, against
+     * their definition and grammar: the entry may hold the restrictions of other providers, e.g. rep:glob, which
+     * the checks of the abstract provider would reject as unsupported.
+     */
+    @Override
+    public void validateRestrictions(String oakPath, Tree aceTree) throws AccessControlException {
+        String value = AceRestrictions.getValue(aceTree, HAS_PROPERTY_VALUES);
+        if (value != null) {
+            AceRestrictions.validate(value, PropertyValueRestrictionProvider::canonicalValue);
+        }
+        PropertyState tokens = AceRestrictions.getTokens(aceTree, HAS_PROPERTY_VALUES_TOKENS);
+        if (tokens != null) {
+            if (value != null) {
+                throw new AccessControlException(
+                        "Restrictions rep:hasPropertyValues and rep:hasPropertyValuesTokens cannot be combined");
+            }
+            AceRestrictions.validate(tokens, PropertyValueRestrictionProvider::canonicalTokens);
+        }
+    }
+
+    static Restriction canonical(Restriction restriction) throws AccessControlException {
+        return AceRestrictions.canonical(restriction, PropertyValueRestrictionProvider::canonicalValue);
+    }
+
+    static Restriction canonicalTokens(Restriction restriction) throws AccessControlException {
+        return AceRestrictions.canonicalTokens(restriction, PropertyValueRestrictionProvider::canonicalTokens);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the restriction is invalid
+     */
+    private static String canonicalValue(String restriction) {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(restriction);
+        expression.validate();
+        return expression.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pre-tokenised restriction is invalid
+     */
+    private static List<String> canonicalTokens(PropertyState property) {
+        HasPropertyValuesExpression expression =
+                RestrictionTokens.decodeHasPropertyValues(property, CoarseClock.DEFAULT);
+        expression.validate();
+        return RestrictionTokens.encode(expression);
+    }
+
+    /**
+     * Return the pattern for the restriction, shared with all the entries having the same restriction on the same path.
+     */
+    private RestrictionPattern createPattern(PropertyState property, String oakPath) {
+        if (HAS_PROPERTY_VALUES_TOKENS.equals(property.getName())) {
+            return createTokensPattern(property, oakPath);
+        }
+        if (property.count() != 1) {
+            return RestrictionPattern.EMPTY;
+        }
+        PatternSettings currentSettings = settings;
+        return patternCache.get(new PatternKey(property.getValue(Type.STRING), oakPath),
+                key -> HasPropertyValuesPattern.create(key.getRestriction(), key.getOakPath(), currentSettings));
+    }
+
+    /**
+     * Return the pattern of a pre-tokenised restriction. The values are decoded without being parsed, and the pattern
+     * is shared with the entries having the equivalent restriction string on the same path.
+     */
+    private RestrictionPattern createTokensPattern(PropertyState property, String oakPath) {
+        PatternSettings currentSettings = settings;
+        HasPropertyValuesExpression expression;
+        try {
+            expression = RestrictionTokens.decodeHasPropertyValues(property, currentSettings.getClock());
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid restriction defined on {}, failing closed: {}", oakPath, e.getMessage());
+            return FailClosedPattern.of(property);
+        }
+        return patternCache.get(new PatternKey(expression.toString(), oakPath),
+                key -> new HasPropertyValuesPattern(expression, key.getOakPath(), currentSettings));
+    }
+
+    /**
+     * Guard the pattern of an entry also restricted by rep:subFolder with the rep:subFolder pattern, so that the level
+     * of the node is checked before its metadata is read. The rep:subFolder provider still returns its own pattern
+     * for the entry: it is a cheap path check, and the entry stays restricted by the level without this provider.
+     *
+     * @param subFolder the rep:subFolder or rep:subFolderTokens restriction of the entry, or null
+     */
+    private RestrictionPattern guard(RestrictionPattern pattern, PropertyState subFolder, String oakPath) {
+        if (subFolder == null || !(pattern instanceof HasPropertyValuesPattern)) {
+            return pattern;
+        }
+        SubFolderExpression expression;
+        try {
+            expression = SubFolderRestrictionProvider.expressionOf(subFolder);
+        } catch (IllegalArgumentException e) {
+            // fails closed like the pattern of the rep:subFolder provider for the entry
+            return FailClosedPattern.of(subFolder);
+        }
+        if (expression == null) {
+            return pattern;
+        }
+        RestrictionPattern guard = patternCache.get(
+                new PatternKey(SubFolderRestrictionProvider.REP_SUB_FOLDER + " " + expression, oakPath),
+                key -> new SubFolderPattern(expression, key.getOakPath(), RestrictionMetrics.INSTANCE));
+        return new GuardedPattern(guard, pattern);
+    }
+
+    //-----------------------------------------------------------< Observer >---
+
+    @Override
+    public void contentChanged(NodeState root, CommitInfo info) {
+        BackgroundObserver observer = invalidation;
+        if (observer != null) {
+            observer.contentChanged(root, info);
+        }
+    }
+
+    BoundedCache<PatternKey, RestrictionPattern> getPatternCache() {
+        return patternCache;
+    }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+/**
+ * The supported <code>&lt;property_type&gt;</code> tokens of a rep:hasPropertyValues restriction.
+ */
+enum PropertyValueType {
+    STRING("string"),
+    INT("int"),
+    LONG("long"),
+    DOUBLE("double"),
+    DATE("date");
+
+    private final String token;
+
+    PropertyValueType(String token) {
+        this.token = token;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Return the type corresponding to the given token.
+     *
+     * @param token the token as written in the restriction ("string", "int", "long", "double", "date")
+     * @return the type or null if the token is unknown
+     */
+    static PropertyValueType fromToken(String token) {
+        for (PropertyValueType type : values()) {
+            if (type.token.equals(token)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
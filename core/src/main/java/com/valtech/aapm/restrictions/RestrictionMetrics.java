@@ -0,0 +1,396 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Counters and latencies of the restriction evaluations, per restriction type and per compiled pattern.
+ * <p>
+ * Evaluations run concurrently on every reading thread, so all the values are recorded in striped counters
+ * ({@link LongAdder}) and read without stopping the recording threads: a snapshot taken during an evaluation may
+ * be off by the evaluations in flight. Latencies are kept in a histogram with power of two buckets.
+ * <p>
+ * The statistics are exposed by {@link RestrictionMetricsService}. While it is not active the recording is disabled
+ * and costs a volatile read per evaluation.
+ */
+final class RestrictionMetrics {
+
+    static final RestrictionMetrics INSTANCE = new RestrictionMetrics(false);
+
+    static final int MAX_PATTERNS = 1000;
+
+    private static final String OTHER_PATTERNS = "(other patterns)";
+
+    enum RestrictionType {
+        HAS_PROPERTY_VALUES("rep:hasPropertyValues"),
+        SUB_FOLDER("rep:subFolder");
+
+        private final String restrictionName;
+
+        RestrictionType(String restrictionName) {
+            this.restrictionName = restrictionName;
+        }
+
+        String getRestrictionName() {
+            return restrictionName;
+        }
+    }
+
+    private volatile boolean enabled;
+    private final Map<RestrictionType, Statistics> types = new EnumMap<>(RestrictionType.class);
+    private final Map<RestrictionType, PatternStatistics> otherPatterns = new EnumMap<>(RestrictionType.class);
+    private final Map<String, PatternStatistics> patterns = new ConcurrentHashMap<>();
+    private final Map<String, BoundedCache<?, ?>> caches = new ConcurrentHashMap<>();
+    private final LongAdder invalidationRuns = new LongAdder();
+    private final LongAdder invalidatedDecisions = new LongAdder();
+    private final LongAccumulator maxInvalidationLagMillis = new LongAccumulator(Math::max, 0);
+    private volatile long lastInvalidationLagMillis;
+    private volatile IntSupplier invalidationQueueSize = () -> 0;
+
+    RestrictionMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (RestrictionType type : RestrictionType.values()) {
+            Statistics statistics = new Statistics(type.getRestrictionName());
+            types.put(type, statistics);
+            otherPatterns.put(type, new PatternStatistics(this, statistics, OTHER_PATTERNS));
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Return the statistics of a pattern. Patterns with the same description share their statistics, so that a
+     * pattern compiled again after having been evicted from a pattern cache goes on with the same counters. Past
+     * {@link #MAX_PATTERNS} descriptions, the new patterns of a type share a single entry.
+     *
+     * @param type        the restriction type of the pattern
+     * @param description the restriction and path of the pattern
+     * @return the statistics to record the evaluations of the pattern into
+     */
+    PatternStatistics forPattern(RestrictionType type, String description) {
+        String key = type.getRestrictionName() + " " + description;
+        PatternStatistics statistics = patterns.get(key);
+        if (statistics != null) {
+            return statistics;
+        }
+        if (patterns.size() >= MAX_PATTERNS) {
+            return otherPatterns.get(type);
+        }
+        return patterns.computeIfAbsent(key, k -> new PatternStatistics(this, types.get(type), description));
+    }
+
+    Statistics getStatistics(RestrictionType type) {
+        return types.get(type);
+    }
+
+    /**
+     * @return the statistics of the patterns, the most expensive first
+     */
+    List<Statistics> getPatternStatistics() {
+        return Stream.concat(patterns.values().stream(), otherPatterns.values().stream())
+                .map(PatternStatistics::getStatistics)
+                .filter(statistics -> statistics.getEvaluations() > 0 || statistics.getCacheHits() > 0)
+                .sorted(Comparator.comparingLong(Statistics::getTotalNanos).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Expose the statistics of a cache used by the restriction providers, replacing any cache with the same name.
+     */
+    void registerCache(String name, BoundedCache<?, ?> cache) {
+        caches.put(name, cache);
+    }
+
+    void unregisterCache(String name, BoundedCache<?, ?> cache) {
+        caches.remove(name, cache);
+    }
+
+    Map<String, BoundedCache<?, ?>> getCaches() {
+        return caches;
+    }
+
+    /**
+     * Record an observed change processed by the {@link DecisionCacheInvalidator}.
+     *
+     * @param evicted   the number of evicted decisions
+     * @param lagMillis the time between the commit and its processing, negative if unknown
+     */
+    void recordInvalidation(int evicted, long lagMillis) {
+        invalidationRuns.increment();
+        invalidatedDecisions.add(evicted);
+        if (lagMillis >= 0) {
+            lastInvalidationLagMillis = lagMillis;
+            maxInvalidationLagMillis.accumulate(lagMillis);
+        }
+    }
+
+    /**
+     * Record the compilation of the patterns of the permission store by a {@link PatternWarmUp}.
+     *
+     * @param entries the number of compiled entries
+     * @param millis  the duration of the warm-up
+     */
+    void recordWarmUp(RestrictionType type, int entries, long millis) {
+        Statistics statistics = types.get(type);
+        statistics.warmUpEntries = entries;
+        statistics.warmUpMillis = millis;
+    }
+
+    void setInvalidationQueueSize(IntSupplier queueSize) {
+        invalidationQueueSize = queueSize;
+    }
+
+    long getInvalidationRuns() {
+        return invalidationRuns.sum();
+    }
+
+    long getInvalidatedDecisions() {
+        return invalidatedDecisions.sum();
+    }
+
+    long getLastInvalidationLagMillis() {
+        return lastInvalidationLagMillis;
+    }
+
+    long getMaxInvalidationLagMillis() {
+        return maxInvalidationLagMillis.get();
+    }
+
+    int getInvalidationQueueSize() {
+        return invalidationQueueSize.getAsInt();
+    }
+
+    void reset() {
+        types.values().forEach(Statistics::reset);
+        // reset in place: the compiled patterns keep recording into their statistics
+        otherPatterns.values().forEach(pattern -> pattern.getStatistics().reset());
+        patterns.values().forEach(pattern -> pattern.getStatistics().reset());
+        invalidationRuns.reset();
+        invalidatedDecisions.reset();
+        maxInvalidationLagMillis.reset();
+        lastInvalidationLagMillis = 0;
+    }
+
+    /**
+     * Recording handle held by a compiled pattern: every value is recorded for the pattern and for its restriction
+     * type.
+     */
+    static final class PatternStatistics {
+
+        private final RestrictionMetrics metrics;
+        private final Statistics type;
+        private final Statistics pattern;
+
+        private PatternStatistics(RestrictionMetrics metrics, Statistics type, String description) {
+            this.metrics = metrics;
+            this.type = type;
+            this.pattern = new Statistics(type.getName() + " " + description);
+        }
+
+        /**
+         * @return the start time to pass to {@link #recordEvaluation(long)}, 0 if the recording is disabled
+         */
+        long start() {
+            return metrics.enabled ? System.nanoTime() : 0;
+        }
+
+        void recordEvaluation(long start) {
+            if (start != 0 && metrics.enabled) {
+                long nanos = System.nanoTime() - start;
+                type.recordEvaluation(nanos);
+                pattern.recordEvaluation(nanos);
+            }
+        }
+
+        void recordChildrenScanned(int children) {
+            if (metrics.enabled) {
+                type.childrenScanned.add(children);
+                pattern.childrenScanned.add(children);
+            }
+        }
+
+        void recordMetadataLookup() {
+            if (metrics.enabled) {
+                type.metadataLookups.increment();
+                pattern.metadataLookups.increment();
+            }
+        }
+
+        void recordCacheHit() {
+            if (metrics.enabled) {
+                type.cacheHits.increment();
+                pattern.cacheHits.increment();
+            }
+        }
+
+        void recordBudgetExhausted() {
+            if (metrics.enabled) {
+                type.budgetExhausted.increment();
+                pattern.budgetExhausted.increment();
+            }
+        }
+
+        Statistics getStatistics() {
+            return pattern;
+        }
+    }
+
+    /**
+     * Counters of a restriction type or of a pattern.
+     */
+    static final class Statistics {
+
+        private static final int BUCKETS = Long.SIZE;
+
+        private final String name;
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder childrenScanned = new LongAdder();
+        private final LongAdder metadataLookups = new LongAdder();
+        private final LongAdder cacheHits = new LongAdder();
+        private final LongAdder budgetExhausted = new LongAdder();
+        private final LongAdder[] latencyBuckets = new LongAdder[BUCKETS];
+        private volatile long warmUpEntries;
+        private volatile long warmUpMillis;
+
+        private Statistics(String name) {
+            this.name = name;
+            for (int i = 0; i < BUCKETS; i++) {
+                latencyBuckets[i] = new LongAdder();
+            }
+        }
+
+        private void recordEvaluation(long nanos) {
+            long positiveNanos = Math.max(0, nanos);
+            evaluations.increment();
+            totalNanos.add(positiveNanos);
+            maxNanos.accumulate(positiveNanos);
+            // bucket i holds the latencies in [2^(i-1), 2^i)
+            latencyBuckets[Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(positiveNanos))].increment();
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getEvaluations() {
+            return evaluations.sum();
+        }
+
+        long getTotalNanos() {
+            return totalNanos.sum();
+        }
+
+        long getMeanNanos() {
+            long count = getEvaluations();
+            return count == 0 ? 0 : getTotalNanos() / count;
+        }
+
+        long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        long getChildrenScanned() {
+            return childrenScanned.sum();
+        }
+
+        long getMetadataLookups() {
+            return metadataLookups.sum();
+        }
+
+        long getCacheHits() {
+            return cacheHits.sum();
+        }
+
+        /**
+         * @return the number of folder scans stopped by the evaluation budget
+         */
+        long getBudgetExhausted() {
+            return budgetExhausted.sum();
+        }
+
+        /**
+         * @return the number of entries compiled by the last warm-up of the pattern cache
+         */
+        long getWarmUpEntries() {
+            return warmUpEntries;
+        }
+
+        long getWarmUpMillis() {
+            return warmUpMillis;
+        }
+
+        /**
+         * Return an upper bound of the latency percentile: the upper limit of the histogram bucket holding it.
+         *
+         * @param percentile the percentile, between 0 and 1
+         * @return the latency in nanoseconds, 0 if nothing was recorded
+         */
+        long getLatencyPercentileNanos(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = latencyBuckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return (1L << i) - 1;
+                }
+            }
+            return getMaxNanos();
+        }
+
+        private void reset() {
+            evaluations.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            childrenScanned.reset();
+            metadataLookups.reset();
+            cacheHits.reset();
+            budgetExhausted.reset();
+            for (LongAdder bucket : latencyBuckets) {
+                bucket.reset();
+            }
+        }
+    }
+}
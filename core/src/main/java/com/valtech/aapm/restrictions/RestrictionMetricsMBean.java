@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * Cost of the AAPM restriction evaluations. The latencies are in nanoseconds; percentiles are upper bounds taken
+ * from a histogram with power of two buckets.
+ */
+public interface RestrictionMetricsMBean {
+
+    String OBJECT_NAME = "com.valtech.aapm:type=RestrictionMetrics";
+
+    boolean isEnabled();
+
+    /**
+     * @return one row per restriction type
+     */
+    TabularData getRestrictionStatistics();
+
+    /**
+     * @return one row per compiled pattern, the most expensive first
+     */
+    TabularData getPatternStatistics();
+
+    /**
+     * @return one row per cache of the restriction providers
+     */
+    TabularData getCacheStatistics();
+
+    /**
+     * @return the number of changes processed by the decision cache invalidation
+     */
+    long getInvalidationRuns();
+
+    long getInvalidatedDecisions();
+
+    /**
+     * @return the time between the last local commit and the eviction of its decisions, in milliseconds
+     */
+    long getInvalidationLagMillis();
+
+    long getMaxInvalidationLagMillis();
+
+    /**
+     * @return the number of changes waiting for the decision cache invalidation
+     */
+    int getInvalidationQueueSize();
+
+    void reset();
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+
+import javax.management.DynamicMBean;
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Enables the recording of the {@link RestrictionMetrics} and exposes them as a JMX MBean and, when available, as
+ * gauges of the Sling metrics registry.
+ */
+@Component(service = DynamicMBean.class, immediate = true,
+        property = "jmx.objectname=" + RestrictionMetricsMBean.OBJECT_NAME)
+@Designate(ocd = RestrictionMetricsService.Config.class)
+public class RestrictionMetricsService extends StandardMBean implements RestrictionMetricsMBean {
+
+    @ObjectClassDefinition(name = "AAPM restriction metrics",
+            description = "Records the count and latency of the AAPM restriction evaluations.")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Enabled",
+                description = "Record the evaluations. Disabling it removes the cost of the measurement.")
+        boolean enabled() default true;
+    }
+
+    static final String METRIC_PREFIX = "aapm.restrictions";
+
+    private static final String[] ITEM_NAMES = {"name", "evaluations", "meanNanos", "p50Nanos", "p99Nanos",
+            "maxNanos", "childrenScanned", "metadataLookups", "cacheHits", "budgetExhausted", "warmUpEntries",
+            "warmUpMillis"};
+    private static final String[] CACHE_ITEM_NAMES = {"name", "size", "capacity", "hits", "misses", "evictions",
+            "invalidations"};
+    private static final CompositeType ROW_TYPE;
+    private static final TabularType TABLE_TYPE;
+    private static final CompositeType CACHE_ROW_TYPE;
+    private static final TabularType CACHE_TABLE_TYPE;
+
+    static {
+        try {
+            OpenType<?>[] itemTypes = new OpenType<?>[ITEM_NAMES.length];
+            itemTypes[0] = SimpleType.STRING;
+            for (int i = 1; i < itemTypes.length; i++) {
+                itemTypes[i] = SimpleType.LONG;
+            }
+            ROW_TYPE = new CompositeType("RestrictionStatistics", "Restriction evaluation statistics",
+                    ITEM_NAMES, ITEM_NAMES, itemTypes);
+            TABLE_TYPE = new TabularType("RestrictionStatisticsTable", "Restriction evaluation statistics",
+                    ROW_TYPE, new String[]{"name"});
+            OpenType<?>[] cacheItemTypes = new OpenType<?>[CACHE_ITEM_NAMES.length];
+            cacheItemTypes[0] = SimpleType.STRING;
+            for (int i = 1; i < cacheItemTypes.length; i++) {
+                cacheItemTypes[i] = SimpleType.LONG;
+            }
+            CACHE_ROW_TYPE = new CompositeType("RestrictionCacheStatistics", "Restriction cache statistics",
+                    CACHE_ITEM_NAMES, CACHE_ITEM_NAMES, cacheItemTypes);
+            CACHE_TABLE_TYPE = new TabularType("RestrictionCacheStatisticsTable", "Restriction cache statistics",
+                    CACHE_ROW_TYPE, new String[]{"name"});
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final RestrictionMetrics metrics;
+    private final List<String> registeredGauges = new ArrayList<>();
+    private MetricRegistry metricRegistry;
+
+    public RestrictionMetricsService() throws NotCompliantMBeanException {
+        this(RestrictionMetrics.INSTANCE);
+    }
+
+    RestrictionMetricsService(RestrictionMetrics metrics) throws NotCompliantMBeanException {
+        super(RestrictionMetricsMBean.class);
+        this.metrics = metrics;
+    }
+
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        metrics.setEnabled(config.enabled());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        metrics.setEnabled(false);
+    }
+
+    @Reference(target = "(name=sling)", cardinality = ReferenceCardinality.OPTIONAL,
+            policy = ReferencePolicy.DYNAMIC, policyOption = ReferencePolicyOption.GREEDY,
+            unbind = "unbindMetricRegistry")
+    protected synchronized void bindMetricRegistry(MetricRegistry registry) {
+        metricRegistry = registry;
+        for (RestrictionMetrics.RestrictionType type : RestrictionMetrics.RestrictionType.values()) {
+            RestrictionMetrics.Statistics statistics = metrics.getStatistics(type);
+            registerGauge(type, "evaluations", statistics, RestrictionMetrics.Statistics::getEvaluations);
+            registerGauge(type, "meanNanos", statistics, RestrictionMetrics.Statistics::getMeanNanos);
+            registerGauge(type, "p99Nanos", statistics, s -> s.getLatencyPercentileNanos(0.99));
+            registerGauge(type, "childrenScanned", statistics, RestrictionMetrics.Statistics::getChildrenScanned);
+            registerGauge(type, "metadataLookups", statistics, RestrictionMetrics.Statistics::getMetadataLookups);
+            registerGauge(type, "cacheHits", statistics, RestrictionMetrics.Statistics::getCacheHits);
+            registerGauge(type, "budgetExhausted", statistics, RestrictionMetrics.Statistics::getBudgetExhausted);
+            registerGauge(type, "warmUpEntries", statistics, RestrictionMetrics.Statistics::getWarmUpEntries);
+            registerGauge(type, "warmUpMillis", statistics, RestrictionMetrics.Statistics::getWarmUpMillis);
+        }
+        registerGauge("invalidation.queueSize", metrics::getInvalidationQueueSize);
+        registerGauge("invalidation.lagMillis", metrics::getLastInvalidationLagMillis);
+        registerGauge("invalidation.evicted", metrics::getInvalidatedDecisions);
+    }
+
+    protected synchronized void unbindMetricRegistry(MetricRegistry registry) {
+        if (metricRegistry != registry) {
+            return;
+        }
+        registeredGauges.forEach(registry::remove);
+        registeredGauges.clear();
+        metricRegistry = null;
+    }
+
+    private void registerGauge(RestrictionMetrics.RestrictionType type, String metric,
+                               RestrictionMetrics.Statistics statistics,
+                               ToLongFunction<RestrictionMetrics.Statistics> value) {
+        String name = MetricRegistry.name(METRIC_PREFIX, type.getRestrictionName(), metric);
+        metricRegistry.register(name, (Gauge<Long>) () -> value.applyAsLong(statistics));
+        registeredGauges.add(name);
+    }
+
+    private <T extends Number> void registerGauge(String metric, Supplier<T> value) {
+        String name = MetricRegistry.name(METRIC_PREFIX, metric);
+        metricRegistry.register(name, (Gauge<T>) value::get);
+        registeredGauges.add(name);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return metrics.isEnabled();
+    }
+
+    @Override
+    public TabularData getRestrictionStatistics() {
+        List<RestrictionMetrics.Statistics> rows = new ArrayList<>();
+        for (RestrictionMetrics.RestrictionType type : RestrictionMetrics.RestrictionType.values()) {
+            rows.add(metrics.getStatistics(type));
+        }
+        return toTable(rows);
+    }
+
+    @Override
+    public TabularData getPatternStatistics() {
+        return toTable(metrics.getPatternStatistics());
+    }
+
+    @Override
+    public TabularData getCacheStatistics() {
+        TabularDataSupport table = new TabularDataSupport(CACHE_TABLE_TYPE);
+        try {
+            for (Map.Entry<String, BoundedCache<?, ?>> entry : new TreeMap<>(metrics.getCaches()).entrySet()) {
+                BoundedCache<?, ?> cache = entry.getValue();
+                table.put(new CompositeDataSupport(CACHE_ROW_TYPE, CACHE_ITEM_NAMES, new Object[]{
+                        entry.getKey(),
+                        (long) cache.size(),
+                        (long) cache.getCapacity(),
+                        cache.getHitCount(),
+                        cache.getMissCount(),
+                        cache.getEvictionCount(),
+                        cache.getInvalidationCount()}));
+            }
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+        return table;
+    }
+
+    @Override
+    public long getInvalidationRuns() {
+        return metrics.getInvalidationRuns();
+    }
+
+    @Override
+    public long getInvalidatedDecisions() {
+        return metrics.getInvalidatedDecisions();
+    }
+
+    @Override
+    public long getInvalidationLagMillis() {
+        return metrics.getLastInvalidationLagMillis();
+    }
+
+    @Override
+    public long getMaxInvalidationLagMillis() {
+        return metrics.getMaxInvalidationLagMillis();
+    }
+
+    @Override
+    public int getInvalidationQueueSize() {
+        return metrics.getInvalidationQueueSize();
+    }
+
+    @Override
+    public void reset() {
+        metrics.reset();
+    }
+
+    private static TabularData toTable(List<RestrictionMetrics.Statistics> rows) {
+        TabularDataSupport table = new TabularDataSupport(TABLE_TYPE);
+        try {
+            for (RestrictionMetrics.Statistics row : rows) {
+                table.put(new CompositeDataSupport(ROW_TYPE, ITEM_NAMES, new Object[]{
+                        row.getName(),
+                        row.getEvaluations(),
+                        row.getMeanNanos(),
+                        row.getLatencyPercentileNanos(0.5),
+                        row.getLatencyPercentileNanos(0.99),
+                        row.getMaxNanos(),
+                        row.getChildrenScanned(),
+                        row.getMetadataLookups(),
+                        row.getCacheHits(),
+                        row.getBudgetExhausted(),
+                        row.getWarmUpEntries(),
+                        row.getWarmUpMillis()}));
+            }
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pre-tokenised form of the restrictions: a multi-valued string property holding one part of the restriction per
+ * value, so that it is read without being parsed.
+ * <p>
+ * The first value is the version of the encoding. Version 1 holds, for rep:hasPropertyValuesTokens:
+ * <pre>
+ * 1, &lt;allow|deny&gt;, &lt;!|&gt;, &lt;property_type&gt;, &lt;property_name&gt;, &lt;operator&gt;, &lt;value&gt;[, &lt;value&gt;...]
+ * </pre>
+ * and for rep:subFolderTokens:
+ * <pre>
+ * 1, &lt;allow|deny&gt;, &lt;!|&gt;, &lt;operator&gt;, &lt;level&gt;
+ * </pre>
+ * where &lt;operator&gt; is the name of one of the {@link Operators}, e.g. GREATER_THAN_EQUALS.
+ */
+final class RestrictionTokens {
+
+    static final String VERSION = "1";
+
+    private static final String ALLOW = "allow";
+    private static final String DENY = "deny";
+    private static final String NEGATE = "!";
+
+    private static final int PERMISSION = 1;
+    private static final int NEGATION = 2;
+    private static final int PROPERTY_TYPE = 3;
+    private static final int PROPERTY_NAME = 4;
+    private static final int PROPERTY_OPERATOR = 5;
+    private static final int FIRST_VALUE = 6;
+    private static final int LEVEL_OPERATOR = 3;
+    private static final int LEVEL = 4;
+
+    private RestrictionTokens() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the restriction combines several clauses, which have no pre-tokenised form
+     */
+    static List<String> encode(HasPropertyValuesExpression expression) {
+        if (expression.isBoolean()) {
+            throw new IllegalArgumentException("Boolean restriction '" + expression + "' has no pre-tokenised form");
+        }
+        List<String> tokens = new ArrayList<>(FIRST_VALUE + expression.getValues().size());
+        tokens.add(VERSION);
+        tokens.add(expression.isDeny() ? DENY : ALLOW);
+        tokens.add(expression.isNegate() ? NEGATE : "");
+        tokens.add(expression.getPropertyType().getToken());
+        tokens.add(expression.getPropertyName());
+        tokens.add(expression.getOperator().name());
+        tokens.addAll(expression.getValues());
+        return tokens;
+    }
+
+    static List<String> encode(SubFolderExpression expression) {
+        return List.of(VERSION, expression.isDeny() ? DENY : ALLOW, expression.isNegate() ? NEGATE : "",
+                expression.getOperator().name(), String.valueOf(expression.getLevel()));
+    }
+
+    /**
+     * @param property the rep:hasPropertyValuesTokens property
+     * @param clock    the clock resolving the "today" dates
+     * @throws IllegalArgumentException if the property is not a valid encoding
+     */
+    static HasPropertyValuesExpression decodeHasPropertyValues(PropertyState property, CoarseClock clock) {
+        int count = checkHeader(property, FIRST_VALUE + 1);
+        PropertyValueType propertyType = PropertyValueType.fromToken(token(property, PROPERTY_TYPE));
+        if (propertyType == null) {
+            throw invalid(property, "unknown property type '" + token(property, PROPERTY_TYPE) + "'");
+        }
+        List<String> values = new ArrayList<>(count - FIRST_VALUE);
+        for (int i = FIRST_VALUE; i < count; i++) {
+            values.add(token(property, i));
+        }
+        return HasPropertyValuesExpression.of(isDeny(property), propertyType, isNegate(property),
+                token(property, PROPERTY_NAME), operator(property, PROPERTY_OPERATOR), values, clock);
+    }
+
+    /**
+     * @param property the rep:subFolderTokens property
+     * @throws IllegalArgumentException if the property is not a valid encoding
+     */
+    static SubFolderExpression decodeSubFolder(PropertyState property) {
+        if (checkHeader(property, LEVEL + 1) != LEVEL + 1) {
+            throw invalid(property, "expected " + (LEVEL + 1) + " values");
+        }
+        int level;
+        try {
+            level = Integer.parseInt(token(property, LEVEL));
+        } catch (NumberFormatException e) {
+            throw invalid(property, "level '" + token(property, LEVEL) + "' is not an integer");
+        }
+        return SubFolderExpression.of(isDeny(property), isNegate(property), operator(property, LEVEL_OPERATOR), level);
+    }
+
+    /**
+     * @return the number of values of the property
+     */
+    private static int checkHeader(PropertyState property, int minCount) {
+        if (!property.isArray()) {
+            throw invalid(property, "expected a multi-valued property");
+        }
+        int count = property.count();
+        if (count == 0 || !VERSION.equals(token(property, 0))) {
+            throw invalid(property, "unsupported version");
+        }
+        if (count < minCount) {
+            throw invalid(property, "expected at least " + minCount + " values");
+        }
+        return count;
+    }
+
+    private static boolean isDeny(PropertyState property) {
+        String permissionType = token(property, PERMISSION);
+        if (DENY.equals(permissionType)) {
+            return true;
+        }
+        if (ALLOW.equals(permissionType)) {
+            return false;
+        }
+        throw invalid(property, "unknown permission type '" + permissionType + "'");
+    }
+
+    private static boolean isNegate(PropertyState property) {
+        String negation = token(property, NEGATION);
+        if (negation.isEmpty() || NEGATE.equals(negation)) {
+            return !negation.isEmpty();
+        }
+        throw invalid(property, "unknown negation '" + negation + "'");
+    }
+
+    private static Operators operator(PropertyState property, int index) {
+        String operator = token(property, index);
+        for (Operators candidate : Operators.values()) {
+            if (candidate.name().equals(operator)) {
+                return candidate;
+            }
+        }
+        throw invalid(property, "unknown operator '" + operator + "'");
+    }
+
+    private static String token(PropertyState property, int index) {
+        return property.getValue(Type.STRING, index);
+    }
+
+    private static IllegalArgumentException invalid(PropertyState property, String reason) {
+        return new IllegalArgumentException("Invalid " + property.getName() + " restriction "
+                + property.getValue(Type.STRINGS) + ": " + reason);
+    }
+}
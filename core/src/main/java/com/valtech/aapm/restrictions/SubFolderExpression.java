@@ -0,0 +1,175 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import java.util.Objects;
+
+/**
+ * Compiled, immutable form of a rep:subFolder restriction value.
+ * <p>
+ * The restriction string is parsed once with the following grammar:
+ * <pre>
+ * &lt;allow|deny&gt;[_!]&lt;operator&gt;&lt;level&gt;
+ * </pre>
+ * where &lt;operator&gt; is one of the {@link Operators} tokens, directly followed by the level, a positive integer or
+ * 0. Anything else is rejected, instead of being read as "_EQUALS_" or failing with an index or number error.
+ */
+final class SubFolderExpression {
+
+    private static final String ALLOW = "allow";
+    private static final String DENY = "deny";
+    private static final char SEPARATOR = '_';
+    private static final String NEGATE = "_!";
+
+    private final boolean deny;
+    private final boolean negate;
+    private final Operators operator;
+    private final int level;
+
+    private SubFolderExpression(boolean deny, boolean negate, Operators operator, int level) {
+        this.deny = deny;
+        this.negate = negate;
+        this.operator = operator;
+        this.level = level;
+    }
+
+    /**
+     * Compile a rep:subFolder restriction value.
+     *
+     * @param restriction the restriction value, e.g. allow_GREATER_THAN_EQUALS_2
+     * @return the compiled expression
+     * @throws IllegalArgumentException if the restriction does not follow the grammar
+     */
+    static SubFolderExpression compile(String restriction) {
+        if (restriction == null) {
+            throw new IllegalArgumentException("Restriction must not be null");
+        }
+        int permissionEnd = restriction.indexOf(SEPARATOR);
+        if (permissionEnd < 0) {
+            throw invalid(restriction, "missing operator");
+        }
+        String permissionType = restriction.substring(0, permissionEnd);
+        boolean deny;
+        if (DENY.equalsIgnoreCase(permissionType)) {
+            deny = true;
+        } else if (ALLOW.equalsIgnoreCase(permissionType)) {
+            deny = false;
+        } else {
+            throw invalid(restriction, "unknown permission type '" + permissionType + "'");
+        }
+
+        int operatorStart = permissionEnd;
+        boolean negate = restriction.startsWith(NEGATE, operatorStart);
+        if (negate) {
+            operatorStart += NEGATE.length();
+        }
+        Operators operator = null;
+        for (Operators candidate : Operators.values()) {
+            if (restriction.startsWith(candidate.getValue(), operatorStart)) {
+                operator = candidate;
+                break;
+            }
+        }
+        if (operator == null) {
+            throw invalid(restriction, "missing operator");
+        }
+        if (operator == Operators.UNDER) {
+            throw invalid(restriction, "operator " + operator.getValue() + " is not supported");
+        }
+
+        String level = restriction.substring(operatorStart + operator.getValue().length());
+        if (level.isEmpty()) {
+            throw invalid(restriction, "missing level");
+        }
+        for (int i = 0; i < level.length(); i++) {
+            if (level.charAt(i) < '0' || level.charAt(i) > '9') {
+                throw invalid(restriction, "level '" + level + "' is not a positive integer");
+            }
+        }
+        try {
+            return new SubFolderExpression(deny, negate, operator, Integer.parseInt(level));
+        } catch (NumberFormatException e) {
+            throw invalid(restriction, "level '" + level + "' is too large");
+        }
+    }
+
+    /**
+     * Build an expression from its parts, already tokenised.
+     *
+     * @throws IllegalArgumentException if the level is negative
+     */
+    static SubFolderExpression of(boolean deny, boolean negate, Operators operator, int level) {
+        SubFolderExpression expression = new SubFolderExpression(deny, negate, operator, level);
+        if (level < 0) {
+            throw invalid(expression.toString(), "level '" + level + "' is not a positive integer");
+        }
+        if (operator == Operators.UNDER) {
+            throw invalid(expression.toString(), "operator " + operator.getValue() + " is not supported");
+        }
+        return expression;
+    }
+
+    private static IllegalArgumentException invalid(String restriction, String reason) {
+        return new IllegalArgumentException("Invalid rep:subFolder restriction '" + restriction + "': " + reason);
+    }
+
+    boolean isDeny() {
+        return deny;
+    }
+
+    boolean isNegate() {
+        return negate;
+    }
+
+    Operators getOperator() {
+        return operator;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof SubFolderExpression)) {
+            return false;
+        }
+        SubFolderExpression c = (SubFolderExpression) o;
+        return deny == c.deny
+                && negate == c.negate
+                && operator == c.operator
+                && level == c.level;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deny, negate, operator, level);
+    }
+
+    /**
+     * @return the canonical form of the restriction
+     */
+    @Override
+    public String toString() {
+        return (deny ? DENY : ALLOW) + (negate ? NEGATE : "") + operator.getValue() + level;
+    }
+}
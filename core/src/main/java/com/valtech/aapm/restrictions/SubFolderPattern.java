@@ -18,75 +18,96 @@
  */
 package com.valtech.aapm.restrictions;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
-
-import java.util.List;
-import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class SubFolderPattern implements RestrictionPattern {
+    private static final Logger LOG = LoggerFactory.getLogger(SubFolderPattern.class);
+
     private final String originalTree;
-    private final Integer level;
-    private final String permissionType;
-    private static final String DENY = "deny";
-    List<String> operators = List.of(Operators.EQUALS.getValue(), Operators.GREATER_THAN_EQUALS.getValue(),
-            Operators.LESS_THAN_EQUALS.getValue(), Operators.GREATER_THEN.getValue(), Operators.LESS_THEN.getValue());
-    private String operator = operators.get(0);
+    private final SubFolderExpression expression;
+    private final int level;
+    private final boolean deny;
     private final boolean negate;
+    private final Operators levelOperator;
+    private final String[] originalTreeSegments;
+    private final RestrictionMetrics.PatternStatistics statistics;
 
     SubFolderPattern(String propertyValues, String originalTree) {
+        this(propertyValues, originalTree, RestrictionMetrics.INSTANCE);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the restriction does not follow the grammar of {@link SubFolderExpression}
+     */
+    SubFolderPattern(String propertyValues, String originalTree, RestrictionMetrics metrics) {
+        this(SubFolderExpression.compile(propertyValues), originalTree, metrics);
+    }
+
+    SubFolderPattern(SubFolderExpression expression, String originalTree, RestrictionMetrics metrics) {
         this.originalTree = originalTree;
-        permissionType = propertyValues.split("_")[0];
-        String propertyValuesWithoutPermissionType = StringUtils.removeStart(propertyValues, permissionType);
-        if (propertyValuesWithoutPermissionType.startsWith("!")) {
-            negate = true;
-        } else {
-            negate = false;
-        }
-        for (int i = 0; i < operators.size(); i++) {
-            if (propertyValuesWithoutPermissionType.contains(operators.get(i))) {
-                operator = operators.get(i);
-            }
-        }
-        String sLevel = propertyValuesWithoutPermissionType.split(operator)[1];
-        level = Integer.valueOf(sLevel);
+        this.expression = expression;
+        this.statistics = metrics.forPattern(RestrictionMetrics.RestrictionType.SUB_FOLDER,
+                expression + " on " + originalTree);
+        deny = expression.isDeny();
+        negate = expression.isNegate();
+        levelOperator = expression.getOperator();
+        level = expression.getLevel();
+        originalTreeSegments = originalTree == null ? null : segments(originalTree);
     }
 
     static RestrictionPattern create(PropertyState stringProperty, String originalTree) {
         if (stringProperty.count() == 1) {
-            return new SubFolderPattern(stringProperty.getValue(Type.STRING), originalTree);
+            return create(stringProperty.getValue(Type.STRING), originalTree);
         } else {
             return RestrictionPattern.EMPTY;
         }
     }
 
-    @Override
-    public boolean matches(Tree tree, PropertyState propertyState) {
-        if (isRuleToApplyADeny()) {
-            return denyMatch(tree);
-        }
-        if (isRuleToApplyAnAllow()) {
-            return isMatch(tree);
-        }
-        return false;
+    static RestrictionPattern create(String propertyValues, String originalTree) {
+        return create(propertyValues, originalTree, RestrictionMetrics.INSTANCE);
     }
 
-
-
-    private boolean isRuleToApplyAnAllow() {
-        return !isRuleToApplyADeny();
+    static RestrictionPattern create(String propertyValues, String originalTree, RestrictionMetrics metrics) {
+        try {
+            return new SubFolderPattern(propertyValues, originalTree, metrics);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid restriction defined on {}, failing closed: {}", originalTree, e.getMessage());
+            return FailClosedPattern.of(propertyValues);
+        }
     }
 
-    private boolean isRuleToApplyADeny() {
-        return DENY.equalsIgnoreCase(permissionType);
+    @Override
+    public boolean matches(Tree tree, PropertyState propertyState) {
+        long start = statistics.start();
+        boolean match = evaluate(descentLevel(tree));
+        statistics.recordEvaluation(start);
+        return match;
     }
 
+    /**
+     * The level only depends on the path, so non-existing items are evaluated like trees. The path is evaluated as
+     * the path of a node: a property is evaluated at the level of its node by {@link #matches(String, boolean)}, like
+     * {@link #matches(Tree, PropertyState)} does.
+     */
     @Override
     public boolean matches(String path) {
-        return matches();
+        return matches(path, false);
+    }
+
+    @Override
+    public boolean matches(String path, boolean isProperty) {
+        if (path == null) {
+            return false;
+        }
+        long start = statistics.start();
+        boolean match = evaluate(descentLevel(isProperty ? parentPath(path) : path));
+        statistics.recordEvaluation(start);
+        return match;
     }
 
     @Override
@@ -94,13 +115,61 @@ public class SubFolderPattern implements RestrictionPattern {
         return false;
     }
 
-    private boolean denyMatch(Tree tree) {
-        boolean match = isMatch(tree);
+    private boolean evaluate(long descentLevel) {
+        if (deny) {
+            return denyMatch(descentLevel);
+        }
+        return isMatch(descentLevel);
+    }
+
+    private boolean denyMatch(long descentLevel) {
+        boolean match = isMatch(descentLevel);
         return negate != match;
     }
 
-    private boolean isMatch(Tree tree) {
-        return isRequiredLevel(originalTree,level,tree,operator);
+    private boolean isMatch(long descentLevel) {
+        if (originalTree == null || level < 0) {
+            return false;
+        }
+        return isRequiredLevel(descentLevel, level, levelOperator);
+    }
+
+    /**
+     * Return the number of levels between the restricted path and the tree, or -1 if the tree is not the restricted
+     * node or one of its descendants.
+     * The ancestors of the tree are visited once to get its depth, then the ancestor at the depth of the restricted
+     * path is compared segment by segment with the restricted path: no path is built.
+     */
+    private long descentLevel(Tree tree) {
+        if (originalTreeSegments == null) {
+            return -1;
+        }
+        int depth = 0;
+        for (Tree current = tree; !current.isRoot(); current = current.getParent()) {
+            depth++;
+        }
+        int descentLevel = depth - originalTreeSegments.length;
+        if (descentLevel < 0) {
+            return -1;
+        }
+        Tree ancestor = tree;
+        for (int i = 0; i < descentLevel; i++) {
+            ancestor = ancestor.getParent();
+        }
+        for (int i = originalTreeSegments.length - 1; i >= 0; i--) {
+            if (!originalTreeSegments[i].equals(ancestor.getName())) {
+                return -1;
+            }
+            ancestor = ancestor.getParent();
+        }
+        return descentLevel;
+    }
+
+    private long descentLevel(String path) {
+        if (originalTreeSegments == null || !isDescendant(originalTree, path)) {
+            return -1;
+        }
+        return depth(path) - originalTreeSegments.length;
     }
 
     /**
@@ -116,43 +185,50 @@ public class SubFolderPattern implements RestrictionPattern {
         if (oakPath == null || triggeredTree == null || level < 0) {
             return false;
         }
-        long descentLevel = -1;
-        // Check if the operator requires the descent level to be calculated
-        if (operator.equals(Operators.EQUALS.getValue()) || operator.equals(Operators.GREATER_THAN_EQUALS.getValue())
-                || operator.equals(Operators.GREATER_THEN.getValue()) || operator.equals(Operators.LESS_THAN_EQUALS.getValue())
-                || operator.equals(Operators.LESS_THEN.getValue())) {
-            descentLevel = countDescentLevel(oakPath, triggeredTree.getPath());
-        }
+        return isRequiredLevel(countDescentLevel(oakPath, triggeredTree.getPath()), level, toOperator(operator));
+    }
+
+    private static boolean isRequiredLevel(long descentLevel, int level, Operators operator) {
         // Evaluate the condition based on the operator and level values
         switch (operator) {
-            case "_EQUALS_":
+            case EQUALS:
                 return descentLevel == level;
-            case "_GREATER_THAN_EQUALS_":
+            case GREATER_THAN_EQUALS:
                 return descentLevel >= level;
-            case "_GREATER_THEN_":
+            case GREATER_THEN:
                 return descentLevel > level;
-            case "_LESS_THAN_EQUALS_":
+            case LESS_THAN_EQUALS:
                 return descentLevel > 0 && descentLevel <= level;
-            case "_LESS_THEN_":
+            case LESS_THEN:
                 return descentLevel > 0 && descentLevel < level;
             default:
                 throw new IllegalArgumentException("Invalid operator: " + operator);
         }
     }
 
+    private static Operators toOperator(String operator) {
+        for (Operators candidate : Operators.values()) {
+            if (candidate.getValue().equals(operator)) {
+                return candidate;
+            }
+        }
+        throw new IllegalArgumentException("Invalid operator: " + operator);
+    }
+
 
     /**
      * isTriggeredPathADescendant : Check if oakPath can be the parent of triggeredPath
      *
      * Example :  oakPath = /content/dam/public and triggeredPath = /content/dam/public/test.png must return  true
      * Example :  oakPath = /content/dam/public and triggeredPath = /content/dam/private/test.png must return false
+     * Example :  oakPath = /content/dam/public and triggeredPath = /content/dam/public2/test.png must return false
      *
      * @param oakPath
      * @param triggeredPath
      * @return
      */
     public boolean isTriggeredPathADescendant(String oakPath, String triggeredPath){
-        return triggeredPath.startsWith(oakPath);
+        return isDescendant(oakPath, triggeredPath);
     }
 
     /**
@@ -167,12 +243,51 @@ public class SubFolderPattern implements RestrictionPattern {
      */
 
     public long countDescentLevel(String oakPath, String triggeredPath) {
-        if (isTriggeredPathADescendant(oakPath, triggeredPath)) {
-            return  IntStream.range(oakPath.length(), triggeredPath.length())
-                    .filter(i -> triggeredPath.charAt(i) == '/')
-                    .count();
+        if (isDescendant(oakPath, triggeredPath)) {
+            return depth(triggeredPath) - depth(oakPath);
         } else {
             return -1L;
         }
     }
+
+    /**
+     * Return true if the path is the ancestor path itself or one of its descendants, comparing whole segments.
+     */
+    private static boolean isDescendant(String ancestorPath, String path) {
+        if (!path.startsWith(ancestorPath)) {
+            return false;
+        }
+        int length = ancestorPath.length();
+        return path.length() == length || ancestorPath.endsWith("/") || path.charAt(length) == '/';
+    }
+
+    private static String parentPath(String path) {
+        int index = path.lastIndexOf('/');
+        return index <= 0 ? "/" : path.substring(0, index);
+    }
+
+    private static String[] segments(String path) {
+        return path.length() <= 1 ? new String[0] : path.substring(1).split("/");
+    }
+
+    /**
+     * Return the number of segments of an absolute path, 0 for the root.
+     */
+    private static int depth(String path) {
+        if (path.length() <= 1) {
+            return 0;
+        }
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    @Override
+    public String toString() {
+        return expression + " on " + originalTree;
+    }
 }
@@ -22,24 +22,110 @@ import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.*;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.security.AccessControlException;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 @Component(service = RestrictionProvider.class, immediate = true)
+@Designate(ocd = SubFolderRestrictionProvider.Config.class)
 public class SubFolderRestrictionProvider extends AbstractRestrictionProvider {
 
-    private static final String REP_SUB_FOLDER = "rep:subFolder";
+    @ObjectClassDefinition(name = "AAPM rep:subFolder restriction provider")
+    public @interface Config {
+
+        @AttributeDefinition(name = "Pattern cache size",
+                description = "Maximum number of compiled patterns shared between permission entries with the same "
+                        + "restriction and path. 0 disables the cache.")
+        int patternCacheSize() default DEFAULT_PATTERN_CACHE_SIZE;
+
+        @AttributeDefinition(name = "Pattern cache warm-up",
+                description = "Compile in the background the restrictions stored in the permission store when the "
+                        + "provider is activated, so that the first requests find them in the pattern cache.")
+        boolean patternCacheWarmUp() default false;
+    }
+
+    static final int DEFAULT_PATTERN_CACHE_SIZE = 10000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SubFolderRestrictionProvider.class);
+
+    static final String REP_SUB_FOLDER = "rep:subFolder";
+    static final String REP_SUB_FOLDER_TOKENS = "rep:subFolderTokens";
+
+    static final String PATTERN_CACHE_NAME = REP_SUB_FOLDER + " patterns";
+
+    private volatile BoundedCache<PatternKey, RestrictionPattern> patternCache =
+            new BoundedCache<>(DEFAULT_PATTERN_CACHE_SIZE, PatternKey::estimateFootprint);
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policyOption = ReferencePolicyOption.GREEDY)
+    private NodeStore nodeStore;
+
+    private volatile PatternWarmUp warmUp;
 
     public SubFolderRestrictionProvider() {
         super(supportedRestrictions());
     }
 
+    @Activate
+    @Modified
+    protected void activate(Config config) {
+        patternCache = new BoundedCache<>(config.patternCacheSize(), PatternKey::estimateFootprint);
+        RestrictionMetrics.INSTANCE.registerCache(PATTERN_CACHE_NAME, patternCache);
+        stopWarmUp();
+        if (config.patternCacheWarmUp()) {
+            startWarmUp();
+        }
+    }
+
+    private void startWarmUp() {
+        NodeStore store = nodeStore;
+        if (store == null || patternCache.getCapacity() == 0) {
+            LOG.info("Pattern cache warm-up skipped: {}", store == null ? "no node store" : "the cache is disabled");
+            return;
+        }
+        PatternWarmUp patternWarmUp = new PatternWarmUp(RestrictionMetrics.RestrictionType.SUB_FOLDER,
+                List.of(REP_SUB_FOLDER, REP_SUB_FOLDER_TOKENS), this::createPattern,
+                patternCache.getCapacity(), RestrictionMetrics.INSTANCE);
+        patternWarmUp.start(store);
+        warmUp = patternWarmUp;
+    }
+
+    private void stopWarmUp() {
+        PatternWarmUp patternWarmUp = warmUp;
+        warmUp = null;
+        if (patternWarmUp != null) {
+            patternWarmUp.stop();
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        stopWarmUp();
+        LOG.info("Pattern cache statistics: {}, estimated footprint={} bytes", patternCache, patternCache.getEstimatedFootprint());
+        RestrictionMetrics.INSTANCE.unregisterCache(PATTERN_CACHE_NAME, patternCache);
+        patternCache.clear();
+    }
+
     private static Map<String, RestrictionDefinition> supportedRestrictions() {
         RestrictionDefinition propertyValue = new RestrictionDefinitionImpl(REP_SUB_FOLDER, Type.STRING, false);
-        return Collections.singletonMap(propertyValue.getName(), propertyValue);
+        RestrictionDefinition tokens = new RestrictionDefinitionImpl(REP_SUB_FOLDER_TOKENS, Type.STRINGS, false);
+        return Map.of(propertyValue.getName(), propertyValue, tokens.getName(), tokens);
     }
 
     //------------------------------------------------< RestrictionProvider >---
@@ -48,8 +134,11 @@ public class SubFolderRestrictionProvider extends AbstractRestrictionProvider {
     public RestrictionPattern getPattern(String oakPath, Tree tree) {
         if (oakPath != null) {
             PropertyState property = tree.getProperty(REP_SUB_FOLDER);
+            if (property == null) {
+                property = tree.getProperty(REP_SUB_FOLDER_TOKENS);
+            }
             if (property != null) {
-                return SubFolderPattern.create(property, oakPath);
+                return createPattern(property, oakPath);
             }
         }
         return RestrictionPattern.EMPTY;
@@ -60,12 +149,122 @@ public class SubFolderRestrictionProvider extends AbstractRestrictionProvider {
         if (oakPath != null) {
             for (Restriction r : restrictions) {
                 String name = r.getDefinition().getName();
-                if (REP_SUB_FOLDER.equals(name)) {
-                    return SubFolderPattern.create(r.getProperty(), oakPath);
+                if (REP_SUB_FOLDER.equals(name) || REP_SUB_FOLDER_TOKENS.equals(name)) {
+                    return createPattern(r.getProperty(), oakPath);
                 }
             }
         }
         return RestrictionPattern.EMPTY;
     }
 
+    /**
+     * Reject an invalid restriction when the entry is created, and store it in canonical form, so that all the
+     * spellings of a restriction share the same compiled pattern.
+     */
+    @Override
+    public Restriction createRestriction(String oakPath, String oakName, Value value)
+            throws AccessControlException, RepositoryException {
+        Restriction restriction = super.createRestriction(oakPath, oakName, value);
+        return REP_SUB_FOLDER.equals(oakName) ? canonical(restriction) : restriction;
+    }
+
+    /**
+     * Reject an invalid pre-tokenised restriction when the entry is created, and store it in canonical form.
+     */
+    @Override
+    public Restriction createRestriction(String oakPath, String oakName, Value... values)
+            throws AccessControlException, RepositoryException {
+        Restriction restriction = super.createRestriction(oakPath, oakName, values);
+        return REP_SUB_FOLDER_TOKENS.equals(oakName) ? canonicalTokens(restriction) : restriction;
+    }
+
+    /**
+     * Reject an invalid restriction when the entry is committed. Only the rep:subFolder restrictions are checked, against
+     * their definition and grammar: the entry may hold the restrictions of other providers, e.g. rep:glob, which
+     * the checks of the abstract provider would reject as unsupported.
+     */
+    @Override
+    public void validateRestrictions(String oakPath, Tree aceTree) throws AccessControlException {
+        String value = AceRestrictions.getValue(aceTree, REP_SUB_FOLDER);
+        if (value != null) {
+            AceRestrictions.validate(value, SubFolderRestrictionProvider::canonicalValue);
+        }
+        PropertyState tokens = AceRestrictions.getTokens(aceTree, REP_SUB_FOLDER_TOKENS);
+        if (tokens != null) {
+            if (value != null) {
+                throw new AccessControlException(
+                        "Restrictions rep:subFolder and rep:subFolderTokens cannot be combined");
+            }
+            AceRestrictions.validate(tokens, SubFolderRestrictionProvider::canonicalTokens);
+        }
+    }
+
+    static Restriction canonical(Restriction restriction) throws AccessControlException {
+        return AceRestrictions.canonical(restriction, SubFolderRestrictionProvider::canonicalValue);
+    }
+
+    static Restriction canonicalTokens(Restriction restriction) throws AccessControlException {
+        return AceRestrictions.canonicalTokens(restriction, SubFolderRestrictionProvider::canonicalTokens);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the restriction is invalid
+     */
+    private static String canonicalValue(String restriction) {
+        return SubFolderExpression.compile(restriction).toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pre-tokenised restriction is invalid
+     */
+    private static List<String> canonicalTokens(PropertyState property) {
+        return RestrictionTokens.encode(RestrictionTokens.decodeSubFolder(property));
+    }
+
+    /**
+     * Return the pattern for the restriction, shared with all the entries having the same restriction on the same path.
+     */
+    private RestrictionPattern createPattern(PropertyState property, String oakPath) {
+        if (REP_SUB_FOLDER_TOKENS.equals(property.getName())) {
+            return createTokensPattern(property, oakPath);
+        }
+        if (property.count() != 1) {
+            return RestrictionPattern.EMPTY;
+        }
+        return patternCache.get(new PatternKey(property.getValue(Type.STRING), oakPath),
+                key -> SubFolderPattern.create(key.getRestriction(), key.getOakPath()));
+    }
+
+    /**
+     * Return the pattern of a pre-tokenised restriction. The values are decoded without being parsed, and the pattern
+     * is shared with the entries having the equivalent restriction string on the same path.
+     */
+    private RestrictionPattern createTokensPattern(PropertyState property, String oakPath) {
+        SubFolderExpression expression;
+        try {
+            expression = expressionOf(property);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid restriction defined on {}, failing closed: {}", oakPath, e.getMessage());
+            return FailClosedPattern.of(property);
+        }
+        return patternCache.get(new PatternKey(expression.toString(), oakPath),
+                key -> new SubFolderPattern(expression, key.getOakPath(), RestrictionMetrics.INSTANCE));
+    }
+
+    /**
+     * Return the expression of a rep:subFolder or rep:subFolderTokens restriction.
+     *
+     * @return the expression, null if the rep:subFolder restriction is not single valued
+     * @throws IllegalArgumentException if the restriction is invalid
+     */
+    static SubFolderExpression expressionOf(PropertyState property) {
+        if (REP_SUB_FOLDER_TOKENS.equals(property.getName())) {
+            return RestrictionTokens.decodeSubFolder(property);
+        }
+        return property.count() == 1 ? SubFolderExpression.compile(property.getValue(Type.STRING)) : null;
+    }
+
+    BoundedCache<PatternKey, RestrictionPattern> getPatternCache() {
+        return patternCache;
+    }
 }
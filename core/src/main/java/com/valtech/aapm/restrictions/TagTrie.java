@@ -0,0 +1,109 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tag roots of a "_UNDER_" restriction, compiled into a trie of tag segments: the namespace, then each segment of
+ * the tag path. A tag is matched with one descent of the trie, whatever the number of roots.
+ * <p>
+ * A tag is under a root when it is the root itself or one of its descendants, e.g. properties:orientation/portrait is
+ * under properties:orientation, properties:orientation/ and properties:. The segments are compared as a whole:
+ * properties:orientation-old is not under properties:orientation.
+ */
+final class TagTrie {
+
+    private static final char NAMESPACE_SEPARATOR = ':';
+    private static final char PATH_SEPARATOR = '/';
+
+    private final Node root = new Node();
+
+    private TagTrie() {
+    }
+
+    /**
+     * @param roots the tag roots, e.g. properties:orientation
+     * @return the trie of the roots
+     */
+    static TagTrie compile(Collection<String> roots) {
+        TagTrie trie = new TagTrie();
+        for (String tagRoot : roots) {
+            trie.add(tagRoot);
+        }
+        return trie;
+    }
+
+    private void add(String tagRoot) {
+        Node node = root;
+        int start = 0;
+        while (start < tagRoot.length() && !node.isRoot) {
+            int end = segmentEnd(tagRoot, start);
+            node = node.children.computeIfAbsent(tagRoot.substring(start, end), segment -> new Node());
+            start = end + 1;
+        }
+        if (node != root) {
+            // the roots below are now redundant
+            node.isRoot = true;
+            node.children.clear();
+        }
+    }
+
+    /**
+     * @param tag the tag, e.g. properties:orientation/portrait
+     * @return true if the tag is one of the roots or one of their descendants
+     */
+    boolean matches(String tag) {
+        Node node = root;
+        int start = 0;
+        while (start < tag.length()) {
+            int end = segmentEnd(tag, start);
+            node = node.children.get(tag.substring(start, end));
+            if (node == null) {
+                return false;
+            }
+            if (node.isRoot) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the separator ending the segment starting at the given index, or the length of the tag
+     */
+    private static int segmentEnd(String tag, int start) {
+        for (int i = start; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            if (c == PATH_SEPARATOR || (start == 0 && c == NAMESPACE_SEPARATOR)) {
+                return i;
+            }
+        }
+        return tag.length();
+    }
+
+    private static final class Node {
+
+        private final Map<String, Node> children = new HashMap<>(4);
+        private boolean isRoot;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.jcr.SimpleCredentials;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.api.ContentRepository;
+import org.apache.jackrabbit.oak.api.ContentSession;
+import org.apache.jackrabbit.oak.api.Root;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
+import org.apache.sling.jcr.resource.api.JcrResourceConstants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.day.cq.dam.api.DamConstants;
+
+class AncestorResolverTest {
+
+    private Root root;
+
+    @BeforeEach
+    void before() throws Exception {
+        ContentRepository contentRepository = new Oak().with("test").with(new OpenSecurityProvider()).createContentRepository();
+        ContentSession adminSession = contentRepository.login(new SimpleCredentials("admin", "admin".toCharArray()), "test");
+        root = adminSession.getLatestRoot();
+    }
+
+    @Test
+    void resolve_returns_the_asset_of_a_rendition_even_below_folders() {
+        Tree folder = typed(root.getTree("/").addChild("content").addChild("dam").addChild("folder"), JcrResourceConstants.NT_SLING_FOLDER);
+        Tree asset = typed(folder.addChild("asset.jpg"), DamConstants.NT_DAM_ASSET);
+        Tree renditions = typed(asset.addChild(JcrConstants.JCR_CONTENT).addChild("renditions"), JcrConstants.NT_FOLDER);
+        Tree rendition = renditions.addChild("original");
+
+        assertEquals("/content/dam/folder/asset.jpg", AncestorResolver.DEFAULT.resolve(rendition).getPath());
+    }
+
+    @Test
+    void resolve_returns_the_nearest_folder_when_there_is_no_asset() {
+        Tree folder = typed(root.getTree("/").addChild("content").addChild("dam").addChild("folder"), JcrResourceConstants.NT_SLING_FOLDER);
+        Tree subFolder = typed(folder.addChild("sub"), JcrConstants.NT_FOLDER);
+        Tree file = subFolder.addChild("file");
+
+        assertEquals("/content/dam/folder/sub", AncestorResolver.DEFAULT.resolve(file).getPath());
+    }
+
+    @Test
+    void resolve_returns_the_dam_root_when_there_is_no_folder_below_it() {
+        Tree file = root.getTree("/").addChild("content").addChild("dam").addChild("file").addChild("child");
+
+        assertEquals("/content/dam", AncestorResolver.DEFAULT.resolve(file).getPath());
+    }
+
+    @Test
+    void resolve_stops_at_the_configured_dam_root() {
+        Tree damRoot = typed(root.getTree("/").addChild("content").addChild("assets"), JcrResourceConstants.NT_SLING_FOLDER);
+        Tree file = damRoot.addChild("file");
+        AncestorResolver resolver = new AncestorResolver("/content/assets/");
+
+        assertEquals("/content/assets", resolver.resolve(file).getPath());
+        assertEquals("/content/assets", resolver.getDamRootPath());
+    }
+
+    @Test
+    void resolve_returns_the_tree_when_it_is_outside_of_the_dam_root() {
+        Tree file = root.getTree("/").addChild("content").addChild("other").addChild("file");
+
+        assertEquals("/content/other/file", AncestorResolver.DEFAULT.resolve(file).getPath());
+    }
+
+    @Test
+    void isDamRoot_compares_all_the_segments() {
+        Tree dam = root.getTree("/").addChild("content").addChild("dam");
+        Tree otherDam = root.getTree("/").addChild("other").addChild("dam");
+        Tree nestedDam = dam.addChild("content").addChild("dam");
+
+        assertTrue(AncestorResolver.DEFAULT.isDamRoot(dam));
+        assertFalse(AncestorResolver.DEFAULT.isDamRoot(otherDam));
+        assertFalse(AncestorResolver.DEFAULT.isDamRoot(nestedDam));
+    }
+
+    @Test
+    void constructor_rejects_a_relative_dam_root() {
+        assertThrows(IllegalArgumentException.class, () -> new AncestorResolver("content/dam"));
+    }
+
+    private static Tree typed(Tree tree, String primaryType) {
+        tree.setProperty(JcrConstants.JCR_PRIMARYTYPE, primaryType, Type.NAME);
+        return tree;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class BoundedCacheTest {
+
+    @Test
+    void get_returns_the_cached_value_for_the_same_key() {
+        BoundedCache<String, Object> cache = new BoundedCache<>(10, String::length);
+
+        Object first = cache.get("key", key -> new Object());
+        Object second = cache.get("key", key -> new Object());
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    void get_evicts_entries_when_capacity_is_exceeded() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(10, key -> 4);
+
+        for (int i = 0; i < 100; i++) {
+            cache.get(i, key -> key);
+        }
+
+        assertTrue(cache.size() <= 10);
+        assertTrue(cache.getEvictionCount() >= 90);
+        assertEquals(4L * cache.size(), cache.getEstimatedFootprint());
+    }
+
+    @Test
+    void get_never_caches_when_capacity_is_zero() {
+        BoundedCache<String, Object> cache = new BoundedCache<>(0, String::length);
+
+        Object first = cache.get("key", key -> new Object());
+        Object second = cache.get("key", key -> new Object());
+
+        assertNotSame(first, second);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    void get_replaces_the_cached_value_when_it_is_no_longer_valid() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, String::length);
+
+        String first = cache.get("key", value -> true, key -> "first");
+        String reused = cache.get("key", "first"::equals, key -> "second");
+        String replaced = cache.get("key", "second"::equals, key -> "second");
+
+        assertEquals("first", first);
+        assertEquals("first", reused);
+        assertEquals("second", replaced);
+        assertEquals("second", cache.get("key", value -> true, key -> "third"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getInvalidationCount());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class CoarseClockTest {
+
+    private final MutableClock source = new MutableClock(12_345);
+    private final CoarseClock clock = new CoarseClock(source, 1000);
+
+    @Test
+    void millis_reads_the_source_until_started() {
+        assertEquals(12_000, clock.millis());
+
+        source.set(13_001);
+
+        assertEquals(13_000, clock.millis());
+        assertEquals(2, source.reads.get());
+    }
+
+    @Test
+    void millis_returns_the_cached_tick_once_refreshed() {
+        assertEquals(655, clock.refresh());
+
+        source.set(14_001);
+
+        assertEquals(12_000, clock.millis());
+        assertEquals(12_000, clock.millis());
+        assertEquals(1, source.reads.get());
+        assertEquals(999, clock.refresh());
+        assertEquals(14_000, clock.millis());
+    }
+
+    @Test
+    void stop_reads_the_source_again() {
+        clock.refresh();
+        source.set(14_001);
+
+        clock.stop();
+
+        assertEquals(14_000, clock.millis());
+    }
+
+    @Test
+    void start_refreshes_the_tick_on_the_scheduler() throws InterruptedException {
+        CoarseClock systemClock = new CoarseClock(Clock.systemUTC(), 10);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            systemClock.start(scheduler);
+            long first = systemClock.millis();
+            for (int i = 0; i < 100 && systemClock.millis() == first; i++) {
+                Thread.sleep(10);
+            }
+
+            assertTrue(systemClock.millis() > first);
+        } finally {
+            scheduler.shutdownNow();
+            systemClock.stop();
+        }
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private final AtomicLong millis;
+        private final AtomicLong reads = new AtomicLong();
+
+        private MutableClock(long millis) {
+            this.millis = new AtomicLong(millis);
+        }
+
+        private void set(long value) {
+            millis.set(value);
+        }
+
+        @Override
+        public long millis() {
+            reads.incrementAndGet();
+            return millis.get();
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
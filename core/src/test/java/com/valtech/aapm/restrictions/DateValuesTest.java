@@ -0,0 +1,89 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import org.junit.jupiter.api.Test;
+
+class DateValuesTest {
+
+    @Test
+    void parseEpochMillis_returns_the_same_instant_as_the_restriction_date_format() throws ParseException {
+        String[] dates = {
+            "2021-10-01T00:00:00.000+02:00",
+            "2021-10-01T23:59:59.999-05:30",
+            "1970-01-01T00:00:00.000Z",
+            "1969-12-31T23:59:59.999Z",
+            "2000-02-29T12:34:56.789+01:00",
+            "2100-03-01T00:00:00.000+00:00",
+            "1601-01-01T00:00:00.000Z"
+        };
+        for (String date : dates) {
+            long expected = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").parse(date).getTime();
+            assertEquals(expected, DateValues.parseEpochMillis(date), date);
+        }
+    }
+
+    @Test
+    void parseEpochMillis_accepts_compact_offsets() {
+        long expected = DateValues.parseEpochMillis("2021-10-01T00:00:00.000+02:00");
+
+        assertEquals(expected, DateValues.parseEpochMillis("2021-10-01T00:00:00.000+0200"));
+        assertEquals(expected, DateValues.parseEpochMillis("2021-10-01T00:00:00.000+02"));
+    }
+
+    @Test
+    void parseEpochMillis_truncates_the_fraction_of_second_to_milliseconds() {
+        long expected = DateValues.parseEpochMillis("2021-10-01T00:00:00.590+02:00");
+
+        assertEquals(expected, DateValues.parseEpochMillis("2021-10-01T00:00:00.59+02:00"));
+        assertEquals(expected, DateValues.parseEpochMillis("2021-10-01T00:00:00.5901+02:00"));
+        assertEquals(expected, DateValues.parseEpochMillis("2021-10-01T00:00:00.590123456+02:00"));
+        assertEquals(expected - 90, DateValues.parseEpochMillis("2021-10-01T00:00:00.5+02:00"));
+    }
+
+    @Test
+    void parseEpochMillis_rejects_invalid_dates() {
+        String[] dates = {
+            null,
+            "",
+            "today",
+            "2021-10-01",
+            "2021-10-01T00:00:00.000",
+            "2021-10-01T00:00:00+02:00",
+            "2021-10-01T00:00:00.+02:00",
+            "2021-10-01T00:00:00.0000000001+02:00",
+            "2021-10-01T00:00:00.000",
+            "2021-10-01T00:00:00.5",
+            "2021-13-01T00:00:00.000+02:00",
+            "2021-02-29T00:00:00.000+02:00",
+            "2021-10-01T24:00:00.000+02:00",
+            "2021-10-01T00:00:00.000+02:00:00",
+            "2021-10-01T00:00:00.000X",
+            "2021-1a-01T00:00:00.000Z"
+        };
+        for (String date : dates) {
+            assertEquals(DateValues.INVALID, DateValues.parseEpochMillis(date), date);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.day.cq.dam.api.DamConstants;
+
+class DecisionCacheInvalidatorTest {
+
+    private static final HasPropertyValuesExpression PORTRAIT =
+            HasPropertyValuesExpression.compile("allow_string_cq:tags_EQUALS_properties:orientation/portrait");
+    private static final String FOLDER = "/content/dam/folder";
+
+    private NodeStore store;
+    private DecisionCache decisionCache;
+    private RestrictionMetrics metrics;
+    private DecisionCacheInvalidator invalidator;
+
+    @BeforeEach
+    void before() throws CommitFailedException {
+        store = new MemoryNodeStore();
+        decisionCache = new DecisionCache(100, Mockito.mock(TreeProvider.class));
+        metrics = new RestrictionMetrics(true);
+        invalidator = new DecisionCacheInvalidator(decisionCache, AncestorResolver.DEFAULT_DAM_ROOT_PATH, metrics);
+
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder folder = root.child("content").child("dam").child("folder");
+        metadata(folder, "portrait.jpg").setProperty("cq:tags", List.of("properties:orientation/portrait"), Type.STRINGS);
+        metadata(folder, "other.jpg").setProperty("cq:tags", List.of("properties:orientation/portrait"), Type.STRINGS);
+        merge(root);
+        cache("portrait.jpg");
+        cache("other.jpg");
+    }
+
+    @Test
+    void contentChanged_evicts_the_decisions_of_changed_condition_properties() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        metadata(root.child("content").child("dam").child("folder"), "portrait.jpg")
+                .setProperty("cq:tags", List.of("properties:orientation/landscape"), Type.STRINGS);
+        merge(root);
+
+        assertEquals(1, decisionCache.getCache().size());
+        assertEquals(1, metrics.getInvalidatedDecisions());
+    }
+
+    @Test
+    void contentChanged_keeps_the_decisions_when_other_properties_changed() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        metadata(root.child("content").child("dam").child("folder"), "portrait.jpg")
+                .setProperty("dc:title", "Portrait");
+        merge(root);
+
+        assertEquals(2, decisionCache.getCache().size());
+        assertEquals(0, metrics.getInvalidatedDecisions());
+        assertEquals(1, metrics.getInvalidationRuns());
+    }
+
+    @Test
+    void contentChanged_evicts_the_decisions_below_removed_nodes() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        root.child("content").child("dam").child("folder").child("portrait.jpg").remove();
+        merge(root);
+
+        assertEquals(1, decisionCache.getCache().size());
+
+        root = store.getRoot().builder();
+        root.child("content").child("dam").child("folder").remove();
+        merge(root);
+
+        assertEquals(0, decisionCache.getCache().size());
+    }
+
+    private void cache(String asset) {
+        NodeState metadata = store.getRoot().getChildNode("content").getChildNode("dam").getChildNode("folder")
+                .getChildNode(asset).getChildNode(JcrConstants.JCR_CONTENT).getChildNode(DamConstants.ACTIVITY_TYPE_METADATA);
+        decisionCache.matches(PORTRAIT, FOLDER + "/" + asset + "/jcr:content/metadata", metadata);
+    }
+
+    private void merge(NodeBuilder root) throws CommitFailedException {
+        invalidator.contentChanged(store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY), CommitInfo.EMPTY);
+    }
+
+    private static NodeBuilder metadata(NodeBuilder folder, String asset) {
+        return folder.child(asset).child(JcrConstants.JCR_CONTENT).child(DamConstants.ACTIVITY_TYPE_METADATA);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class DecisionCacheTest {
+
+    private static final String METADATA_PATH = "/content/dam/aapm-test/asset.jpg/jcr:content/metadata";
+    private static final HasPropertyValuesExpression PORTRAIT =
+            HasPropertyValuesExpression.compile("allow_string_cq:tags_EQUALS_properties:orientation/portrait");
+
+    private final DecisionCache decisionCache = new DecisionCache(10, Mockito.mock(TreeProvider.class));
+
+    @Test
+    void matches_reuses_the_decision_taken_on_the_same_metadata() {
+        NodeState metadata = metadata("properties:orientation/portrait");
+
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, metadata));
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, metadata));
+        assertEquals(1, decisionCache.getCache().getHitCount());
+        assertEquals(1, decisionCache.getCache().getMissCount());
+    }
+
+    @Test
+    void matches_reuses_the_decision_taken_on_an_equal_node_state() {
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, metadata("properties:orientation/portrait")));
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, metadata("properties:orientation/portrait")));
+        assertEquals(1, decisionCache.getCache().getHitCount());
+    }
+
+    @Test
+    void matches_reuses_the_decision_for_the_node_read_again_from_the_store() throws CommitFailedException {
+        NodeStore store = new MemoryNodeStore();
+        NodeBuilder root = store.getRoot().builder();
+        metadataBuilder(root).setProperty("cq:tags", List.of("properties:orientation/portrait"), Type.STRINGS);
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, read(store)));
+        root = store.getRoot().builder();
+        root.child("content").child("dam").child("aapm-test").child("other.jpg");
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, read(store)));
+
+        assertEquals(1, decisionCache.getCache().getHitCount());
+        assertEquals(1, decisionCache.getCache().getMissCount());
+    }
+
+    @Test
+    void matches_evaluates_again_when_the_metadata_changed() {
+        NodeState portrait = metadata("properties:orientation/portrait");
+        NodeState landscape = metadata("properties:orientation/landscape");
+
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, portrait));
+        assertFalse(decisionCache.matches(PORTRAIT, METADATA_PATH, landscape));
+        // a session still reading the previous revision
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, portrait));
+        assertEquals(0, decisionCache.getCache().getHitCount());
+        assertEquals(2, decisionCache.getCache().getInvalidationCount());
+    }
+
+    @Test
+    void matches_keeps_a_decision_per_condition() {
+        NodeState metadata = metadata("properties:orientation/portrait");
+        HasPropertyValuesExpression landscape =
+                HasPropertyValuesExpression.compile("deny_string_cq:tags_EQUALS_properties:orientation/landscape");
+
+        assertTrue(decisionCache.matches(PORTRAIT, METADATA_PATH, metadata));
+        assertFalse(decisionCache.matches(landscape, METADATA_PATH, metadata));
+        assertEquals(2, decisionCache.getCache().size());
+    }
+
+    @Test
+    void matches_does_not_cache_conditions_on_today() {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        builder.setProperty("embargo", "2021-10-01T00:00:00.000Z");
+        HasPropertyValuesExpression beforeToday = HasPropertyValuesExpression.compile("deny_date_embargo_GREATER_THEN_today");
+
+        assertTrue(decisionCache.matches(beforeToday, METADATA_PATH, builder.getNodeState()));
+        assertEquals(0, decisionCache.getCache().size());
+    }
+
+    @Test
+    void matches_evaluates_without_cache_when_disabled() {
+        DecisionCache disabled = new DecisionCache(0, Mockito.mock(TreeProvider.class));
+
+        assertFalse(disabled.isEnabled());
+        assertFalse(DecisionCache.DISABLED.isEnabled());
+        assertTrue(disabled.matches(PORTRAIT, METADATA_PATH, metadata("properties:orientation/portrait")));
+        assertEquals(0, disabled.getCache().size());
+    }
+
+    private static NodeBuilder metadataBuilder(NodeBuilder root) {
+        NodeBuilder builder = root;
+        for (String name : METADATA_PATH.substring(1).split("/")) {
+            builder = builder.child(name);
+        }
+        return builder;
+    }
+
+    private static NodeState read(NodeStore store) {
+        NodeState state = store.getRoot();
+        for (String name : METADATA_PATH.substring(1).split("/")) {
+            state = state.getChildNode(name);
+        }
+        return state;
+    }
+
+    private static NodeState metadata(String... tags) {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        builder.setProperty("cq:tags", List.of(tags), Type.STRINGS);
+        return builder.getNodeState();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class EvaluationBudgetTest {
+
+    @Test
+    void isExhausted_stops_at_the_maximum_number_of_children() {
+        EvaluationBudget budget = new EvaluationBudget(3, 0, false);
+
+        assertFalse(budget.isExhausted(2, budget.start()));
+        assertTrue(budget.isExhausted(3, budget.start()));
+    }
+
+    @Test
+    void isExhausted_reads_the_clock_every_16_children() {
+        EvaluationBudget budget = new EvaluationBudget(0, 1, false);
+        long start = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2);
+
+        assertFalse(budget.isExhausted(0, start));
+        assertFalse(budget.isExhausted(15, start));
+        assertTrue(budget.isExhausted(16, start));
+        assertFalse(budget.isExhausted(16, budget.start()));
+    }
+
+    @Test
+    void unlimited_is_never_exhausted() {
+        assertFalse(EvaluationBudget.UNLIMITED.isExhausted(Integer.MAX_VALUE, EvaluationBudget.UNLIMITED.start()));
+    }
+}
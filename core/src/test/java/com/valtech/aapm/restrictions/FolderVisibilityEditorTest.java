@@ -0,0 +1,258 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.oak.api.CommitFailedException;
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.MemoryNodeStore;
+import org.apache.jackrabbit.oak.spi.commit.CommitHook;
+import org.apache.jackrabbit.oak.spi.commit.CommitInfo;
+import org.apache.jackrabbit.oak.spi.commit.EditorHook;
+import org.apache.jackrabbit.oak.spi.commit.EmptyHook;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.day.cq.dam.api.DamConstants;
+
+class FolderVisibilityEditorTest {
+
+    private static final String RESTRICTION = "allow_string_cq:tags_EQUALS_properties:orientation/portrait";
+    private static final String PORTRAIT = "properties:orientation/portrait";
+    private static final String LANDSCAPE = "properties:orientation/landscape";
+
+    private NodeStore store;
+    private FolderVisibilityEditorProvider provider;
+    private CommitHook hook;
+    private String countProperty;
+
+    @BeforeEach
+    void before() {
+        store = new MemoryNodeStore();
+        FolderVisibilityEditor.Definition definition =
+                FolderVisibilityEditor.Definition.of(new String[]{RESTRICTION}, "/content/dam");
+        provider = new FolderVisibilityEditorProvider(store, definition);
+        hook = new EditorHook(provider);
+        countProperty = FolderVisibilityIndex.propertyName(HasPropertyValuesExpression.compile(RESTRICTION));
+    }
+
+    @Test
+    void created_folder_counts_its_matching_children() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder folder = folder(root, "content", "dam", "folder");
+        asset(folder, "portrait-1.jpg", PORTRAIT);
+        asset(folder, "portrait-2.jpg", LANDSCAPE, PORTRAIT);
+        asset(folder, "landscape.jpg", LANDSCAPE);
+        store.merge(root, hook, CommitInfo.EMPTY);
+
+        assertEquals(2L, count("content", "dam", "folder"));
+    }
+
+    @Test
+    void count_follows_changes_of_the_children_metadata() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder folder = folder(root, "content", "dam", "folder");
+        asset(folder, "portrait-1.jpg", PORTRAIT);
+        asset(folder, "portrait-2.jpg", PORTRAIT);
+        store.merge(root, hook, CommitInfo.EMPTY);
+
+        root = store.getRoot().builder();
+        metadata(root.getChildNode("content").getChildNode("dam").getChildNode("folder").getChildNode("portrait-1.jpg"))
+                .setProperty("cq:tags", List.of(LANDSCAPE), Type.STRINGS);
+        store.merge(root, hook, CommitInfo.EMPTY);
+        assertEquals(1L, count("content", "dam", "folder"));
+
+        root = store.getRoot().builder();
+        root.getChildNode("content").getChildNode("dam").getChildNode("folder").getChildNode("portrait-2.jpg").remove();
+        store.merge(root, hook, CommitInfo.EMPTY);
+        assertEquals(0L, count("content", "dam", "folder"));
+    }
+
+    @Test
+    void moved_folder_keeps_its_count() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder folder = folder(root, "content", "dam", "folder");
+        asset(folder, "portrait.jpg", PORTRAIT);
+        folder(root, "content", "dam", "target");
+        store.merge(root, hook, CommitInfo.EMPTY);
+
+        root = store.getRoot().builder();
+        NodeBuilder dam = root.getChildNode("content").getChildNode("dam");
+        dam.getChildNode("folder").moveTo(dam.getChildNode("target"), "folder");
+        store.merge(root, hook, CommitInfo.EMPTY);
+
+        assertEquals(1L, count("content", "dam", "target", "folder"));
+        assertEquals(0L, count("content", "dam", "target"));
+    }
+
+    @Test
+    void existing_folder_without_count_is_recounted_when_a_child_changes() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder folder = folder(root, "content", "dam", "folder");
+        asset(folder, "portrait-1.jpg", PORTRAIT);
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        assertNull(countState("content", "dam", "folder"));
+
+        root = store.getRoot().builder();
+        asset(root.getChildNode("content").getChildNode("dam").getChildNode("folder"), "portrait-2.jpg", PORTRAIT);
+        store.merge(root, hook, CommitInfo.EMPTY);
+
+        assertEquals(2L, count("content", "dam", "folder"));
+    }
+
+    @Test
+    void folders_outside_of_the_dam_root_are_not_indexed() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder folder = folder(root, "content", "other", "folder");
+        asset(folder, "portrait.jpg", PORTRAIT);
+        store.merge(root, hook, CommitInfo.EMPTY);
+
+        assertNull(countState("content", "other", "folder"));
+    }
+
+    @Test
+    void reindex_counts_the_folders_created_without_the_editor() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        NodeBuilder folder = folder(root, "content", "dam", "folder");
+        asset(folder, "portrait.jpg", PORTRAIT);
+        asset(folder(folder, "sub"), "landscape.jpg", LANDSCAPE);
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+        FolderVisibilityEditor.Definition definition =
+                FolderVisibilityEditor.Definition.of(new String[]{RESTRICTION}, "/content/dam");
+        assertTrue(provider.reindex(definition, 1, new AtomicBoolean(), this::requestRecount));
+
+        assertEquals(1L, count("content", "dam", "folder"));
+        assertEquals(0L, count("content", "dam", "folder", "sub"));
+        assertEquals(0L, count("content", "dam"));
+        assertNull(state("var", "aapm", "folderVisibilityReindex")
+                .getProperty(FolderVisibilityEditorProvider.REINDEX_FOLDERS));
+    }
+
+    @Test
+    void reindex_stops_when_cancelled() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        asset(folder(root, "content", "dam", "folder"), "portrait.jpg", PORTRAIT);
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        FolderVisibilityEditor.Definition definition =
+                FolderVisibilityEditor.Definition.of(new String[]{RESTRICTION}, "/content/dam");
+        assertFalse(provider.reindex(definition, 1, cancelled, folders -> {
+            cancelled.set(true);
+            return requestRecount(folders);
+        }));
+
+        assertNull(countState("content", "dam", "folder"));
+    }
+
+    @Test
+    void recount_request_ignores_the_folders_outside_the_dam_root() throws CommitFailedException {
+        NodeBuilder root = store.getRoot().builder();
+        asset(folder(root, "content", "other"), "portrait.jpg", PORTRAIT);
+        store.merge(root, EmptyHook.INSTANCE, CommitInfo.EMPTY);
+
+        assertTrue(requestRecount(List.of("/content/other")));
+
+        assertNull(countState("content", "other"));
+    }
+
+    @Test
+    void restrictions_with_the_same_condition_share_the_same_count() {
+        String allow = FolderVisibilityIndex.propertyName(HasPropertyValuesExpression.compile(RESTRICTION));
+        String deny = FolderVisibilityIndex.propertyName(
+                HasPropertyValuesExpression.compile("deny_string_!cq:tags==" + PORTRAIT));
+
+        assertEquals(allow, deny);
+        assertTrue(allow.startsWith(FolderVisibilityIndex.PROPERTY_PREFIX));
+    }
+
+    @Test
+    void definition_ignores_the_restrictions_depending_on_the_time() {
+        FolderVisibilityEditor.Definition definition = FolderVisibilityEditor.Definition.of(new String[]{
+                "allow_date_offTime_GREATER_THEN_today",
+                "allow_expr_string_cq:tags_EQUALS_" + PORTRAIT + "_AND_date_!offTime_GREATER_THEN_today",
+                "allow_expr_string_cq:tags_EQUALS_" + PORTRAIT + "_OR_string_status_EQUALS_approved"}, "/content/dam");
+
+        assertEquals(1, definition.conditions.size());
+        assertTrue(definition.conditions.get(0).isBoolean());
+    }
+
+    private long count(String... path) {
+        PropertyState count = countState(path);
+        assertNotNull(count);
+        return count.getValue(Type.LONG);
+    }
+
+    private PropertyState countState(String... path) {
+        return state(path).getProperty(countProperty);
+    }
+
+    private NodeState state(String... path) {
+        NodeState state = store.getRoot();
+        for (String name : path) {
+            state = state.getChildNode(name);
+        }
+        return state;
+    }
+
+    private boolean requestRecount(List<String> folders) {
+        NodeBuilder root = store.getRoot().builder();
+        root.child("var").child("aapm").child("folderVisibilityReindex")
+                .setProperty(FolderVisibilityEditorProvider.REINDEX_FOLDERS, folders, Type.STRINGS);
+        try {
+            store.merge(root, hook, CommitInfo.EMPTY);
+            return true;
+        } catch (CommitFailedException e) {
+            return false;
+        }
+    }
+
+    private static NodeBuilder folder(NodeBuilder parent, String... path) {
+        NodeBuilder builder = parent;
+        for (String name : path) {
+            builder = builder.child(name);
+            builder.setProperty(JcrConstants.JCR_PRIMARYTYPE, "sling:Folder", Type.NAME);
+        }
+        return builder;
+    }
+
+    private static void asset(NodeBuilder folder, String name, String... tags) {
+        NodeBuilder asset = folder.child(name);
+        asset.setProperty(JcrConstants.JCR_PRIMARYTYPE, DamConstants.NT_DAM_ASSET, Type.NAME);
+        metadata(asset).setProperty("cq:tags", List.of(tags), Type.STRINGS);
+    }
+
+    private static NodeBuilder metadata(NodeBuilder asset) {
+        return asset.child(JcrConstants.JCR_CONTENT).child(DamConstants.ACTIVITY_TYPE_METADATA);
+    }
+}
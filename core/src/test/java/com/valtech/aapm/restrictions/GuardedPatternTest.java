@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+import org.junit.jupiter.api.Test;
+
+class GuardedPatternTest {
+
+    private final Tree tree = new TreeProviderService().createReadOnlyTree(EmptyNodeState.EMPTY_NODE);
+
+    @Test
+    void matches_does_not_evaluate_the_pattern_when_the_guard_does_not_match() {
+        CountingPattern pattern = new CountingPattern(true);
+        GuardedPattern guarded = new GuardedPattern(new CountingPattern(false), pattern);
+
+        assertFalse(guarded.matches(tree, null));
+        assertFalse(guarded.matches("/content/dam"));
+        assertEquals(0, pattern.evaluations);
+    }
+
+    @Test
+    void matches_requires_both_patterns() {
+        CountingPattern guard = new CountingPattern(true);
+
+        assertTrue(new GuardedPattern(guard, new CountingPattern(true)).matches(tree, null));
+        assertFalse(new GuardedPattern(guard, new CountingPattern(false)).matches(tree, null));
+        assertEquals(2, guard.evaluations);
+    }
+
+    @Test
+    void matches_passes_the_property_paths_to_both_patterns() {
+        SubFolderPattern guard = new SubFolderPattern("allow_EQUALS_1", "/content/dam");
+        GuardedPattern guarded = new GuardedPattern(guard, RestrictionPattern.EMPTY);
+
+        assertTrue(guarded.matches("/content/dam/photo.jpg/jcr:title", true));
+        assertFalse(guarded.matches("/content/dam/photo.jpg/jcr:title", false));
+    }
+
+    private static final class CountingPattern implements RestrictionPattern {
+
+        private final boolean decision;
+        private int evaluations;
+
+        private CountingPattern(boolean decision) {
+            this.decision = decision;
+        }
+
+        @Override
+        public boolean matches(Tree tree, PropertyState property) {
+            evaluations++;
+            return decision;
+        }
+
+        @Override
+        public boolean matches(String path) {
+            evaluations++;
+            return decision;
+        }
+
+        @Override
+        public boolean matches() {
+            return decision;
+        }
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.junit.jupiter.api.Test;
+
+class HasPropertyValuesExpressionTest {
+
+    @Test
+    void compile_nominal_case() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("deny_string_cq:tags_EQUALS_properties:orientation/portrait,properties:style/color");
+
+        assertTrue(expression.isDeny());
+        assertFalse(expression.isNegate());
+        assertEquals(PropertyValueType.STRING, expression.getPropertyType());
+        assertEquals("cq:tags", expression.getPropertyName());
+        assertEquals(Operators.EQUALS, expression.getOperator());
+        assertEquals(List.of("properties:orientation/portrait", "properties:style/color"), expression.getValues());
+    }
+
+    @Test
+    void matches_looks_up_values_of_large_value_lists() {
+        StringBuilder restriction = new StringBuilder("allow_string_cq:tags_EQUALS_project:code/0");
+        for (int i = 1; i < 500; i++) {
+            restriction.append(",project:code/").append(i);
+        }
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(restriction.toString());
+
+        assertEquals(500, expression.getValues().size());
+        assertTrue(expression.matches("project:code/0"));
+        assertTrue(expression.matches("project:code/499"));
+        assertTrue(expression.matches("project:code/250"));
+        assertFalse(expression.matches("project:code/500"));
+        assertFalse(expression.matches("project:code"));
+    }
+
+    @Test
+    void compile_removes_negate_operator_from_property_name() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("allow_string_!cq:tags_EQUALS_properties:orientation/portrait");
+
+        assertFalse(expression.isDeny());
+        assertTrue(expression.isNegate());
+        assertEquals("cq:tags", expression.getPropertyName());
+    }
+
+    @Test
+    void compile_picks_the_first_operator_of_the_restriction() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile("deny_int_myNumbers_GREATER_THAN_EQUALS_72");
+
+        assertEquals(Operators.GREATER_THAN_EQUALS, expression.getOperator());
+        assertEquals("myNumbers", expression.getPropertyName());
+        assertEquals(List.of("72"), expression.getValues());
+    }
+
+    @Test
+    void compile_accepts_equality_alias() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("allow_string_cq:tags==properties:orientation/portrait");
+
+        assertEquals(Operators.EQUALS, expression.getOperator());
+        assertEquals("cq:tags", expression.getPropertyName());
+        assertEquals(List.of("properties:orientation/portrait"), expression.getValues());
+    }
+
+    @Test
+    void compile_rejects_malformed_restrictions() {
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression.compile(null));
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression.compile("deny"));
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression.compile("grant_string_cq:tags_EQUALS_a"));
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression.compile("deny_boolean_cq:tags_EQUALS_a"));
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression.compile("deny_string_cq:tags"));
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression.compile("deny_string__EQUALS_a"));
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression.compile("deny_string_cq:tags_EQUALS_"));
+    }
+
+    @Test
+    void compile_keeps_the_unsupported_operators_and_values_readable() {
+        HasPropertyValuesExpression ordering = HasPropertyValuesExpression.compile("deny_string_cq:tags_GREATER_THEN_a,b");
+        HasPropertyValuesExpression thresholds = HasPropertyValuesExpression.compile("deny_int_myNumbers_GREATER_THEN_5,1");
+
+        assertTrue(ordering.matches("b"));
+        assertFalse(ordering.matches("c"));
+        assertTrue(thresholds.matches("3"));
+        assertFalse(thresholds.matches("7"));
+    }
+
+    @Test
+    void matches_compares_int_values_with_the_compiled_threshold() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile("deny_int_myNumbers_GREATER_THEN_72");
+
+        assertTrue(expression.matches("13"));
+        assertFalse(expression.matches("72"));
+        assertFalse(expression.matches("NaN"));
+    }
+
+    @Test
+    void matches_compares_long_values_beyond_the_int_range() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile("deny_long_dam:size_LESS_THEN_3000000000");
+
+        assertTrue(expression.matches("4000000000"));
+        assertFalse(expression.matches("2999999999"));
+        assertFalse(expression.matches("1.5"));
+        assertTrue(expression.matches(PropertyStates.createProperty("dam:size", List.of(12L, 5000000000L), Type.LONGS)));
+        assertFalse(expression.matches(PropertyStates.createProperty("dam:size", List.of(12L, 3000000000L), Type.LONGS)));
+        assertTrue(expression.matches(PropertyStates.createProperty("dam:size", List.of("small", "5000000000"), Type.STRINGS)));
+    }
+
+    @Test
+    void matches_compares_double_values_with_the_compiled_threshold() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile("deny_double_rating_GREATER_THAN_EQUALS_2.5");
+
+        assertTrue(expression.matches("2.5"));
+        assertTrue(expression.matches("-1e3"));
+        assertFalse(expression.matches("3"));
+        assertFalse(expression.matches("2.5.1"));
+        assertTrue(expression.matches(PropertyStates.createProperty("rating", List.of(4.0, 1.25), Type.DOUBLES)));
+        assertFalse(expression.matches(PropertyStates.createProperty("rating", List.of(4.0, 3.5), Type.DOUBLES)));
+        assertTrue(expression.matches(PropertyStates.createProperty("rating", List.of(7L, 2L), Type.LONGS)));
+    }
+
+    @Test
+    void matches_evaluates_single_and_multi_valued_properties_alike() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile("deny_int_rating_LESS_THEN_50");
+
+        assertTrue(expression.matches(PropertyStates.createProperty("rating", "72", Type.STRING)));
+        assertTrue(expression.matches(PropertyStates.createProperty("rating", List.of("72"), Type.STRINGS)));
+        assertTrue(expression.matches(PropertyStates.createProperty("rating", 72L, Type.LONG)));
+        assertTrue(expression.matches(PropertyStates.createProperty("rating", List.of(72L), Type.LONGS)));
+        assertFalse(expression.matches(PropertyStates.createProperty("rating", "12", Type.STRING)));
+        assertFalse(expression.matches(PropertyStates.createProperty("rating", 12L, Type.LONG)));
+    }
+
+    @Test
+    void matches_compares_single_valued_dates() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("deny_date_embargo_LESS_THEN_2021-10-01T00:00:00.000+02:00");
+
+        assertTrue(expression.matches(PropertyStates.createProperty("embargo", "2022-01-01T00:00:00.000Z", Type.DATE)));
+        assertFalse(expression.matches(PropertyStates.createProperty("embargo", "2020-01-01T00:00:00.000Z", Type.DATE)));
+    }
+
+    @Test
+    void matches_returns_false_when_threshold_is_not_comparable() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile("deny_int_myNumbers_EQUALS_NaN");
+
+        assertFalse(expression.matches("NaN"));
+    }
+
+    @Test
+    void matches_compares_dates_with_the_compiled_threshold() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("deny_date_embargo_GREATER_THEN_2021-10-01T00:00:00.000+02:00");
+
+        assertTrue(expression.matches("2021-09-30T21:59:59.999Z"));
+        assertFalse(expression.matches("2021-09-30T22:00:00.000Z"));
+        assertFalse(expression.matches("not a date"));
+    }
+
+    @Test
+    void matches_resolves_today_from_the_clock() {
+        Clock clock = Clock.fixed(Instant.parse("2021-10-01T10:15:30.123Z"), ZoneOffset.UTC);
+        HasPropertyValuesExpression perSecond = HasPropertyValuesExpression.compile(
+                "deny_date_embargo_GREATER_THAN_EQUALS_today", new CoarseClock(clock, 1000));
+        HasPropertyValuesExpression perDay = HasPropertyValuesExpression.compile(
+                "deny_date_embargo_GREATER_THAN_EQUALS_today", new CoarseClock(clock, 86_400_000));
+
+        assertTrue(perSecond.matches("2021-10-01T10:15:30.000Z"));
+        assertFalse(perSecond.matches("2021-10-01T10:15:30.001Z"));
+        assertTrue(perDay.matches("2021-10-01T00:00:00.000Z"));
+        assertFalse(perDay.matches("2021-10-01T00:00:00.001Z"));
+    }
+
+    @Test
+    void toString_returns_the_canonical_form() {
+        assertEquals("deny_string_!cq:tags_EQUALS_a,b",
+                HasPropertyValuesExpression.compile("DENY_string_!cq:tags==a,b").toString());
+    }
+
+    @Test
+    void equals_returns_true_for_the_same_restriction() {
+        assertEquals(HasPropertyValuesExpression.compile("deny_string_cq:tags_EQUALS_a"),
+                HasPropertyValuesExpression.compile("deny_string_cq:tags==a"));
+    }
+
+    @Test
+    void compile_drops_the_repeated_values() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile("DENY_string_cq:tags==b,a,b");
+
+        assertEquals(List.of("b", "a"), expression.getValues());
+        assertEquals("deny_string_cq:tags_EQUALS_b,a", expression.toString());
+    }
+
+    @Test
+    void validate_rejects_the_values_that_cannot_be_compared() {
+        HasPropertyValuesExpression.compile("deny_int_myNumbers_GREATER_THEN_2").validate();
+        HasPropertyValuesExpression.compile("deny_double_myNumbers_GREATER_THEN_2.5").validate();
+        HasPropertyValuesExpression.compile("deny_date_myDates_LESS_THEN_today").validate();
+        HasPropertyValuesExpression.compile("deny_date_myDates_LESS_THEN_2022-01-01T00:00:00.000Z").validate();
+
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_int_myNumbers_EQUALS_NaN").validate());
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_long_myNumbers_EQUALS_2.5").validate());
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_double_myNumbers_EQUALS_two").validate());
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_date_myDates_EQUALS_yesterday").validate());
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_string_cq:tags_EQUALS_a,,b").validate());
+    }
+
+    @Test
+    void validate_rejects_the_unsupported_operators_and_values() {
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_string_cq:tags_GREATER_THEN_a").validate());
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_int_myNumbers_EQUALS_1,2").validate());
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression
+                .compile("deny_expr_string_cq:tags_EQUALS_a_AND_date_myDates_LESS_THEN_today,2022-01-01").validate());
+    }
+
+    @Test
+    void compile_reads_the_clauses_of_a_boolean_restriction() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(
+                "deny_expr_string_cq:tags_EQUALS_a,a_AND_string_!status_EQUALS_approved_OR_int_rating==5");
+
+        assertTrue(expression.isBoolean());
+        assertTrue(expression.isDeny());
+        assertFalse(expression.isNegate());
+        assertEquals(Set.of("cq:tags", "status", "rating"), expression.getPropertyNames());
+        assertEquals("deny_expr_string_cq:tags_EQUALS_a_AND_string_!status_EQUALS_approved_OR_int_rating_EQUALS_5",
+                expression.toString());
+        assertEquals("string_cq:tags_EQUALS_a_AND_!string_status_EQUALS_approved_OR_int_rating_EQUALS_5",
+                expression.getConditionKey());
+    }
+
+    @Test
+    void compile_keeps_a_junction_not_followed_by_a_property_type_in_the_values() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("deny_string_dc:title_EQUALS_ROCK_AND_ROLL");
+
+        assertFalse(expression.isBoolean());
+        assertEquals(List.of("ROCK_AND_ROLL"), expression.getValues());
+    }
+
+    @Test
+    void compile_reads_an_unmarked_restriction_as_a_single_clause() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("deny_string_dc:title_EQUALS_a_AND_string_b,c_OR_int_d");
+
+        assertFalse(expression.isBoolean());
+        assertEquals(Set.of("dc:title"), expression.getPropertyNames());
+        assertEquals(List.of("a_AND_string_b", "c_OR_int_d"), expression.getValues());
+        assertEquals("deny_string_dc:title_EQUALS_a_AND_string_b,c_OR_int_d", expression.toString());
+        assertTrue(expression.matches("a_AND_string_b"));
+        assertFalse(expression.matches("a"));
+    }
+
+    @Test
+    void compile_reads_a_marked_restriction_of_one_clause_as_that_clause() {
+        HasPropertyValuesExpression expression =
+                HasPropertyValuesExpression.compile("allow_expr_string_dc:title_EQUALS_ROCK_AND_ROLL");
+
+        assertFalse(expression.isBoolean());
+        assertFalse(expression.isDeny());
+        assertEquals(List.of("ROCK_AND_ROLL"), expression.getValues());
+        assertEquals("allow_string_dc:title_EQUALS_ROCK_AND_ROLL", expression.toString());
+    }
+
+    @Test
+    void matches_gives_precedence_to_and_over_or() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(
+                "allow_expr_string_cq:tags_EQUALS_a_OR_string_cq:tags_EQUALS_b_AND_string_status_EQUALS_approved");
+        Map<String, PropertyState> tagA = Map.of("cq:tags", PropertyStates.createProperty("cq:tags", "a"));
+        Map<String, PropertyState> tagB = Map.of("cq:tags", PropertyStates.createProperty("cq:tags", "b"));
+        Map<String, PropertyState> approvedTagB = Map.of("cq:tags", PropertyStates.createProperty("cq:tags", "b"),
+                "status", PropertyStates.createProperty("status", "approved"));
+
+        assertTrue(expression.matches(tagA::get));
+        assertFalse(expression.matches(tagB::get));
+        assertTrue(expression.matches(approvedTagB::get));
+    }
+
+    @Test
+    void matches_negates_a_clause() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(
+                "deny_expr_string_cq:tags_EQUALS_a_AND_string_!status_EQUALS_approved");
+        Map<String, PropertyState> draft = Map.of("cq:tags", PropertyStates.createProperty("cq:tags", "a"));
+        Map<String, PropertyState> approved = Map.of("cq:tags", PropertyStates.createProperty("cq:tags", "a"),
+                "status", PropertyStates.createProperty("status", "approved"));
+
+        assertTrue(expression.matches(draft::get));
+        assertFalse(expression.matches(approved::get));
+    }
+
+    @Test
+    void matches_evaluates_the_cheapest_clauses_first_and_stops_when_the_result_is_known() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(
+                "deny_expr_date_embargo_LESS_THEN_2030-01-01T00:00:00.000+01:00_AND_string_cq:tags_EQUALS_a");
+        List<String> read = new ArrayList<>();
+
+        assertFalse(expression.matches(name -> {
+            read.add(name);
+            return null;
+        }));
+        assertEquals(List.of("cq:tags"), read);
+    }
+
+    @Test
+    void validate_checks_every_clause() {
+        HasPropertyValuesExpression.compile("deny_expr_string_cq:tags_EQUALS_a_AND_int_rating_GREATER_THEN_2")
+                .validate();
+        assertThrows(IllegalArgumentException.class, () -> HasPropertyValuesExpression
+                .compile("deny_expr_string_cq:tags_EQUALS_a_AND_int_rating_GREATER_THEN_two").validate());
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_expr_string_cq:tags_EQUALS_a_AND_string_status"));
+    }
+
+    @Test
+    void matches_the_tags_under_the_values() {
+        HasPropertyValuesExpression expression = HasPropertyValuesExpression.compile(
+                "deny_string_cq:tags_UNDER_properties:orientation,wknd:activity/surfing");
+
+        assertEquals(Operators.UNDER, expression.getOperator());
+        assertTrue(expression.matches(PropertyStates.createProperty("cq:tags",
+                List.of("properties:style/color", "properties:orientation/portrait"), Type.STRINGS)));
+        assertTrue(expression.matches("wknd:activity/surfing"));
+        assertFalse(expression.matches("wknd:activity/skiing"));
+    }
+
+    @Test
+    void compile_rejects_under_for_other_types_than_string() {
+        assertThrows(IllegalArgumentException.class,
+                () -> HasPropertyValuesExpression.compile("deny_int_rating_UNDER_5"));
+    }
+}
@@ -19,10 +19,7 @@
 package com.valtech.aapm.restrictions;
 
 import static junit.framework.Assert.assertTrue;
-import static junitx.framework.Assert.assertFalse;
 
-import java.util.ArrayList;
-import java.util.Set;
 import javax.jcr.SimpleCredentials;
 
 import org.apache.jackrabbit.JcrConstants;
@@ -32,7 +29,6 @@ import org.apache.jackrabbit.oak.api.ContentSession;
 import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Root;
 import org.apache.jackrabbit.oak.api.Tree;
-import org.apache.jackrabbit.oak.api.Type;
 import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
 import org.apache.jackrabbit.oak.spi.security.SecurityProvider;
 import org.junit.jupiter.api.BeforeEach;
@@ -40,7 +36,6 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import com.day.cq.dam.api.DamConstants;
-import com.google.common.collect.Sets;
 
 @Disabled
 class HasPropertyValuesPatternBugsToFixTest {
@@ -61,165 +56,6 @@ class HasPropertyValuesPatternBugsToFixTest {
 
     // region Bugs to fix
     // With these tests you can reproduce an unexpected behavior
-    @Test
-    // it is a BUG. Currently it returns true. Problem from "name =
-    // propertyValuesWithoutPropertyType.split(operator)[0];"
-    void matches_returns_false_when_negate_deny_rule_on_asset_path_which_owns_single_tag_defined_in_restriction() {
-        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
-            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
-            .setProperty("cq:tags", "properties:orientation/portrait", Type.STRING);
-
-        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
-        String propertyValues = "deny#string$!cq:tags==properties:orientation/portrait"; // negate
-        // deny
-        // rule
-        String originalTree = "/content/dam/aapm-test/test-deny";
-        PropertyState whatever = null;
-
-        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
-
-        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
-
-        assertFalse(doesItMatch);
-    }
-
-    // adding cases when property is a single one of type int, date...for now for example myProperty
-    // == 1 or myProperty > 1 does not work
-
-    @Test
-        // it is a BUG. Currently it returns true. Problem from "name =
-        // propertyValuesWithoutPropertyType.split(operator)[0];"
-    void matches_returns_false_when_negate_deny_rule_on_asset_path_which_owns_multiple_tags_defined_in_restriction() {
-        Set<String> tags = Sets.newHashSet();
-        tags.add("properties:orientation/portrait");
-        tags.add("properties:orientation/landscape");
-
-        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
-            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
-            .setProperty("cq:tags", tags, Type.STRINGS);
-
-        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
-        String propertyValues = "deny#string$!cq:tags==properties:orientation/portrait"; // negate
-        // deny
-        // rule
-        String originalTree = "/content/dam/aapm-test/test-deny";
-        PropertyState whatever = null;
-
-        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
-
-        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
-
-        assertFalse(doesItMatch);
-    }
-
-    @Test
-        // it is a BUG. Currently it returns true. Problem comes from type handling is not done for a
-        // property of type "single"
-    void matches_returns_true_when_deny_strict_bigger_rule_on_asset_path_which_owns_single_tag_of_type_int_defined_in_restriction() {
-        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
-            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
-            .setProperty("myNumberProperty", "567", Type.STRING);
-
-        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
-        String propertyValues = "deny#int$myNumberProperty>4";
-        String originalTree = "/content/dam/aapm-test/test-deny";
-        PropertyState whatever = null;
-
-        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
-
-        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
-
-        assertTrue(doesItMatch);
-    }
-
-    @Test
-        // it is a BUG. Currently it returns false.
-    void matches_returns_true_when_deny_strict_lower_rule_on_asset_path_which_owns_multiple_tags_of_type_int_defined_in_restriction() {
-        // Set<String> tags = Sets.newHashSet();
-        ArrayList<String> tags = new ArrayList<>();
-        tags.add("14");
-        tags.add("13");
-
-        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
-            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
-            .setProperty("myNumbers", tags, Type.STRINGS);
-
-        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
-        String propertyValues = "deny#int$myNumbers<72";
-        String originalTree = "/content/dam/aapm-test/test-deny";
-        PropertyState whatever = null;
-
-        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
-
-        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
-
-        assertTrue(doesItMatch);
-    }
-
-    @Test
-        // it is a bug. Currently it returns true
-    void matches_returns_false_when_deny_strict_lower_rule_is_false_on_asset_path_which_owns_multiple_tags_of_type_int_defined_in_restriction() {
-        Set<String> tags = Sets.newHashSet();
-        tags.add("5678");
-        tags.add("90");
-
-        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
-            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
-            .setProperty("myNumbers", tags, Type.STRINGS);
-
-        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
-        String propertyValues = "deny#int$myNumbers<72";
-        String originalTree = "/content/dam/aapm-test/test-deny";
-        PropertyState whatever = null;
-
-        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
-
-        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
-
-        assertFalse(doesItMatch);
-    }
-
-    @Test
-        // it is a bug. Currently it returns false
-    void matches_returns_true_when_deny_strict_bigger_rule_on_asset_path_which_owns_single_tag_of_type_date_defined_in_restriction() {
-        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
-            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
-            .setProperty("myDate", "2021-05-03T10:09:54.1111+02:00", Type.STRING);
-
-        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
-        String propertyValues = "deny#date$myDate>2022-12-08T10:05:57.5946+08:00"; // negate deny
-        // rule
-        String originalTree = "/content/dam/aapm-test/test-deny";
-        PropertyState whatever = null;
-
-        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
-
-        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
-
-        assertTrue(doesItMatch);
-    }
-
-    @Test
-        // : it is a bug : currently it returns true
-    void matches_returns_false_on_asset_path_when_allow_inequality_rule_defined_on_direct_parent_folder_of_this_asset() {
-        Tree asset = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-allow")
-                         .addChild("Casque_VR_with_tag.jpg");
-
-        asset.setProperty(JcrConstants.JCR_PRIMARYTYPE, DamConstants.NT_DAM_ASSET);
-        asset.addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA).setProperty("myProperty", "toto");
-
-        // Tree tree = root.getTree("/content/dam/aapm-test/test-allow");
-        String propertyValues = "allow#string$!myProperty==toto";
-        String originalTree = "/content/dam/aapm-test/test-allow";
-        PropertyState whatever = null;
-
-        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
-
-        boolean doesItMatch = hasPropertyValuesPattern.matches(asset, whatever);
-
-        assertFalse(doesItMatch);
-    }
-
     @Test
         // : this is a bug. A recursive child which has an asset which matches => folder should appear.
         // Currently it returns false
@@ -247,7 +83,7 @@ class HasPropertyValuesPatternBugsToFixTest {
         asset2.addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA).setProperty("myProperty", "toto");
 
         // Tree tree = root.getTree("/content/dam/aapm-test/test-allow");
-        String propertyValues = "allow#string$myProperty==toto";
+        String propertyValues = "allow_string_myProperty_EQUALS_toto";
         String originalTree = "/content/dam/aapm-test/test-allow/subfolder";
         PropertyState whatever = null;
 
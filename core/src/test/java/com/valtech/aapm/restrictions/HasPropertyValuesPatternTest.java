@@ -34,8 +34,15 @@ import org.apache.jackrabbit.oak.api.PropertyState;
 import org.apache.jackrabbit.oak.api.Root;
 import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.plugins.tree.TreeProvider;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
 import org.apache.jackrabbit.oak.spi.security.OpenSecurityProvider;
 import org.apache.jackrabbit.oak.spi.security.SecurityProvider;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
 import org.apache.sling.jcr.resource.api.JcrResourceConstants;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -370,9 +377,9 @@ class HasPropertyValuesPatternTest {
 
         HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
 
-        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
+        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever); // 4 < 567
 
-        assertFalse(doesItMatch);
+        assertTrue(doesItMatch);
     }
 
     @Test
@@ -394,8 +401,68 @@ class HasPropertyValuesPatternTest {
         assertTrue(doesItMatch);
     }
 
-    // : adding cases when property is a single one of type int, date...for now for example
-    // myProperty _EQUALS_ 1 or myProperty > 1 does not work
+    @Test
+    void matches_returns_false_when_negate_deny_rule_on_asset_path_which_owns_single_tag_defined_in_restriction() {
+        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
+            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", "properties:orientation/portrait", Type.STRING);
+
+        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
+        String propertyValues = "deny_string_!cq:tags_EQUALS_properties:orientation/portrait"; // negate
+        // deny
+        // rule
+        String originalTree = "/content/dam/aapm-test/test-deny";
+        PropertyState whatever = null;
+
+        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
+
+        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
+
+        assertFalse(doesItMatch);
+    }
+
+    @Test
+    void matches_returns_false_when_negate_deny_rule_on_asset_path_which_owns_multiple_tags_defined_in_restriction() {
+        Set<String> tags = Sets.newHashSet();
+        tags.add("properties:orientation/portrait");
+        tags.add("properties:orientation/landscape");
+
+        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
+            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", tags, Type.STRINGS);
+
+        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
+        String propertyValues = "deny_string_!cq:tags_EQUALS_properties:orientation/portrait"; // negate
+        // deny
+        // rule
+        String originalTree = "/content/dam/aapm-test/test-deny";
+        PropertyState whatever = null;
+
+        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
+
+        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
+
+        assertFalse(doesItMatch);
+    }
+
+    @Test
+    void matches_returns_true_when_deny_strict_bigger_rule_on_asset_path_which_owns_single_tag_of_type_date_defined_in_restriction() {
+        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
+            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("myDate", "2021-05-03T10:09:54.1111+02:00", Type.STRING);
+
+        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
+        String propertyValues = "deny_date_myDate_GREATER_THEN_2022-12-08T10:05:57.5946+08:00"; // negate deny
+        // rule
+        String originalTree = "/content/dam/aapm-test/test-deny";
+        PropertyState whatever = null;
+
+        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
+
+        boolean doesItMatch = hasPropertyValuesPattern.matches(tree, whatever);
+
+        assertTrue(doesItMatch);
+    }
 
     // endregion
 
@@ -614,6 +681,26 @@ class HasPropertyValuesPatternTest {
         assertTrue(doesItMatch);
     }
 
+    @Test
+    void matches_returns_false_on_asset_path_when_allow_inequality_rule_defined_on_direct_parent_folder_of_this_asset() {
+        Tree asset = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-allow")
+                         .addChild("Casque_VR_with_tag.jpg");
+
+        asset.setProperty(JcrConstants.JCR_PRIMARYTYPE, DamConstants.NT_DAM_ASSET);
+        asset.addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA).setProperty("myProperty", "toto");
+
+        // Tree tree = root.getTree("/content/dam/aapm-test/test-allow");
+        String propertyValues = "allow_string_!myProperty_EQUALS_toto";
+        String originalTree = "/content/dam/aapm-test/test-allow";
+        PropertyState whatever = null;
+
+        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(propertyValues, originalTree);
+
+        boolean doesItMatch = hasPropertyValuesPattern.matches(asset, whatever);
+
+        assertFalse(doesItMatch);
+    }
+
     // endregion
 
     @Test
@@ -675,4 +762,243 @@ class HasPropertyValuesPatternTest {
 
     // endregion
 
+    // region Property checks
+
+    @Test
+    void matches_reuses_the_node_decision_for_the_properties_of_the_same_tree() {
+        Tree metadata = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("test-deny")
+            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA);
+        metadata.setProperty("cq:tags", Sets.newHashSet("properties:orientation/portrait"), Type.STRINGS);
+
+        Tree tree = root.getTree("/content/dam/aapm-test/test-deny");
+        PropertyState property = PropertyStates.createProperty("dc:title", "title");
+        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(
+            "deny_string_cq:tags_EQUALS_properties:orientation/portrait", "/content/dam/aapm-test/test-deny");
+
+        assertTrue(hasPropertyValuesPattern.matches(tree, null));
+        metadata.removeProperty("cq:tags");
+        assertTrue(hasPropertyValuesPattern.matches(tree, property));
+        // the node check always evaluates again
+        assertFalse(hasPropertyValuesPattern.matches(tree, null));
+        assertFalse(hasPropertyValuesPattern.matches(tree, property));
+    }
+
+    @Test
+    void matches_does_not_reuse_the_decision_of_another_tree() {
+        Tree folder = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test");
+        folder.addChild("portrait").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/portrait"), Type.STRINGS);
+        folder.addChild("landscape").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/landscape"), Type.STRINGS);
+
+        Tree portrait = root.getTree("/content/dam/aapm-test/portrait");
+        Tree landscape = root.getTree("/content/dam/aapm-test/landscape");
+        PropertyState property = PropertyStates.createProperty("dc:title", "title");
+        HasPropertyValuesPattern hasPropertyValuesPattern = new HasPropertyValuesPattern(
+            "deny_string_cq:tags_EQUALS_properties:orientation/portrait", "/content/dam/aapm-test");
+
+        assertTrue(hasPropertyValuesPattern.matches(portrait, null));
+        assertFalse(hasPropertyValuesPattern.matches(landscape, property));
+        assertTrue(hasPropertyValuesPattern.matches(portrait, property));
+    }
+
+    @Test
+    void matches_records_the_evaluation_in_the_metrics() {
+        Tree folder = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test");
+        folder.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrResourceConstants.NT_SLING_FOLDER);
+        folder.addChild("landscape").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/landscape"), Type.STRINGS);
+        folder.addChild("portrait").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/portrait"), Type.STRINGS);
+
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+        PatternSettings settings = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT, metrics,
+            DecisionCache.DISABLED, null);
+        RestrictionPattern pattern = HasPropertyValuesPattern.create(
+            "allow_string_cq:tags_EQUALS_properties:orientation/portrait", "/content/dam/aapm-test", settings);
+        Tree tree = root.getTree("/content/dam/aapm-test");
+
+        assertTrue(pattern.matches(tree, null));
+        assertTrue(pattern.matches(tree, PropertyStates.createProperty("dc:title", "title")));
+
+        RestrictionMetrics.Statistics statistics = metrics.getStatistics(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES);
+        assertEquals(1, statistics.getEvaluations());
+        assertEquals(1, statistics.getCacheHits());
+        assertEquals(2, statistics.getChildrenScanned());
+        assertEquals(2, statistics.getMetadataLookups());
+        assertEquals(1, metrics.getPatternStatistics().size());
+        assertEquals("rep:hasPropertyValues allow_string_cq:tags_EQUALS_properties:orientation/portrait on /content/dam/aapm-test",
+            metrics.getPatternStatistics().get(0).getName());
+    }
+
+    @Test
+    void matches_evaluates_the_clauses_of_a_boolean_restriction() {
+        Tree folder = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test");
+        Tree approved = folder.addChild("approved").addChild(JcrConstants.JCR_CONTENT)
+            .addChild(DamConstants.ACTIVITY_TYPE_METADATA);
+        approved.setProperty("cq:tags", Sets.newHashSet("properties:orientation/portrait"), Type.STRINGS);
+        approved.setProperty("status", "approved");
+        folder.addChild("draft").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/portrait"), Type.STRINGS);
+
+        RestrictionPattern pattern = HasPropertyValuesPattern.create(
+            "deny_expr_string_cq:tags_EQUALS_properties:orientation/portrait_AND_string_!status_EQUALS_approved",
+            "/content/dam/aapm-test");
+
+        assertFalse(pattern.matches(root.getTree("/content/dam/aapm-test/approved"), null));
+        assertTrue(pattern.matches(root.getTree("/content/dam/aapm-test/draft"), null));
+    }
+
+    @Test
+    void matches_shares_the_metadata_between_the_patterns_of_the_same_tree() {
+        root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test").addChild("asset")
+            .addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/portrait"), Type.STRINGS);
+
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+        PatternSettings settings = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT, metrics,
+            DecisionCache.DISABLED, null);
+        RestrictionPattern portrait = HasPropertyValuesPattern.create(
+            "deny_string_cq:tags_EQUALS_properties:orientation/portrait", "/content/dam/aapm-test", settings);
+        RestrictionPattern landscape = HasPropertyValuesPattern.create(
+            "deny_string_cq:tags_EQUALS_properties:orientation/landscape", "/content/dam/aapm-test", settings);
+        Tree tree = root.getTree("/content/dam/aapm-test/asset");
+
+        assertTrue(portrait.matches(tree, null));
+        assertFalse(landscape.matches(tree, null));
+
+        RestrictionMetrics.Statistics statistics = metrics.getStatistics(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES);
+        assertEquals(2, statistics.getEvaluations());
+        assertEquals(1, statistics.getMetadataLookups());
+    }
+
+    @Test
+    void matches_reads_the_metadata_again_for_another_tree() {
+        Tree folder = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test");
+        folder.addChild("portrait").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/portrait"), Type.STRINGS);
+        folder.addChild("landscape").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("cq:tags", Sets.newHashSet("properties:orientation/landscape"), Type.STRINGS);
+
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+        PatternSettings settings = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT, metrics,
+            DecisionCache.DISABLED, null);
+        RestrictionPattern portrait = HasPropertyValuesPattern.create(
+            "deny_string_cq:tags_EQUALS_properties:orientation/portrait", "/content/dam/aapm-test", settings);
+        RestrictionPattern landscape = HasPropertyValuesPattern.create(
+            "deny_string_cq:tags_EQUALS_properties:orientation/landscape", "/content/dam/aapm-test", settings);
+
+        assertTrue(portrait.matches(root.getTree("/content/dam/aapm-test/portrait"), null));
+        assertTrue(landscape.matches(root.getTree("/content/dam/aapm-test/landscape"), null));
+        assertFalse(portrait.matches(root.getTree("/content/dam/aapm-test/landscape"), null));
+
+        RestrictionMetrics.Statistics statistics = metrics.getStatistics(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES);
+        assertEquals(2, statistics.getMetadataLookups());
+    }
+
+    @Test
+    void matches_on_node_states_returns_the_decision_of_the_trees() {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        NodeBuilder folder = builder.child("content").child("dam").child("aapm-test");
+        folder.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrResourceConstants.NT_SLING_FOLDER, Type.NAME);
+        NodeBuilder asset = asset(folder, "toto.jpg", "toto");
+        asset.child(JcrConstants.JCR_CONTENT).child("renditions").child("original");
+        asset(folder, "titi.jpg", "titi");
+        NodeBuilder subFolder = folder.child("sub");
+        subFolder.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrConstants.NT_FOLDER, Type.NAME);
+        asset(subFolder, "titi.jpg", "titi").child(JcrConstants.JCR_CONTENT).child("renditions").child("original");
+        folder.child("file").child(JcrConstants.JCR_CONTENT).child(DamConstants.ACTIVITY_TYPE_METADATA)
+            .setProperty("myProperty", "toto");
+        NodeState rootState = builder.getNodeState();
+
+        TreeProvider treeProvider = new TreeProviderService();
+        Tree rootTree = treeProvider.createReadOnlyTree(rootState);
+        PatternSettings nodeStateSettings = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT,
+            RestrictionMetrics.INSTANCE, DecisionCache.DISABLED, treeProvider);
+        PatternSettings decisionCacheSettings = new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT,
+            RestrictionMetrics.INSTANCE, new DecisionCache(100, treeProvider), treeProvider);
+        String[] paths = {"/content/dam/aapm-test", "/content/dam/aapm-test/toto.jpg",
+            "/content/dam/aapm-test/toto.jpg/jcr:content/renditions/original", "/content/dam/aapm-test/titi.jpg",
+            "/content/dam/aapm-test/sub", "/content/dam/aapm-test/sub/titi.jpg/jcr:content/renditions/original",
+            "/content/dam/aapm-test/file", "/content/dam", "/content", "/"};
+        for (String restriction : new String[] {"allow_string_myProperty_EQUALS_toto", "allow_string_!myProperty_EQUALS_toto",
+            "deny_string_myProperty_EQUALS_toto", "deny_string_!myProperty_EQUALS_toto"}) {
+            HasPropertyValuesPattern treePattern = new HasPropertyValuesPattern(restriction, "/content/dam/aapm-test");
+            HasPropertyValuesPattern nodeStatePattern = (HasPropertyValuesPattern) HasPropertyValuesPattern.create(
+                restriction, "/content/dam/aapm-test", nodeStateSettings);
+            HasPropertyValuesPattern decisionCachePattern = (HasPropertyValuesPattern) HasPropertyValuesPattern.create(
+                restriction, "/content/dam/aapm-test", decisionCacheSettings);
+            for (String path : paths) {
+                Tree tree = rootTree;
+                for (String name : path.substring(1).split("/")) {
+                    tree = name.isEmpty() ? tree : tree.getChild(name);
+                }
+                Boolean expected = treePattern.matches(tree, null);
+
+                assertEquals(restriction + " on " + path, expected, treePattern.matches(rootState, path));
+                assertEquals(restriction + " on " + path, expected, nodeStatePattern.matches(tree, null));
+                assertEquals(restriction + " on " + path, expected, decisionCachePattern.matches(tree, null));
+                assertEquals(restriction + " on " + path, expected, decisionCachePattern.matches(rootState, path));
+            }
+        }
+    }
+
+    @Test
+    void matches_applies_the_exceeded_decision_when_the_folder_scan_exhausts_the_budget() {
+        Tree folder = root.getTree("/").addChild("content").addChild("dam").addChild("aapm-test");
+        folder.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrResourceConstants.NT_SLING_FOLDER);
+        for (String value : new String[] {"titi", "tata", "toto"}) {
+            folder.addChild(value + ".jpg").addChild(JcrConstants.JCR_CONTENT).addChild(DamConstants.ACTIVITY_TYPE_METADATA)
+                .setProperty("myProperty", value);
+        }
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+
+        RestrictionPattern failClosed = HasPropertyValuesPattern.create("allow_string_myProperty_EQUALS_toto",
+            "/content/dam/aapm-test", new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT, metrics,
+                DecisionCache.DISABLED, null, new EvaluationBudget(2, 0, false)));
+        RestrictionPattern failOpen = HasPropertyValuesPattern.create("allow_string_myProperty_EQUALS_tata",
+            "/content/dam/aapm-test", new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT, metrics,
+                DecisionCache.DISABLED, null, new EvaluationBudget(1, 0, true)));
+        RestrictionPattern withinBudget = HasPropertyValuesPattern.create("allow_string_myProperty_EQUALS_toto",
+            "/content/dam/aapm-test", new PatternSettings(AncestorResolver.DEFAULT, CoarseClock.DEFAULT, metrics,
+                DecisionCache.DISABLED, null, new EvaluationBudget(3, 0, false)));
+
+        assertFalse(failClosed.matches(folder, null));
+        assertTrue(failOpen.matches(folder, null));
+        assertTrue(withinBudget.matches(folder, null));
+        RestrictionMetrics.Statistics statistics = metrics.getStatistics(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES);
+        assertEquals(2, statistics.getBudgetExhausted());
+        assertEquals(6, statistics.getChildrenScanned());
+    }
+
+    @Test
+    void matches_on_node_states_applies_the_exceeded_decision_when_the_folder_scan_exhausts_the_budget() {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        NodeBuilder folder = builder.child("content").child("dam").child("aapm-test");
+        folder.setProperty(JcrConstants.JCR_PRIMARYTYPE, JcrResourceConstants.NT_SLING_FOLDER, Type.NAME);
+        asset(folder, "titi.jpg", "titi");
+        asset(folder, "toto.jpg", "toto").child(JcrConstants.JCR_CONTENT).child("renditions").child("original");
+        NodeState rootState = builder.getNodeState();
+        TreeProvider treeProvider = new TreeProviderService();
+        HasPropertyValuesPattern pattern = (HasPropertyValuesPattern) HasPropertyValuesPattern.create(
+            "allow_string_myProperty_EQUALS_toto", "/content/dam/aapm-test", new PatternSettings(AncestorResolver.DEFAULT,
+                CoarseClock.DEFAULT, RestrictionMetrics.INSTANCE, DecisionCache.DISABLED, treeProvider,
+                new EvaluationBudget(1, 0, false)));
+
+        assertFalse(pattern.matches(rootState, "/content/dam/aapm-test"));
+        assertFalse(pattern.matches(treeProvider.createReadOnlyTree(rootState).getChild("content").getChild("dam")
+            .getChild("aapm-test"), null));
+        // the asset is evaluated without scanning
+        assertTrue(pattern.matches(rootState, "/content/dam/aapm-test/toto.jpg/jcr:content/renditions/original"));
+    }
+
+    private static NodeBuilder asset(NodeBuilder folder, String name, String value) {
+        NodeBuilder asset = folder.child(name);
+        asset.setProperty(JcrConstants.JCR_PRIMARYTYPE, DamConstants.NT_DAM_ASSET, Type.NAME);
+        asset.child(JcrConstants.JCR_CONTENT).child(DamConstants.ACTIVITY_TYPE_METADATA).setProperty("myProperty", value);
+        return asset;
+    }
+
+    // endregion
+
 }
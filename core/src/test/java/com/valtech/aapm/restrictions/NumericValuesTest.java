@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class NumericValuesTest {
+
+    @Test
+    void parseLong_returns_the_same_number_as_the_jdk() {
+        for (String value : new String[] {"0", "42", "-42", "+42", "2147483648", "9223372036854775807", "-9223372036854775807"}) {
+            assertEquals(Long.parseLong(value), NumericValues.parseLong(value));
+        }
+    }
+
+    @Test
+    void parseLong_rejects_invalid_numbers() {
+        for (String value : new String[] {null, "", "-", "+", "1.5", "1e3", "12a", " 12", "9223372036854775808"}) {
+            assertEquals(NumericValues.INVALID, NumericValues.parseLong(value));
+        }
+    }
+
+    @Test
+    void parseDouble_returns_the_same_number_as_the_jdk() {
+        for (String value : new String[] {"0", "1.5", "-1.5", "+.5", "5.", "1e3", "-2.5E-3", "9223372036854775808"}) {
+            assertEquals(Double.parseDouble(value), NumericValues.parseDouble(value));
+        }
+    }
+
+    @Test
+    void parseDouble_rejects_invalid_numbers() {
+        for (String value : new String[] {null, "", ".", "-", "1e", "1.5.2", "NaN", "Infinity", "0x10", "1.5d", " 1"}) {
+            assertTrue(Double.isNaN(NumericValues.parseDouble(value)));
+        }
+    }
+}
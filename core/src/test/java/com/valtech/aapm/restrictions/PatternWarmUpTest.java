@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.apache.jackrabbit.oak.spi.state.NodeState;
+import org.junit.jupiter.api.Test;
+
+class PatternWarmUpTest {
+
+    private static final String HAS_PROPERTY_VALUES = "rep:hasPropertyValues";
+
+    private final List<String> compiled = new ArrayList<>();
+    private final RestrictionMetrics metrics = new RestrictionMetrics(true);
+
+    @Test
+    void run_compiles_the_restrictions_of_the_permission_store() {
+        PatternWarmUp warmUp = new PatternWarmUp(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES,
+                List.of(HAS_PROPERTY_VALUES),
+                (property, oakPath) -> compiled.add(property.getValue(Type.STRING) + " on " + oakPath), 100, metrics);
+
+        assertEquals(3, warmUp.run(permissionStore()));
+        assertEquals(Set.of("deny_string_cq:tags_EQUALS_a on /content/dam/a",
+                "deny_string_cq:tags_EQUALS_b on /content/dam/b",
+                "allow_string_cq:tags_EQUALS_c on /content/dam/c"), new HashSet<>(compiled));
+        assertEquals(3, metrics.getStatistics(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES).getWarmUpEntries());
+    }
+
+    @Test
+    void run_stops_when_the_pattern_cache_is_full() {
+        PatternWarmUp warmUp = new PatternWarmUp(RestrictionMetrics.RestrictionType.HAS_PROPERTY_VALUES,
+                List.of(HAS_PROPERTY_VALUES), (property, oakPath) -> compiled.add(oakPath), 2, metrics);
+
+        assertEquals(2, warmUp.run(permissionStore()));
+        assertEquals(2, compiled.size());
+    }
+
+    @Test
+    void run_ignores_a_repository_without_permission_store() {
+        PatternWarmUp warmUp = new PatternWarmUp(RestrictionMetrics.RestrictionType.SUB_FOLDER,
+                List.of("rep:subFolder"), (property, oakPath) -> compiled.add(oakPath), 100, metrics);
+
+        assertEquals(0, warmUp.run(EmptyNodeState.EMPTY_NODE));
+        assertEquals(List.of(), compiled);
+    }
+
+    /**
+     * Entries of a principal on two paths, the second with a collision on its hash, and an entry without
+     * rep:hasPropertyValues.
+     */
+    private static NodeState permissionStore() {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        NodeBuilder principal = builder.child("jcr:system").child("rep:permissionStore").child("crx.default")
+                .child("aapm-restricted");
+        NodeBuilder first = principal.child("1001");
+        first.setProperty("rep:accessControlledPath", "/content/dam/a");
+        first.child("0").setProperty(HAS_PROPERTY_VALUES, "deny_string_cq:tags_EQUALS_a");
+        first.child("1").setProperty("rep:glob", "*");
+        NodeBuilder second = principal.child("1002");
+        second.setProperty("rep:accessControlledPath", "/content/dam/b");
+        second.child("0").setProperty(HAS_PROPERTY_VALUES, "deny_string_cq:tags_EQUALS_b");
+        NodeBuilder collision = second.child("c0");
+        collision.setProperty("rep:accessControlledPath", "/content/dam/c");
+        collision.child("0").setProperty(HAS_PROPERTY_VALUES, "allow_string_cq:tags_EQUALS_c");
+        return builder.getNodeState();
+    }
+}
@@ -19,18 +19,27 @@
 package com.valtech.aapm.restrictions;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 
+import javax.jcr.security.AccessControlException;
+
 import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Tree;
 import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
 import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.Restriction;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionImpl;
 import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionPattern;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -99,5 +108,164 @@ class PropertyValueRestrictionProviderTest {
 
     }
 
+    @Test
+    void getPattern_returns_the_same_pattern_instance_for_identical_restrictions_on_the_same_path() {
+        String oakPath = "/my/path";
+        String name = "rep:hasPropertyValues";
+        String matchedConditionPropertyValue = "deny_string_cq:tags_EQUALS_properties:orientation/portrait";
+        PropertyValueRestrictionProvider testedProvider = new PropertyValueRestrictionProvider();
+        HashSet<Restriction> restrictions = new HashSet<>();
+        restrictions.add(new RestrictionImpl(createProperty(name, matchedConditionPropertyValue, Type.STRING), false));
+        HashSet<Restriction> otherRestrictions = new HashSet<>();
+        otherRestrictions.add(new RestrictionImpl(createProperty(name, matchedConditionPropertyValue, Type.STRING), false));
+
+        RestrictionPattern firstPattern = testedProvider.getPattern(oakPath, restrictions);
+        RestrictionPattern secondPattern = testedProvider.getPattern(oakPath, otherRestrictions);
+
+        assertSame(firstPattern, secondPattern);
+        assertEquals(1, testedProvider.getPatternCache().getHitCount());
+        assertEquals(1, testedProvider.getPatternCache().size());
+    }
+
+    @Test
+    void validateRestrictions_rejects_an_invalid_restriction() throws Exception {
+        PropertyValueRestrictionProvider testedProvider = new PropertyValueRestrictionProvider();
+
+        testedProvider.validateRestrictions("/my/path", aceTree("deny_int_myNumbers_GREATER_THEN_2"));
+        testedProvider.validateRestrictions("/my/path", aceTree(null));
+        assertThrows(AccessControlException.class,
+                () -> testedProvider.validateRestrictions("/my/path", aceTree("deny_int_myNumbers_GREATER_THEN_two")));
+        assertThrows(AccessControlException.class,
+                () -> testedProvider.validateRestrictions("/my/path", aceTree("deny_string_cq:tags")));
+        assertThrows(AccessControlException.class,
+                () -> testedProvider.validateRestrictions("/my/path", aceTree("deny_string_cq:tags_LESS_THEN_a")));
+    }
+
+    @Test
+    void validateRestrictions_accepts_the_restrictions_of_other_providers() throws Exception {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        NodeBuilder restrictions = builder.child("allow").child("rep:restrictions");
+        restrictions.setProperty("rep:glob", "*");
+        restrictions.setProperty("rep:subFolder", "allow_LESS_THAN_EQUALS_2");
+        restrictions.setProperty("rep:hasPropertyValues", "allow_string_cq:tags_EQUALS_properties:orientation/portrait");
+        Tree aceTree = new TreeProviderService().createReadOnlyTree(builder.getNodeState()).getChild("allow");
+
+        new PropertyValueRestrictionProvider().validateRestrictions("/my/path", aceTree);
+        new SubFolderRestrictionProvider().validateRestrictions("/my/path", aceTree);
+    }
+
+    @Test
+    void validateRestrictions_rejects_single_valued_tokens() {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        builder.child("allow").child("rep:restrictions").setProperty("rep:hasPropertyValuesTokens", "deny");
+        Tree aceTree = new TreeProviderService().createReadOnlyTree(builder.getNodeState()).getChild("allow");
+
+        assertThrows(AccessControlException.class,
+                () -> new PropertyValueRestrictionProvider().validateRestrictions("/my/path", aceTree));
+    }
+
+    @Test
+    void getPattern_fails_closed_for_an_invalid_restriction() {
+        PropertyValueRestrictionProvider testedProvider = new PropertyValueRestrictionProvider();
+        HashSet<Restriction> deny = new HashSet<>();
+        deny.add(new RestrictionImpl(createProperty("rep:hasPropertyValues", "deny_string_cq:tags", Type.STRING), false));
+        HashSet<Restriction> allow = new HashSet<>();
+        allow.add(new RestrictionImpl(createProperty("rep:hasPropertyValues", "allow_string_cq:tags", Type.STRING), false));
+        HashSet<Restriction> denyTokens = new HashSet<>();
+        denyTokens.add(new RestrictionImpl(PropertyStates.createProperty("rep:hasPropertyValuesTokens",
+                List.of("1", "deny", "", "string", "cq:tags", "UNKNOWN", "a"), Type.STRINGS), false));
+
+        assertSame(FailClosedPattern.DENY, testedProvider.getPattern("/my/path", deny));
+        assertSame(FailClosedPattern.ALLOW, testedProvider.getPattern("/my/path", allow));
+        assertSame(FailClosedPattern.DENY, testedProvider.getPattern("/my/path", denyTokens));
+        assertTrue(FailClosedPattern.DENY.matches("/my/path/asset.jpg"));
+        assertFalse(FailClosedPattern.ALLOW.matches("/my/path/asset.jpg"));
+    }
+
+    @Test
+    void canonical_returns_the_restriction_in_canonical_form() throws Exception {
+        String name = "rep:hasPropertyValues";
+        Restriction canonical = new RestrictionImpl(createProperty(name, "deny_string_cq:tags_EQUALS_a", Type.STRING), false);
+        Restriction alias = new RestrictionImpl(createProperty(name, "Deny_string_cq:tags==a,a", Type.STRING), false);
+
+        assertSame(canonical, PropertyValueRestrictionProvider.canonical(canonical));
+        assertEquals("deny_string_cq:tags_EQUALS_a",
+                PropertyValueRestrictionProvider.canonical(alias).getProperty().getValue(Type.STRING));
+        assertThrows(AccessControlException.class, () -> PropertyValueRestrictionProvider.canonical(
+                new RestrictionImpl(createProperty(name, "deny_string_cq:tags", Type.STRING), false)));
+    }
+
+    @Test
+    void getPattern_shares_the_pattern_of_pre_tokenised_and_string_restrictions() {
+        String oakPath = "/my/path";
+        PropertyValueRestrictionProvider testedProvider = new PropertyValueRestrictionProvider();
+        HashSet<Restriction> restrictions = new HashSet<>();
+        restrictions.add(new RestrictionImpl(
+                createProperty("rep:hasPropertyValues", "deny_string_cq:tags_EQUALS_a,b", Type.STRING), false));
+        HashSet<Restriction> tokens = new HashSet<>();
+        tokens.add(new RestrictionImpl(PropertyStates.createProperty("rep:hasPropertyValuesTokens",
+                List.of("1", "deny", "", "string", "cq:tags", "EQUALS", "a", "b"), Type.STRINGS), false));
+
+        RestrictionPattern stringPattern = testedProvider.getPattern(oakPath, restrictions);
+        RestrictionPattern tokensPattern = testedProvider.getPattern(oakPath, tokens);
+
+        assertTrue(stringPattern instanceof HasPropertyValuesPattern);
+        assertSame(stringPattern, tokensPattern);
+    }
+
+    @Test
+    void canonicalTokens_returns_the_restriction_in_canonical_form() throws Exception {
+        Restriction duplicated = new RestrictionImpl(PropertyStates.createProperty("rep:hasPropertyValuesTokens",
+                List.of("1", "deny", "", "string", "cq:tags", "EQUALS", "a", "a"), Type.STRINGS), false);
+
+        assertEquals(List.of("1", "deny", "", "string", "cq:tags", "EQUALS", "a"),
+                PropertyValueRestrictionProvider.canonicalTokens(duplicated).getProperty().getValue(Type.STRINGS));
+        assertThrows(AccessControlException.class, () -> PropertyValueRestrictionProvider.canonicalTokens(
+                new RestrictionImpl(PropertyStates.createProperty("rep:hasPropertyValuesTokens",
+                        List.of("1", "deny", "", "int", "size", "EQUALS", "big"), Type.STRINGS), false)));
+    }
+
+    @Test
+    void getPattern_checks_the_sub_folder_restriction_before_the_metadata() {
+        String oakPath = "/my/path";
+        PropertyValueRestrictionProvider testedProvider = new PropertyValueRestrictionProvider();
+        HashSet<Restriction> restrictions = new HashSet<>();
+        restrictions.add(new RestrictionImpl(
+                createProperty("rep:hasPropertyValues", "allow_string_cq:tags_EQUALS_a", Type.STRING), false));
+        restrictions.add(new RestrictionImpl(createProperty("rep:subFolder", "allow_EQUALS_1", Type.STRING), false));
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        NodeBuilder folder = builder.child("my").child("path");
+        folder.child("asset").child("jcr:content").child("metadata").setProperty("cq:tags", "a");
+        folder.child("sub").child("asset").child("jcr:content").child("metadata").setProperty("cq:tags", "a");
+        Tree root = new TreeProviderService().createReadOnlyTree(builder.getNodeState());
+
+        RestrictionPattern pattern = testedProvider.getPattern(oakPath, restrictions);
+
+        assertTrue(pattern instanceof GuardedPattern);
+        assertTrue(pattern.matches(root.getChild("my").getChild("path").getChild("asset"), null));
+        assertFalse(pattern.matches(root.getChild("my").getChild("path").getChild("sub").getChild("asset"), null));
+    }
+
+    @Test
+    void getPattern_fails_closed_for_an_invalid_sub_folder_restriction() {
+        PropertyValueRestrictionProvider testedProvider = new PropertyValueRestrictionProvider();
+        HashSet<Restriction> restrictions = new HashSet<>();
+        restrictions.add(new RestrictionImpl(
+                createProperty("rep:hasPropertyValues", "deny_string_cq:tags_EQUALS_a", Type.STRING), false));
+        restrictions.add(new RestrictionImpl(createProperty("rep:subFolder", "deny_EQUALS_", Type.STRING), false));
+
+        assertSame(FailClosedPattern.DENY, testedProvider.getPattern("/my/path", restrictions));
+    }
+
+    private static Tree aceTree(String restriction) {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        NodeBuilder restrictions = builder.child("allow").child("rep:restrictions");
+        restrictions.setProperty("rep:glob", "*");
+        if (restriction != null) {
+            restrictions.setProperty("rep:hasPropertyValues", restriction);
+        }
+        return new TreeProviderService().createReadOnlyTree(builder.getNodeState()).getChild("allow");
+    }
+
     // : create Unit tests for " RestrictionPattern getPattern(String oakPath, Tree tree)"
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import com.valtech.aapm.restrictions.RestrictionMetrics.PatternStatistics;
+import com.valtech.aapm.restrictions.RestrictionMetrics.RestrictionType;
+import com.valtech.aapm.restrictions.RestrictionMetrics.Statistics;
+
+class RestrictionMetricsTest {
+
+    @Test
+    void forPattern_shares_the_statistics_of_the_same_pattern() {
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+
+        PatternStatistics first = metrics.forPattern(RestrictionType.SUB_FOLDER, "allow_EQUALS_1 on /content/dam");
+        PatternStatistics second = metrics.forPattern(RestrictionType.SUB_FOLDER, "allow_EQUALS_1 on /content/dam");
+        PatternStatistics other = metrics.forPattern(RestrictionType.HAS_PROPERTY_VALUES, "allow_EQUALS_1 on /content/dam");
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+    }
+
+    @Test
+    void forPattern_shares_a_single_entry_past_the_maximum_number_of_patterns() {
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+        for (int i = 0; i < RestrictionMetrics.MAX_PATTERNS; i++) {
+            metrics.forPattern(RestrictionType.SUB_FOLDER, "allow_EQUALS_1 on /content/dam/" + i);
+        }
+
+        PatternStatistics first = metrics.forPattern(RestrictionType.SUB_FOLDER, "allow_EQUALS_2 on /content/dam");
+        PatternStatistics second = metrics.forPattern(RestrictionType.SUB_FOLDER, "allow_EQUALS_3 on /content/dam");
+
+        assertSame(first, second);
+    }
+
+    @Test
+    void record_updates_the_pattern_and_its_restriction_type() {
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+        PatternStatistics pattern = metrics.forPattern(RestrictionType.HAS_PROPERTY_VALUES, "deny_string_a_EQUALS_b on /");
+
+        pattern.recordEvaluation(pattern.start());
+        pattern.recordChildrenScanned(3);
+        pattern.recordMetadataLookup();
+        pattern.recordCacheHit();
+
+        for (Statistics statistics : new Statistics[]{pattern.getStatistics(),
+                metrics.getStatistics(RestrictionType.HAS_PROPERTY_VALUES)}) {
+            assertEquals(1, statistics.getEvaluations());
+            assertEquals(3, statistics.getChildrenScanned());
+            assertEquals(1, statistics.getMetadataLookups());
+            assertEquals(1, statistics.getCacheHits());
+        }
+        assertEquals(0, metrics.getStatistics(RestrictionType.SUB_FOLDER).getEvaluations());
+    }
+
+    @Test
+    void reset_keeps_reporting_the_live_patterns() {
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+        PatternStatistics pattern = metrics.forPattern(RestrictionType.HAS_PROPERTY_VALUES, "deny_string_a_EQUALS_b on /");
+        pattern.recordEvaluation(pattern.start());
+        pattern.recordEvaluation(pattern.start());
+
+        metrics.reset();
+        pattern.recordEvaluation(pattern.start());
+
+        assertEquals(1, metrics.getPatternStatistics().size());
+        assertSame(pattern.getStatistics(), metrics.getPatternStatistics().get(0));
+        assertEquals(1, pattern.getStatistics().getEvaluations());
+        assertEquals(1, metrics.getStatistics(RestrictionType.HAS_PROPERTY_VALUES).getEvaluations());
+        assertSame(pattern, metrics.forPattern(RestrictionType.HAS_PROPERTY_VALUES, "deny_string_a_EQUALS_b on /"));
+    }
+
+    @Test
+    void record_does_nothing_when_disabled() {
+        RestrictionMetrics metrics = new RestrictionMetrics(false);
+        PatternStatistics pattern = metrics.forPattern(RestrictionType.HAS_PROPERTY_VALUES, "deny_string_a_EQUALS_b on /");
+
+        pattern.recordEvaluation(pattern.start());
+        pattern.recordMetadataLookup();
+
+        assertEquals(0, pattern.getStatistics().getEvaluations());
+        assertEquals(0, pattern.getStatistics().getMetadataLookups());
+        assertEquals(0, metrics.getPatternStatistics().size());
+    }
+
+    @Test
+    void getLatencyPercentileNanos_returns_the_upper_limit_of_the_bucket() {
+        RestrictionMetrics metrics = new RestrictionMetrics(true);
+        PatternStatistics pattern = metrics.forPattern(RestrictionType.SUB_FOLDER, "allow_EQUALS_1 on /content/dam");
+
+        long now = System.nanoTime();
+        for (int i = 0; i < 99; i++) {
+            // far enough in the past to be in a higher bucket than any real evaluation
+            pattern.recordEvaluation(now - (1L << 40));
+        }
+        Statistics statistics = pattern.getStatistics();
+
+        assertEquals(99, statistics.getEvaluations());
+        assertEquals((1L << 41) - 1, statistics.getLatencyPercentileNanos(0.5));
+        assertEquals(0, metrics.getStatistics(RestrictionType.HAS_PROPERTY_VALUES).getLatencyPercentileNanos(0.99));
+    }
+}
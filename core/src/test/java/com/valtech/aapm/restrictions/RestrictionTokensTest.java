@@ -0,0 +1,92 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.apache.jackrabbit.oak.api.PropertyState;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.junit.jupiter.api.Test;
+
+class RestrictionTokensTest {
+
+    @Test
+    void decodeHasPropertyValues_returns_the_expression_of_the_equivalent_string() {
+        HasPropertyValuesExpression expression = RestrictionTokens.decodeHasPropertyValues(
+                tokens("1", "deny", "!", "string", "cq:tags", "EQUALS", "a", "b"), CoarseClock.DEFAULT);
+
+        assertEquals(HasPropertyValuesExpression.compile("deny_string_!cq:tags_EQUALS_a,b"), expression);
+        assertEquals(List.of("1", "deny", "!", "string", "cq:tags", "EQUALS", "a", "b"),
+                RestrictionTokens.encode(expression));
+    }
+
+    @Test
+    void decodeHasPropertyValues_keeps_the_separators_in_the_values() {
+        HasPropertyValuesExpression expression = RestrictionTokens.decodeHasPropertyValues(
+                tokens("1", "allow", "", "string", "jcr:title", "EQUALS", "a,b", "c_EQUALS_d"), CoarseClock.DEFAULT);
+
+        assertEquals(List.of("a,b", "c_EQUALS_d"), expression.getValues());
+    }
+
+    @Test
+    void decodeSubFolder_returns_the_expression_of_the_equivalent_string() {
+        SubFolderExpression expression = RestrictionTokens.decodeSubFolder(
+                tokens("1", "allow", "", "GREATER_THAN_EQUALS", "2"));
+
+        assertEquals(SubFolderExpression.compile("allow_GREATER_THAN_EQUALS_2"), expression);
+        assertEquals(List.of("1", "allow", "", "GREATER_THAN_EQUALS", "2"), RestrictionTokens.encode(expression));
+    }
+
+    @Test
+    void decode_rejects_invalid_tokens() {
+        assertThrows(IllegalArgumentException.class, () -> RestrictionTokens.decodeHasPropertyValues(
+                PropertyStates.createProperty("rep:hasPropertyValuesTokens", "deny_string_cq:tags_EQUALS_a", Type.STRING),
+                CoarseClock.DEFAULT));
+        assertThrows(IllegalArgumentException.class, () -> RestrictionTokens.decodeHasPropertyValues(
+                tokens("2", "deny", "", "string", "cq:tags", "EQUALS", "a"), CoarseClock.DEFAULT));
+        assertThrows(IllegalArgumentException.class, () -> RestrictionTokens.decodeHasPropertyValues(
+                tokens("1", "deny", "", "string", "cq:tags", "EQUALS"), CoarseClock.DEFAULT));
+        assertThrows(IllegalArgumentException.class, () -> RestrictionTokens.decodeHasPropertyValues(
+                tokens("1", "deny", "", "string", "cq:tags", "_EQUALS_", "a"), CoarseClock.DEFAULT));
+        assertThrows(IllegalArgumentException.class, () -> RestrictionTokens.decodeHasPropertyValues(
+                tokens("1", "deny", "", "string", "cq:tags", "GREATER_THEN", "a"), CoarseClock.DEFAULT).validate());
+        assertThrows(IllegalArgumentException.class, () -> RestrictionTokens.decodeHasPropertyValues(
+                tokens("1", "deny", "not", "string", "cq:tags", "EQUALS", "a"), CoarseClock.DEFAULT));
+        assertThrows(IllegalArgumentException.class,
+                () -> RestrictionTokens.decodeSubFolder(tokens("1", "grant", "", "EQUALS", "1")));
+        assertThrows(IllegalArgumentException.class,
+                () -> RestrictionTokens.decodeSubFolder(tokens("1", "deny", "", "EQUALS", "-1")));
+        assertThrows(IllegalArgumentException.class,
+                () -> RestrictionTokens.decodeSubFolder(tokens("1", "deny", "", "EQUALS", "1", "2")));
+    }
+
+    private static PropertyState tokens(String... values) {
+        return PropertyStates.createProperty("rep:tokens", List.of(values), Type.STRINGS);
+    }
+
+    @Test
+    void encode_rejects_a_boolean_restriction() {
+        assertThrows(IllegalArgumentException.class, () -> RestrictionTokens.encode(HasPropertyValuesExpression
+                .compile("deny_expr_string_cq:tags_EQUALS_a_AND_string_status_EQUALS_approved")));
+    }
+}
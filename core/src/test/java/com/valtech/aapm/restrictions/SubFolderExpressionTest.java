@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SubFolderExpressionTest {
+
+    @Test
+    void compile_nominal_case() {
+        SubFolderExpression expression = SubFolderExpression.compile("allow_GREATER_THAN_EQUALS_2");
+
+        assertFalse(expression.isDeny());
+        assertFalse(expression.isNegate());
+        assertEquals(Operators.GREATER_THAN_EQUALS, expression.getOperator());
+        assertEquals(2, expression.getLevel());
+    }
+
+    @Test
+    void compile_reads_the_negation() {
+        SubFolderExpression expression = SubFolderExpression.compile("deny_!_LESS_THEN_3");
+
+        assertTrue(expression.isDeny());
+        assertTrue(expression.isNegate());
+        assertEquals(Operators.LESS_THEN, expression.getOperator());
+        assertEquals(3, expression.getLevel());
+    }
+
+    @Test
+    void toString_returns_the_canonical_form() {
+        assertEquals("deny_EQUALS_1", SubFolderExpression.compile("DENY_EQUALS_01").toString());
+        assertEquals("allow_!_GREATER_THEN_0", SubFolderExpression.compile("Allow_!_GREATER_THEN_0").toString());
+        assertEquals(SubFolderExpression.compile("deny_EQUALS_1"), SubFolderExpression.compile("Deny_EQUALS_001"));
+    }
+
+    @Test
+    void compile_rejects_malformed_restrictions() {
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile(null));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny_UNDER_1"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("grant_EQUALS_1"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny_EQUAL_1"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny_!EQUALS_1"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny_EQUALS_"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny_EQUALS_-1"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny_EQUALS_1_GREATER_THEN_2"));
+        assertThrows(IllegalArgumentException.class, () -> SubFolderExpression.compile("deny_EQUALS_99999999999"));
+    }
+}
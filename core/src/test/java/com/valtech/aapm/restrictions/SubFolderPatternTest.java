@@ -122,4 +122,75 @@ class SubFolderPatternTest {
 
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void matches_evaluates_the_level_of_a_path() {
+        SubFolderPattern allowFirstLevel = new SubFolderPattern("allow_EQUALS_1", CONTENT_DAM_PUBLIC);
+        SubFolderPattern denyBelowSecondLevel = new SubFolderPattern("deny_GREATER_THAN_EQUALS_2", CONTENT_DAM_PUBLIC);
+
+        assertTrue(allowFirstLevel.matches(CONTENT_DAM_PUBLIC + "/photo.jpg"));
+        assertFalse(allowFirstLevel.matches(CONTENT_DAM_PUBLIC));
+        assertFalse(allowFirstLevel.matches(CONTENT_DAM_PUBLIC + "/parent1/photo.jpg"));
+        assertFalse(denyBelowSecondLevel.matches(CONTENT_DAM_PUBLIC + "/photo.jpg"));
+        assertTrue(denyBelowSecondLevel.matches(CONTENT_DAM_PUBLIC + "/parent1/photo.jpg"));
+        assertFalse(allowFirstLevel.matches());
+    }
+
+    @Test
+    void matches_evaluates_a_property_path_at_the_level_of_its_node() {
+        Tree dam = root.getTree("/").addChild("content").addChild("dam");
+        dam.addChild("public").addChild("photo.jpg");
+        SubFolderPattern allowFirstLevel = new SubFolderPattern("allow_EQUALS_1", CONTENT_DAM_PUBLIC);
+        Tree photo = root.getTree(CONTENT_DAM_PUBLIC + "/photo.jpg");
+
+        assertTrue(allowFirstLevel.matches(photo, null));
+        assertTrue(allowFirstLevel.matches(CONTENT_DAM_PUBLIC + "/photo.jpg/jcr:title", true));
+        assertFalse(allowFirstLevel.matches(CONTENT_DAM_PUBLIC + "/photo.jpg/jcr:title"));
+        assertFalse(allowFirstLevel.matches(CONTENT_DAM_PUBLIC + "/jcr:title", true));
+    }
+
+    @Test
+    void matches_compares_whole_path_segments() {
+        SubFolderPattern allowFirstLevel = new SubFolderPattern("allow_EQUALS_1", CONTENT_DAM_PUBLIC);
+        SubFolderPattern allowRootChildren = new SubFolderPattern("allow_EQUALS_1", "/");
+
+        assertFalse(allowFirstLevel.matches(CONTENT_DAM_PUBLIC + "2/photo.jpg"));
+        assertFalse(allowFirstLevel.isTriggeredPathADescendant(CONTENT_DAM_PUBLIC, CONTENT_DAM_PUBLIC + "2/photo.jpg"));
+        assertEquals(-1, allowFirstLevel.countDescentLevel(CONTENT_DAM_PUBLIC, CONTENT_DAM_PUBLIC + "2/photo.jpg"));
+        assertTrue(allowRootChildren.matches("/content"));
+        assertFalse(allowRootChildren.matches("/content/dam"));
+    }
+
+    @Test
+    void matches_evaluates_the_level_of_a_tree_from_its_ancestors() {
+        Tree dam = root.getTree("/").addChild("content").addChild("dam");
+        dam.addChild("public").addChild("parent1").addChild("asset.jpg");
+        dam.addChild("public2").addChild("parent1").addChild("asset.jpg");
+        SubFolderPattern allowSecondLevel = new SubFolderPattern("allow_EQUALS_2", CONTENT_DAM_PUBLIC);
+        SubFolderPattern denyFirstLevels = new SubFolderPattern("deny_LESS_THAN_EQUALS_2", CONTENT_DAM_PUBLIC);
+
+        assertTrue(allowSecondLevel.matches(root.getTree(CONTENT_DAM_PUBLIC + "/parent1/asset.jpg"), null));
+        assertFalse(allowSecondLevel.matches(root.getTree(CONTENT_DAM_PUBLIC + "/parent1"), null));
+        assertFalse(allowSecondLevel.matches(root.getTree("/content/dam/public2/parent1/asset.jpg"), null));
+        assertFalse(allowSecondLevel.matches(root.getTree("/content"), null));
+        assertTrue(denyFirstLevels.matches(root.getTree(CONTENT_DAM_PUBLIC + "/parent1"), null));
+        assertFalse(denyFirstLevels.matches(root.getTree(CONTENT_DAM_PUBLIC), null));
+        assertFalse(denyFirstLevels.matches(root.getTree("/content/dam/public2/parent1"), null));
+    }
+
+    @Test
+    void matches_applies_the_negation_of_a_deny() {
+        SubFolderPattern denyOutsideFirstLevel = new SubFolderPattern("deny_!_EQUALS_1", CONTENT_DAM_PUBLIC);
+
+        assertFalse(denyOutsideFirstLevel.matches(CONTENT_DAM_PUBLIC + "/photo.jpg"));
+        assertTrue(denyOutsideFirstLevel.matches(CONTENT_DAM_PUBLIC + "/parent1/photo.jpg"));
+    }
+
+    @Test
+    void create_returns_a_fail_closed_pattern_for_an_invalid_restriction() {
+        assertSame(FailClosedPattern.DENY, SubFolderPattern.create("deny_EQUALS_", CONTENT_DAM_PUBLIC));
+        assertSame(FailClosedPattern.DENY, SubFolderPattern.create("DENY_1", CONTENT_DAM_PUBLIC));
+        assertSame(FailClosedPattern.ALLOW, SubFolderPattern.create("allow_EQUALS_", CONTENT_DAM_PUBLIC));
+        assertSame(FailClosedPattern.ALLOW, SubFolderPattern.create("grant_EQUALS_1", CONTENT_DAM_PUBLIC));
+    }
+}
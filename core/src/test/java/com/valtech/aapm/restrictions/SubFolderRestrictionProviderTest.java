@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import javax.jcr.security.AccessControlException;
+
+import org.apache.jackrabbit.oak.api.Tree;
+import org.apache.jackrabbit.oak.api.Type;
+import org.apache.jackrabbit.oak.plugins.memory.EmptyNodeState;
+import org.apache.jackrabbit.oak.plugins.memory.PropertyStates;
+import org.apache.jackrabbit.oak.plugins.tree.impl.TreeProviderService;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.Restriction;
+import org.apache.jackrabbit.oak.spi.security.authorization.restriction.RestrictionImpl;
+import org.apache.jackrabbit.oak.spi.state.NodeBuilder;
+import org.junit.jupiter.api.Test;
+
+class SubFolderRestrictionProviderTest {
+
+    private static final String REP_SUB_FOLDER = "rep:subFolder";
+
+    @Test
+    void validateRestrictions_rejects_an_invalid_restriction() throws Exception {
+        SubFolderRestrictionProvider testedProvider = new SubFolderRestrictionProvider();
+
+        testedProvider.validateRestrictions("/my/path", aceTree("allow_GREATER_THAN_EQUALS_2"));
+        testedProvider.validateRestrictions("/my/path", aceTree(null));
+        assertThrows(AccessControlException.class,
+                () -> testedProvider.validateRestrictions("/my/path", aceTree("allow_GREATER_THAN_EQUALS_")));
+        assertThrows(AccessControlException.class,
+                () -> testedProvider.validateRestrictions("/my/path", aceTree("allow_AT_2")));
+    }
+
+    @Test
+    void canonical_returns_the_restriction_in_canonical_form() throws Exception {
+        Restriction canonical = restriction("deny_!_EQUALS_1");
+
+        assertSame(canonical, SubFolderRestrictionProvider.canonical(canonical));
+        assertEquals("deny_EQUALS_1",
+                SubFolderRestrictionProvider.canonical(restriction("Deny_EQUALS_01")).getProperty().getValue(Type.STRING));
+        assertThrows(AccessControlException.class, () -> SubFolderRestrictionProvider.canonical(restriction("deny_1")));
+    }
+
+    private static Restriction restriction(String value) {
+        return new RestrictionImpl(PropertyStates.createProperty(REP_SUB_FOLDER, value, Type.STRING), false);
+    }
+
+    private static Tree aceTree(String restriction) {
+        NodeBuilder builder = EmptyNodeState.EMPTY_NODE.builder();
+        NodeBuilder restrictions = builder.child("deny").child("rep:restrictions");
+        restrictions.setProperty("rep:glob", "*");
+        if (restriction != null) {
+            restrictions.setProperty(REP_SUB_FOLDER, restriction);
+        }
+        return new TreeProviderService().createReadOnlyTree(builder.getNodeState()).getChild("deny");
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2022 Valtech GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package com.valtech.aapm.restrictions;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TagTrieTest {
+
+    @Test
+    void matches_the_root_and_its_descendants() {
+        TagTrie trie = TagTrie.compile(List.of("properties:orientation"));
+
+        assertTrue(trie.matches("properties:orientation"));
+        assertTrue(trie.matches("properties:orientation/portrait"));
+        assertTrue(trie.matches("properties:orientation/portrait/square"));
+        assertFalse(trie.matches("properties:style/color"));
+        assertFalse(trie.matches("properties"));
+    }
+
+    @Test
+    void matches_whole_segments_only() {
+        TagTrie trie = TagTrie.compile(List.of("properties:orientation/"));
+
+        assertTrue(trie.matches("properties:orientation/landscape"));
+        assertFalse(trie.matches("properties:orientation-old/landscape"));
+        assertFalse(trie.matches("other:properties/orientation/landscape"));
+    }
+
+    @Test
+    void matches_a_whole_namespace() {
+        TagTrie trie = TagTrie.compile(List.of("properties:"));
+
+        assertTrue(trie.matches("properties:orientation/portrait"));
+        assertFalse(trie.matches("wknd:orientation/portrait"));
+    }
+
+    @Test
+    void compile_keeps_the_broadest_of_nested_roots() {
+        TagTrie trie = TagTrie.compile(List.of("properties:orientation/portrait", "properties:orientation",
+                "properties:orientation/landscape/wide", "wknd:activity"));
+
+        assertTrue(trie.matches("properties:orientation/landscape"));
+        assertTrue(trie.matches("wknd:activity/surfing"));
+        assertFalse(trie.matches("wknd:region"));
+    }
+}